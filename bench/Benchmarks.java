@@ -0,0 +1,505 @@
+import java.io.*;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Benchmarks for the Enigma and the Bombe, so that performance changes can be measured and tracked
+ * between releases. Run them through Maven with "mvn -Pbench verify", or directly with
+ * java -cp target/classes Benchmarks [options] [regex...]
+ *
+ * This is a small harness in the spirit of JMH rather than JMH itself, because JMH refuses to generate
+ * benchmarks for classes in the default package, which is where the whole simulator lives. It follows
+ * JMH's conventions where it can: the same command line options (-wi, -i, -r, -rf, -rff), the same two
+ * modes (average time for cheap operations, single shot for expensive ones) and the same JSON result
+ * format, so existing JMH tooling can read and compare the results.
+ *
+ * The reference menus are fixed: the "crack XJQWE HELLO" example from Main's help, and the "encode" help
+ * example enciphered on Main's default Enigma with the steckers from the "set-steckers" help example.
+ */
+public class Benchmarks {
+
+    private static final String SHORT_CIPHER_TEXT = "xjqwe";
+    private static final String SHORT_CRIB = "hello";
+
+    private static final String STECKERS = "AB CE FG HL PQ RT";
+    private static final String LONG_CRIB = "themessagetoencrypt";
+    private static final String LONG_CIPHER_TEXT = createEnigma().encode(LONG_CRIB).toLowerCase();
+
+    // Results are folded in here so the JIT can't throw away the work being measured
+    private static volatile long sink;
+
+    /**
+     * A single benchmarked operation. Returning something derived from the work
+     * keeps it from being optimized away.
+     */
+    private interface Operation {
+        long run();
+    }
+
+    private interface Setup {
+        Operation create();
+    }
+
+    private static class Benchmark {
+        private final String name;
+        private final LinkedHashMap<String, String> params = new LinkedHashMap<>();
+
+        // Single shot benchmarks time one call per iteration, the rest average over as many calls as
+        // fit in the iteration time, batch calls at a time so the clock isn't read on every call
+        private final boolean singleShot;
+        private final int batch;
+
+        private final Setup setup;
+
+        private Benchmark(String name, boolean singleShot, int batch, Setup setup, String... params) {
+            this.name = name;
+            this.singleShot = singleShot;
+            this.batch = batch;
+            this.setup = setup;
+
+            for(int i = 0; i < params.length; i += 2) {
+                this.params.put(params[i], params[i + 1]);
+            }
+        }
+
+        private String getId() {
+            StringBuilder builder = new StringBuilder(name);
+            for(Map.Entry<String, String> param : params.entrySet()) {
+                builder.append(':').append(param.getKey()).append('=').append(param.getValue());
+            }
+            return builder.toString();
+        }
+    }
+
+    private static class Result {
+        private final Benchmark benchmark;
+        private final double[] samples;
+        private final int warmupIterations;
+
+        private Result(Benchmark benchmark, double[] samples, int warmupIterations) {
+            this.benchmark = benchmark;
+            this.samples = samples;
+            this.warmupIterations = warmupIterations;
+        }
+
+        private String getMode() {
+            return benchmark.singleShot ? "ss" : "avgt";
+        }
+
+        private String getUnit() {
+            return benchmark.singleShot ? "ms/op" : "ns/op";
+        }
+
+        private double getScore() {
+            double sum = 0;
+            for(double sample : samples) {
+                sum += sample;
+            }
+            return sum / samples.length;
+        }
+
+        /**
+         * @return half the width of the 99.9% confidence interval, as JMH reports it
+         */
+        private double getError() {
+            if(samples.length < 2) {
+                return Double.NaN;
+            }
+
+            double mean = getScore();
+            double squares = 0;
+            for(double sample : samples) {
+                squares += (sample - mean) * (sample - mean);
+            }
+
+            double deviation = Math.sqrt(squares / (samples.length - 1));
+            return studentT(samples.length - 1) * deviation / Math.sqrt(samples.length);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int warmupIterations = 3;
+        int iterations = 5;
+        double iterationSeconds = 1;
+        int singleShotWarmupIterations = 1;
+        int singleShotIterations = 3;
+        String format = "text";
+        String output = null;
+        ArrayList<Pattern> filters = new ArrayList<>();
+
+        for(int i = 0; i < args.length; i++) {
+            switch(args[i]) {
+                case "-wi": warmupIterations = Integer.parseInt(args[++i]); break;
+                case "-i": iterations = Integer.parseInt(args[++i]); break;
+                case "-r": iterationSeconds = Double.parseDouble(args[++i]); break;
+                case "-sswi": singleShotWarmupIterations = Integer.parseInt(args[++i]); break;
+                case "-ssi": singleShotIterations = Integer.parseInt(args[++i]); break;
+                case "-rf": format = args[++i].toLowerCase(); break;
+                case "-rff": output = args[++i]; break;
+                case "-h":
+                    System.out.println("Usage: Benchmarks [-wi n] [-i n] [-r seconds] [-sswi n] [-ssi n] [-rf text|json|csv] [-rff file] [regex...]");
+                    return;
+                default: filters.add(Pattern.compile(args[i]));
+            }
+        }
+
+        ArrayList<Result> results = new ArrayList<>();
+
+        for(Benchmark benchmark : createBenchmarks()) {
+            if(!filters.isEmpty() && filters.stream().noneMatch(f -> f.matcher(benchmark.getId()).find())) {
+                continue;
+            }
+
+            System.out.println("# Benchmark: " + benchmark.getId());
+
+            Result result = benchmark.singleShot
+                    ? measure(benchmark, singleShotWarmupIterations, singleShotIterations, 0)
+                    : measure(benchmark, warmupIterations, iterations, (long) (iterationSeconds * 1e9));
+            results.add(result);
+
+            System.out.printf("Result: %.3f +- %.3f %s%n%n", result.getScore(), result.getError(), result.getUnit());
+        }
+
+        String report = "json".equals(format) ? toJson(results) : "csv".equals(format) ? toCsv(results) : toText(results);
+
+        if(output == null) {
+            System.out.println(report);
+        } else {
+            try(Writer writer = new FileWriter(output)) {
+                writer.write(report);
+            }
+            System.out.println(toText(results));
+            System.out.println("Results written to " + output);
+        }
+    }
+
+    private static ArrayList<Benchmark> createBenchmarks() {
+        ArrayList<Benchmark> benchmarks = new ArrayList<>();
+
+        for(boolean forwards : new boolean[]{true, false}) {
+            benchmarks.add(new Benchmark("Rotor.encode", false, 4096, () -> {
+                Rotor rotor = new Rotor(Rotor.Mapping.I, 3, 7);
+                int[] letter = {0};
+                return () -> letter[0] = rotor.encode((letter[0] + 1) % 26, forwards);
+            }, "direction", forwards ? "forward" : "backward"));
+        }
+
+        benchmarks.add(new Benchmark("Enigma.encode", false, 4096, () -> {
+            Enigma enigma = createEnigma();
+            char[] letter = {'a'};
+            return () -> letter[0] = enigma.encode((char) ('a' + (letter[0] - 'a' + 1) % 26));
+        }, "input", "char"));
+
+        for(int length : new int[]{16, 256, 4096}) {
+            benchmarks.add(new Benchmark("Enigma.encode", false, Math.max(1, 4096 / length), () -> {
+                Enigma enigma = createEnigma();
+                String message = randomMessage(length);
+                return () -> enigma.encode(message).length();
+            }, "input", "string", "length", String.valueOf(length)));
+        }
+
+        for(int length : new int[]{16, 256, 4096}) {
+            benchmarks.add(new Benchmark("MachineState.encode", false, Math.max(1, 4096 / length), () -> {
+                Enigma enigma = createEnigma();
+                long state = MachineState.fromEnigma(enigma);
+                byte[] plugBoard = MachineState.createPlugBoard(enigma.getPlugBoard());
+                String message = randomMessage(length);
+                return () -> MachineState.encode(state, plugBoard, message).length();
+            }, "input", "string", "length", String.valueOf(length)));
+        }
+
+        // A batch of 1024 short messages under different keys, one Enigma per message against lanes in lockstep
+        for(int lanes : new int[]{0, 1, 16, 256}) {
+            benchmarks.add(new Benchmark("MultiLaneEnigma.encode", false, 1, () -> {
+                Random random = new Random(1);
+                long[] states = new long[1024];
+                byte[][] plugBoards = new byte[states.length][];
+                String[] messages = new String[states.length];
+
+                for(int i = 0; i < states.length; i++) {
+                    Enigma enigma = createEnigma();
+                    enigma.left.setRotationPermanent(random.nextInt(26));
+                    enigma.middle.setRotationPermanent(random.nextInt(26));
+                    enigma.right.setRotationPermanent(random.nextInt(26));
+
+                    states[i] = MachineState.fromEnigma(enigma);
+                    plugBoards[i] = MachineState.createPlugBoard(enigma.getPlugBoard());
+                    messages[i] = randomMessage(32);
+                }
+
+                if(lanes == 0) {
+                    return () -> {
+                        int total = 0;
+                        for(int i = 0; i < states.length; i++) {
+                            total += MachineState.toEnigma(states[i], plugBoards[i]).encode(messages[i]).length();
+                        }
+                        return total;
+                    };
+                }
+
+                return () -> MultiLaneEnigma.encode(states, plugBoards, messages, lanes).length;
+            }, "lanes", lanes == 0 ? "enigma" : String.valueOf(lanes)));
+        }
+
+        benchmarks.add(new Benchmark("PlugBoard.swap", false, 4096, () -> {
+            PlugBoard board = new PlugBoard(STECKERS);
+            char[] letter = {'a'};
+            return () -> letter[0] = board.swap((char) ('a' + (letter[0] - 'a' + 1) % 26));
+        }));
+
+        benchmarks.add(new Benchmark("BombeEnigma.new", false, 1, () -> {
+            Enigma enigma = createEnigma();
+            return () -> new BombeEnigma(enigma).encode(0, 1);
+        }));
+
+        // Random lookups spread over every three rotor walzenlage's scrambler cache, like a farm running all
+        // 60 at once, against the nested int array layout the caches used to have
+        for(String layout : new String[]{"byte", "int4d"}) {
+            benchmarks.add(new Benchmark("BombeEnigma.encode", false, 4096, () -> {
+                ArrayList<int[]> walzenlagen = BombeFarm.getWalzenlagen();
+                BombeEnigma[] enigmas = new BombeEnigma[walzenlagen.size()];
+                int[][][][][] tables = new int[walzenlagen.size()][][][][];
+
+                for(int w = 0; w < enigmas.length; w++) {
+                    enigmas[w] = new BombeEnigma(BombeFarm.createEnigma(walzenlagen.get(w)));
+
+                    if("int4d".equals(layout)) {
+                        tables[w] = toNestedTable(enigmas[w]);
+                    }
+                }
+
+                long[] seed = {1};
+                return () -> {
+                    long x = seed[0];
+                    x ^= x << 13;
+                    x ^= x >>> 7;
+                    x ^= x << 17;
+                    seed[0] = x;
+
+                    int random = (int) (x >>> 33);
+                    int w = random % enigmas.length;
+                    int position = (random >>> 6) % Bombe.POSITIONS;
+                    int letter = (random >>> 21) % 26;
+
+                    if(tables[w] != null) {
+                        return tables[w][position / 676][(position / 26) % 26][position % 26][letter];
+                    }
+
+                    enigmas[w].setRotation(position / 676, (position / 26) % 26, 0);
+                    return enigmas[w].encode(letter, position % 26);
+                };
+            }, "layout", layout, "walzenlagen", "60"));
+        }
+
+        String[][] menus = {{"short", SHORT_CIPHER_TEXT, SHORT_CRIB}, {"long", LONG_CIPHER_TEXT, LONG_CRIB}};
+
+        for(String[] menu : menus) {
+            // One middle rotor's worth of positions, i.e. 676 full energize and checkStop passes. Pinned to the
+            // energize engine so results stay comparable with those from before the loop condition
+            benchmarks.add(new Benchmark("Bombe.energize", false, 1, () -> {
+                Bombe bombe = new Bombe(createEnigma(), menu[1], menu[2], true);
+                bombe.setEngine(Bombe.Engine.ENERGIZE);
+                return () -> bombe.run(0, 676).size();
+            }, "menu", menu[0], "positions", "676"));
+
+            // The same positions, most of them ruled out by the loop condition before energizing
+            benchmarks.add(new Benchmark("Bombe.loops", false, 1, () -> {
+                Bombe bombe = new Bombe(createEnigma(), menu[1], menu[2], true);
+                bombe.setEngine(Bombe.Engine.LOOPS);
+                return () -> bombe.run(0, 676).size();
+            }, "menu", menu[0], "positions", "676"));
+
+            benchmarks.add(new Benchmark("Bombe.run", true, 1, () -> {
+                Bombe bombe = new Bombe(createEnigma(), menu[1], menu[2], true);
+                return () -> bombe.run().size();
+            }, "menu", menu[0]));
+        }
+
+        benchmarks.add(new Benchmark("BombeFarm.run", true, 1,
+                () -> () -> new BombeFarm(LONG_CIPHER_TEXT, LONG_CRIB, true).run().size(), "menu", "long"));
+
+        return benchmarks;
+    }
+
+    private static Result measure(Benchmark benchmark, int warmupIterations, int iterations, long iterationNanos) {
+        Operation operation = benchmark.setup.create();
+        double[] samples = new double[iterations];
+
+        for(int i = -warmupIterations; i < iterations; i++) {
+            long local = 0;
+            double sample;
+
+            if(benchmark.singleShot) {
+                long start = System.nanoTime();
+                local += operation.run();
+                sample = (System.nanoTime() - start) / 1e6;
+            } else {
+                long ops = 0;
+                long start = System.nanoTime();
+                long elapsed;
+
+                do {
+                    for(int j = 0; j < benchmark.batch; j++) {
+                        local += operation.run();
+                    }
+                    ops += benchmark.batch;
+                    elapsed = System.nanoTime() - start;
+                } while(elapsed < iterationNanos);
+
+                sample = (double) elapsed / ops;
+            }
+
+            sink += local;
+
+            String label = i < 0 ? "# Warmup Iteration " + (i + warmupIterations + 1) : "Iteration " + (i + 1);
+            System.out.printf("%s: %.3f %s%n", label, sample, benchmark.singleShot ? "ms/op" : "ns/op");
+
+            if(i >= 0) {
+                samples[i] = sample;
+            }
+        }
+
+        return new Result(benchmark, samples, warmupIterations);
+    }
+
+    /**
+     * Main's default Enigma with the steckers from the set-steckers help example
+     */
+    private static Enigma createEnigma() {
+        return new EnigmaBuilder()
+                .setBoard(new PlugBoard(STECKERS))
+                .setReflector(Rotor.Mapping.ReflectorB)
+                .setLeft(Rotor.Mapping.I, 'a', 'a')
+                .setMiddle(Rotor.Mapping.II, 'a', 'a')
+                .setRight(Rotor.Mapping.III, 'a', 'a')
+                .build();
+    }
+
+    /**
+     * Copies a scrambler cache into the int[left][middle][right][letter] layout BombeEnigma used to keep
+     */
+    private static int[][][][] toNestedTable(BombeEnigma enigma) {
+        int[][][][] table = new int[26][26][26][26];
+
+        for(int i = 0; i < 26; i++) {
+            for(int j = 0; j < 26; j++) {
+                enigma.setRotation(i, j, 0);
+
+                for(int k = 0; k < 26; k++) {
+                    for(int l = 0; l < 26; l++) {
+                        table[i][j][k][l] = enigma.encode(l, k);
+                    }
+                }
+            }
+        }
+
+        return table;
+    }
+
+    private static String randomMessage(int length) {
+        Random random = new Random(length);
+        StringBuilder builder = new StringBuilder();
+
+        for(int i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(26)));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * @return the two sided 99.9% critical value of Student's t-distribution
+     */
+    private static double studentT(int degreesOfFreedom) {
+        final double[] table = {636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+                4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850};
+
+        if(degreesOfFreedom <= table.length) {
+            return table[degreesOfFreedom - 1];
+        }
+
+        return degreesOfFreedom <= 30 ? 3.646 : 3.291;
+    }
+
+    private static String toText(ArrayList<Result> results) {
+        StringBuilder builder = new StringBuilder(String.format("%-60s %5s %4s %14s   %12s %s%n", "Benchmark", "Mode", "Cnt", "Score", "Error", "Units"));
+
+        for(Result result : results) {
+            builder.append(String.format("%-60s %5s %4d %14.3f +- %12.3f %s%n", result.benchmark.getId(), result.getMode(),
+                    result.samples.length, result.getScore(), result.getError(), result.getUnit()));
+        }
+
+        return builder.toString();
+    }
+
+    private static String toCsv(ArrayList<Result> results) {
+        TreeSet<String> paramNames = new TreeSet<>();
+        for(Result result : results) {
+            paramNames.addAll(result.benchmark.params.keySet());
+        }
+
+        StringBuilder builder = new StringBuilder("\"Benchmark\",\"Mode\",\"Threads\",\"Samples\",\"Score\",\"Score Error (99.9%)\",\"Unit\"");
+        for(String param : paramNames) {
+            builder.append(",\"Param: ").append(param).append('"');
+        }
+        builder.append('\n');
+
+        for(Result result : results) {
+            builder.append('"').append(result.benchmark.name).append("\",\"").append(result.getMode()).append("\",1,")
+                    .append(result.samples.length).append(',').append(result.getScore()).append(',').append(result.getError())
+                    .append(",\"").append(result.getUnit()).append('"');
+
+            for(String param : paramNames) {
+                builder.append(',').append(result.benchmark.params.getOrDefault(param, ""));
+            }
+            builder.append('\n');
+        }
+
+        return builder.toString();
+    }
+
+    private static String toJson(ArrayList<Result> results) {
+        StringBuilder builder = new StringBuilder("[\n");
+
+        for(int i = 0; i < results.size(); i++) {
+            Result result = results.get(i);
+            double score = result.getScore();
+            double error = result.getError();
+
+            builder.append("    {\n")
+                    .append("        \"benchmark\" : \"").append(result.benchmark.name).append("\",\n")
+                    .append("        \"mode\" : \"").append(result.getMode()).append("\",\n")
+                    .append("        \"threads\" : 1,\n")
+                    .append("        \"forks\" : 1,\n")
+                    .append("        \"jdkVersion\" : \"").append(System.getProperty("java.version")).append("\",\n")
+                    .append("        \"vmName\" : \"").append(System.getProperty("java.vm.name")).append("\",\n")
+                    .append("        \"warmupIterations\" : ").append(result.warmupIterations).append(",\n")
+                    .append("        \"measurementIterations\" : ").append(result.samples.length).append(",\n");
+
+            if(!result.benchmark.params.isEmpty()) {
+                builder.append("        \"params\" : {\n");
+                int j = 0;
+                for(Map.Entry<String, String> param : result.benchmark.params.entrySet()) {
+                    builder.append("            \"").append(param.getKey()).append("\" : \"").append(param.getValue()).append('"')
+                            .append(++j < result.benchmark.params.size() ? ",\n" : "\n");
+                }
+                builder.append("        },\n");
+            }
+
+            builder.append("        \"primaryMetric\" : {\n")
+                    .append("            \"score\" : ").append(score).append(",\n")
+                    .append("            \"scoreError\" : ").append(jsonNumber(error)).append(",\n")
+                    .append("            \"scoreConfidence\" : [").append(jsonNumber(score - error)).append(", ").append(jsonNumber(score + error)).append("],\n")
+                    .append("            \"scoreUnit\" : \"").append(result.getUnit()).append("\",\n")
+                    .append("            \"rawData\" : [").append(Arrays.toString(result.samples)).append("]\n")
+                    .append("        }\n")
+                    .append(i + 1 < results.size() ? "    },\n" : "    }\n");
+        }
+
+        return builder.append("]\n").toString();
+    }
+
+    private static String jsonNumber(double value) {
+        return Double.isNaN(value) ? "\"NaN\"" : String.valueOf(value);
+    }
+}
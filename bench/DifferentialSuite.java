@@ -0,0 +1,306 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+/**
+ * Seeded randomized differential suite: runs the fast engines and the reference model (see {@link ReferenceEngine})
+ * side by side over random rotor orders, rings, rotations, plug boards, messages and menus, and reports every
+ * case where they disagree. The same seed always produces the same cases, so a failure can be replayed.
+ *
+ * Run with: java -cp target/classes DifferentialSuite [seed] [cases]
+ * It exits with status 1 if anything diverged.
+ */
+public class DifferentialSuite {
+
+    // Bombe positions compared per menu, besides the true position of menus made from a real encipherment
+    private static final int POSITIONS_PER_MENU = 200;
+
+    private static final int MAX_REPORTED = 20;
+
+    private final Random random;
+    private final ArrayList<String> failures = new ArrayList<>();
+    private long comparisons;
+
+    private DifferentialSuite(long seed) {
+        this.random = new Random(seed);
+    }
+
+    public static void main(String[] args) {
+        long seed = args.length > 0 ? Long.parseLong(args[0]) : 1;
+        int cases = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+
+        DifferentialSuite suite = new DifferentialSuite(seed);
+        long start = System.nanoTime();
+
+        // A crib whose loopless subgraphs once made the multi menu Bombe lose the stop a plain Bombe finds, and
+        // the same crib along with a message in depth, whose edges once got mixed up with the first crib's
+        int[] walzenlage = {Rotor.Mapping.ReflectorB.ordinal(), 0, 1, 2};
+        suite.multiMenuCase(walzenlage, 0, "wetterbekeinebes", new PlugBoard("ab ce fg hl pq rt"), 8, null, true);
+        suite.multiMenuCase(walzenlage, 0, "wetterbekeinebes", new PlugBoard("ab ce fg hl pq rt"), 0, "anxobersturmfueh", true);
+
+        for(int i = 0; i < cases; i++) {
+            suite.encodeCase();
+            suite.multiLaneCase();
+            suite.scramblerCase();
+            suite.bombeCase();
+            suite.multiMenuCase();
+
+            // Building a day key's table takes a while, so fewer of those
+            if(i % 20 == 0) {
+                suite.dayKeyCase();
+            }
+        }
+
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Seed " + seed + ": " + cases + " cases, " + suite.comparisons + " comparisons, "
+                + suite.failures.size() + " divergences in " + elapsed + "ms");
+
+        for(int i = 0; i < Math.min(MAX_REPORTED, suite.failures.size()); i++) {
+            System.out.println("  " + suite.failures.get(i));
+        }
+
+        if(!suite.failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private void compare(String what, String expected, String actual) {
+        comparisons++;
+
+        if(!expected.equalsIgnoreCase(actual)) {
+            failures.add(what + ": expected " + expected + ", got " + actual);
+        }
+    }
+
+    private void encodeCase() {
+        long state = randomState(random.nextBoolean());
+        byte[] plugBoard = MachineState.createPlugBoard(randomPlugBoard());
+        String message = randomText(1 + random.nextInt(400), true);
+
+        compare("MachineState " + MachineState.toString(state), ReferenceEngine.encode(state, plugBoard, message),
+                MachineState.encode(state, plugBoard, message));
+    }
+
+    private void multiLaneCase() {
+        int lanes = 1 + random.nextInt(16);
+        long[] states = new long[lanes];
+        byte[][] plugBoards = new byte[lanes][];
+        String[] messages = new String[lanes];
+
+        for(int lane = 0; lane < lanes; lane++) {
+            states[lane] = randomState(random.nextBoolean());
+            plugBoards[lane] = MachineState.createPlugBoard(randomPlugBoard());
+            messages[lane] = randomText(1 + random.nextInt(400), true);
+        }
+
+        String[] encoded = MultiLaneEnigma.encode(states, plugBoards, messages, 1 + random.nextInt(lanes));
+        for(int lane = 0; lane < lanes; lane++) {
+            compare("MultiLaneEnigma " + MachineState.toString(states[lane]), ReferenceEngine.encode(states[lane], plugBoards[lane], messages[lane]),
+                    encoded[lane]);
+        }
+    }
+
+    private void dayKeyCase() {
+        int[] walzenlage = randomWalzenlage(false);
+        String line = "1 " + (walzenlage[0] == Rotor.Mapping.ReflectorB.ordinal() ? "B:" : "C:")
+                + Rotor.Mapping.getMapping(walzenlage[1]) + "," + Rotor.Mapping.getMapping(walzenlage[2]) + "," + Rotor.Mapping.getMapping(walzenlage[3])
+                + " " + randomText(3, false) + " " + randomText(3, false) + " " + randomPlugBoard();
+
+        DayKey key = DayKey.parse(line);
+        String messageKey = randomText(3, false);
+        String message = randomText(1 + random.nextInt(400), true);
+
+        compare("DayKey " + line + " at " + messageKey, referenceDayKey(line, messageKey, message), key.decrypt(messageKey, message));
+    }
+
+    /**
+     * Deciphers with an Enigma built from a key sheet line, the reference for {@link DayKey#decrypt(String, String)}
+     */
+    private static String referenceDayKey(String line, String messageKey, String message) {
+        String[] tokens = line.split(" ", 5);
+        int[] walzenlage = BatchJob.parseWalzenlage(tokens[1]);
+
+        long state = MachineState.create(Rotor.Mapping.getMapping(walzenlage[0]), null, Rotor.Mapping.getMapping(walzenlage[1]),
+                Rotor.Mapping.getMapping(walzenlage[2]), Rotor.Mapping.getMapping(walzenlage[3]));
+
+        int[] slots = {MachineState.LEFT, MachineState.MIDDLE, MachineState.RIGHT};
+        for(int i = 0; i < 3; i++) {
+            state = MachineState.withRing(state, slots[i], Utils.a2i(tokens[2].charAt(i)));
+            state = MachineState.withRotation(state, slots[i], Utils.a2i(messageKey.charAt(i)));
+        }
+
+        PlugBoard board = tokens.length > 4 && !tokens[4].isBlank() ? new PlugBoard(tokens[4]) : new PlugBoard();
+        return ReferenceEngine.encode(state, MachineState.createPlugBoard(board), message);
+    }
+
+    private void scramblerCase() {
+        int[] walzenlage = randomWalzenlage(random.nextBoolean());
+        BombeEnigma enigma = new BombeEnigma(BombeFarm.createEnigma(walzenlage, random.nextInt(26)));
+
+        for(int i = 0; i < 100; i++) {
+            int position = random.nextInt(Bombe.POSITIONS);
+            int letter = random.nextInt(26);
+            int offset = random.nextInt(26);
+
+            enigma.setRotation(position / 676, position / 26 % 26, position % 26);
+            compare("BombeEnigma " + enigma.getConfiguration() + " " + enigma.getIndicator() + " letter " + letter + " offset " + offset,
+                    String.valueOf(enigma.encodeReference(letter, offset)), String.valueOf(enigma.encode(letter, offset)));
+        }
+    }
+
+    private void bombeCase() {
+        boolean fourRotor = random.nextInt(4) == 0;
+        int[] walzenlage = randomWalzenlage(fourRotor);
+        int greekRotation = random.nextInt(26);
+        boolean check = random.nextBoolean();
+
+        String crib = randomText(6 + random.nextInt(15), false);
+        String cipherText;
+        int truePosition = -1;
+        PlugBoard plugBoard = randomPlugBoard();
+
+        if(random.nextBoolean()) {
+            // A real encipherment, so the menu has a stop to find
+            truePosition = random.nextInt(Bombe.POSITIONS);
+            long state = MachineState.fromEnigma(BombeFarm.createEnigma(walzenlage, greekRotation));
+            state = MachineState.withRotation(state, MachineState.LEFT, truePosition / 676);
+            state = MachineState.withRotation(state, MachineState.MIDDLE, truePosition / 26 % 26);
+            state = MachineState.withRotation(state, MachineState.RIGHT, truePosition % 26);
+
+            cipherText = MachineState.encode(state, MachineState.createPlugBoard(plugBoard), crib).toLowerCase();
+        } else {
+            StringBuilder builder = new StringBuilder();
+            for(char c : crib.toCharArray()) {
+                builder.append((char) ('a' + (c - 'a' + 1 + random.nextInt(25)) % 26));
+            }
+            cipherText = builder.toString();
+        }
+
+        Bombe bombe = new Bombe(BombeFarm.createEnigma(walzenlage, greekRotation), cipherText, crib, check);
+
+        // Sometimes a few of the steckers are known, they're only true of real encipherments
+        String known = "";
+        if(random.nextInt(3) == 0) {
+            PlugBoard knownPairs = new PlugBoard();
+            for(int letter = 0; letter < 26; letter++) {
+                int partner = Utils.a2i(plugBoard.swap(Utils.i2a(letter)));
+                if(partner > letter && random.nextInt(3) == 0) {
+                    knownPairs.add(letter, partner);
+                }
+            }
+
+            bombe.setKnownSteckers(knownPairs);
+            known = " steckers " + Bombe.getKnownKey(knownPairs);
+        }
+
+        for(int i = 0; i <= POSITIONS_PER_MENU; i++) {
+            int position = i == 0 && truePosition >= 0 ? truePosition : random.nextInt(Bombe.POSITIONS);
+
+            String actual = ReferenceEngine.describe(bombe.test(position));
+            String expected = ReferenceEngine.describe(bombe.testReference(position));
+            compare("Bombe " + BombeFarm.getConfiguration(walzenlage) + " at " + greekRotation + " " + cipherText + "/" + crib
+                    + (check ? " checked" : "") + known + " position " + position, expected, actual);
+        }
+    }
+
+    private void multiMenuCase() {
+        int[] walzenlage = randomWalzenlage(false);
+        String crib = randomText(6 + random.nextInt(15), false);
+
+        // A position where the middle and left rotors don't step within the crib, the Bombe assumes they don't
+        int position;
+        long state;
+        do {
+            position = random.nextInt(Bombe.POSITIONS);
+            state = getState(walzenlage, position);
+        } while(CanonicalKey.getMiddleStep(state, crib.length()) != 0 || CanonicalKey.getLeftStep(state, crib.length()) != 0);
+
+        String depth = random.nextInt(3) == 0 ? randomText(crib.length(), false) : null;
+        multiMenuCase(walzenlage, position, crib, randomPlugBoard(), random.nextInt(crib.length()), depth, random.nextBoolean());
+    }
+
+    /**
+     * The multi menu Bombe has no reference of its own, but wherever a plain Bombe stops at the true position of
+     * a crib, the multi menu Bombe has to as well, whether it gets the crib in one piece or split in two menus,
+     * and whether or not another crib in depth with it is added
+     * @param split Where to split the crib, 0 to keep it in one menu
+     * @param depth A crib of another message enciphered at the same key, or null
+     */
+    private void multiMenuCase(int[] walzenlage, int position, String crib, PlugBoard plugBoard, int split, String depth, boolean check) {
+        String cipherText = MachineState.encode(getState(walzenlage, position), MachineState.createPlugBoard(plugBoard), crib).toLowerCase();
+        Enigma enigma = BombeFarm.createEnigma(walzenlage);
+
+        if(new Bombe(enigma, cipherText, crib, check).test(position) == null) {
+            return;
+        }
+
+        MultiMenuBombe bombe = new MultiMenuBombe(enigma, check);
+        if(split > 0) {
+            bombe.addMenu(cipherText.substring(0, split), crib.substring(0, split), 0);
+            bombe.addMenu(cipherText.substring(split), crib.substring(split), split);
+        } else {
+            bombe.addMenu(cipherText, crib, 0);
+        }
+
+        String inDepth = "";
+        if(depth != null) {
+            String depthCipherText = MachineState.encode(getState(walzenlage, position), MachineState.createPlugBoard(plugBoard), depth).toLowerCase();
+            bombe.addMenu(depthCipherText, depth, 0);
+            inDepth = " in depth with " + depthCipherText + "/" + depth;
+        }
+
+        compare("MultiMenuBombe " + BombeFarm.getConfiguration(walzenlage) + " " + cipherText + "/" + crib + " split at " + split + inDepth
+                + (check ? " checked" : "") + " position " + position, "stop", bombe.run(position, position + 1, 1).isEmpty() ? "no stop" : "stop");
+    }
+
+    private static long getState(int[] walzenlage, int position) {
+        long state = MachineState.fromEnigma(BombeFarm.createEnigma(walzenlage));
+        state = MachineState.withRotation(state, MachineState.LEFT, position / 676);
+        state = MachineState.withRotation(state, MachineState.MIDDLE, position / 26 % 26);
+        return MachineState.withRotation(state, MachineState.RIGHT, position % 26);
+    }
+
+    private int[] randomWalzenlage(boolean fourRotor) {
+        ArrayList<int[]> walzenlagen = fourRotor ? BombeFarm.getFourRotorWalzenlagen() : BombeFarm.getWalzenlagen();
+        return walzenlagen.get(random.nextInt(walzenlagen.size()));
+    }
+
+    private long randomState(boolean fourRotor) {
+        int[] walzenlage = randomWalzenlage(fourRotor);
+        long state = MachineState.fromEnigma(BombeFarm.createEnigma(walzenlage, 0));
+
+        for(int slot = MachineState.RIGHT; slot <= (fourRotor ? MachineState.GREEK : MachineState.LEFT); slot++) {
+            state = MachineState.withRotation(state, slot, random.nextInt(26));
+            state = MachineState.withRing(state, slot, random.nextInt(26));
+        }
+
+        return state;
+    }
+
+    private PlugBoard randomPlugBoard() {
+        PlugBoard board = new PlugBoard();
+
+        ArrayList<Integer> letters = new ArrayList<>();
+        for(int i = 0; i < 26; i++) {
+            letters.add(i);
+        }
+        Collections.shuffle(letters, random);
+
+        int pairs = random.nextInt(14);
+        for(int i = 0; i < pairs; i++) {
+            board.add(letters.get(2 * i), letters.get(2 * i + 1));
+        }
+
+        return board;
+    }
+
+    private String randomText(int length, boolean spaces) {
+        StringBuilder builder = new StringBuilder();
+
+        for(int i = 0; i < length; i++) {
+            builder.append(spaces && i % 5 == 4 ? ' ' : (char) ('a' + random.nextInt(26)));
+        }
+
+        return builder.toString();
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+
+/**
+ * Loopback test for the {@link FarmCoordinator}: a coordinator on a free port and {@link FarmWorker}s running in
+ * this JVM crack a crib over a few walzenlagen, while one more worker dies in the middle of its first unit and
+ * another hangs on its unit without a word. The stops have to be exactly those of a {@link Bombe} run locally. It also checks that a coordinator whose workers
+ * never show up gives up, and that a crib the Bombe rejects is turned down before any worker starts.
+ *
+ * Run with: java -cp target/classes FarmLoopbackTest [workers]
+ * It exits with status 1 if anything failed.
+ */
+public class FarmLoopbackTest {
+
+    // The same long reference menu as the benchmarks, enciphered on Main's default Enigma
+    private static final String CRIB = "themessagetoencrypt";
+    private static final String STECKERS = "AB CE FG HL PQ RT";
+
+    private static final ArrayList<String> failures = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        int workers = args.length > 0 ? Integer.parseInt(args[0]) : 2;
+
+        String cipherText = new EnigmaBuilder()
+                .setBoard(new PlugBoard(STECKERS))
+                .setReflector(Rotor.Mapping.ReflectorB)
+                .setLeft(Rotor.Mapping.I, 'a', 'a')
+                .setMiddle(Rotor.Mapping.II, 'a', 'a')
+                .setRight(Rotor.Mapping.III, 'a', 'a')
+                .build()
+                .encode(CRIB);
+
+        long start = System.nanoTime();
+
+        farmCase(cipherText, workers);
+        timeoutCase(cipherText);
+        invalidCribCase();
+
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+        System.out.println("Farm loopback test with " + workers + " workers: " + failures.size() + " failures in " + elapsed + "ms");
+
+        for(String failure : failures) {
+            System.out.println("  " + failure);
+        }
+
+        if(!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private static void farmCase(String cipherText, int workers) throws Exception {
+        ArrayList<int[]> walzenlagen = new ArrayList<>(BombeFarm.getWalzenlagen().subList(0, 3));
+
+        ArrayList<String> expected = new ArrayList<>();
+        for(int[] walzenlage : walzenlagen) {
+            for(String[] stop : new Bombe(BombeFarm.createEnigma(walzenlage), cipherText, CRIB, true).run()) {
+                expected.add(String.join(" | ", stop));
+            }
+        }
+
+        ArrayList<String> actual = new ArrayList<>();
+        try(FarmCoordinator coordinator = new FarmCoordinator(0, cipherText, CRIB, true, 4, walzenlagen)) {
+            String host = InetAddress.getLoopbackAddress().getHostAddress();
+            coordinator.setWorkerTimeout(2000);
+
+            // A worker that takes a unit and goes away without finishing it, the unit has to go to another worker
+            try(Socket socket = new Socket(host, coordinator.getPort());
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()))) {
+                in.readLine();
+                in.readLine();
+            }
+
+            // A worker that takes a unit and then hangs, connected but silent, until the test is over
+            Socket hung = new Socket(host, coordinator.getPort());
+            BufferedReader hungIn = new BufferedReader(new InputStreamReader(hung.getInputStream()));
+            hungIn.readLine();
+            hungIn.readLine();
+
+            for(int i = 0; i < workers; i++) {
+                Thread worker = new Thread(() -> {
+                    try {
+                        FarmWorker.work(host, coordinator.getPort());
+                    } catch(Exception e) {
+                        synchronized(failures) {
+                            failures.add("Worker failed: " + e);
+                        }
+                    }
+                }, "farm-worker-" + i);
+
+                worker.setDaemon(true);
+                worker.start();
+            }
+
+            for(String[] stop : coordinator.run(stop -> {})) {
+                actual.add(String.join(" | ", stop));
+            }
+
+            hung.close();
+        }
+
+        Collections.sort(expected);
+        Collections.sort(actual);
+
+        if(!expected.equals(actual)) {
+            failures.add("Farm stops: expected " + expected + ", got " + actual);
+        }
+
+        if(actual.stream().noneMatch(stop -> stop.startsWith("aaa | ") && stop.endsWith("ReflectorB, I, II, III"))) {
+            failures.add("Farm stops: the true stop at aaa on ReflectorB, I, II, III is missing from " + actual);
+        }
+    }
+
+    private static void timeoutCase(String cipherText) throws Exception {
+        try(FarmCoordinator coordinator = new FarmCoordinator(0, cipherText, CRIB, true, 1)) {
+            coordinator.setWorkerTimeout(500);
+            coordinator.run(stop -> {});
+
+            failures.add("Timeout: a coordinator without workers finished");
+        } catch(IllegalStateException e) {
+            // expected
+        }
+    }
+
+    private static void invalidCribCase() throws Exception {
+        // The crib's first letter lines up with the same cipher text letter
+        try(FarmCoordinator coordinator = new FarmCoordinator(0, "tbcdef", "tuvwxy", true, 1)) {
+            failures.add("Invalid crib: the coordinator accepted it on port " + coordinator.getPort());
+        } catch(IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,139 @@
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test for the {@link EnigmaServer}: a number of concurrent clients send a mix of encode and crack
+ * requests for a fixed amount of time, and the latency percentiles of each kind of request are reported.
+ *
+ * Run with: java -cp target/classes ServerLoadTest [clients] [seconds] [crack percentage] [server url]
+ * Without a server url, a server is started in this JVM on a free port.
+ */
+public class ServerLoadTest {
+
+    // The same long reference menu as the benchmarks, enciphered on Main's default Enigma
+    private static final String CRIB = "themessagetoencrypt";
+    private static final String STECKERS = "AB CE FG HL PQ RT";
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 32;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        int crackPercentage = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+
+        EnigmaServer server = null;
+        String url;
+
+        if(args.length > 3) {
+            url = args[3];
+        } else {
+            server = new EnigmaServer(0, Runtime.getRuntime().availableProcessors());
+            url = server.getUrl().substring(0, server.getUrl().length() - 1);
+        }
+
+        HttpClient client = HttpClient.newHttpClient();
+
+        String cipherText = new EnigmaBuilder()
+                .setBoard(new PlugBoard(STECKERS))
+                .setReflector(Rotor.Mapping.ReflectorB)
+                .setLeft(Rotor.Mapping.I, 'a', 'a')
+                .setMiddle(Rotor.Mapping.II, 'a', 'a')
+                .setRight(Rotor.Mapping.III, 'a', 'a')
+                .build()
+                .encode(CRIB);
+
+        String encodeQuery = "/encode?rotors=B,I,II,III&rings=aaa&rotations=aaa&steckers=" + encode(STECKERS) + "&message=";
+        String crackQuery = "/crack?rotors=B,I,II,III&cipher=" + cipherText + "&crib=" + CRIB;
+
+        ArrayList<Long> encodeLatencies = new ArrayList<>();
+        ArrayList<Long> crackLatencies = new ArrayList<>();
+        AtomicInteger errors = new AtomicInteger();
+
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        ArrayList<Thread> threads = new ArrayList<>();
+        for(int i = 0; i < clients; i++) {
+            Random random = new Random(i);
+
+            Thread thread = new Thread(() -> {
+                while(System.nanoTime() < deadline) {
+                    boolean crack = random.nextInt(100) < crackPercentage;
+                    String path = crack ? crackQuery : encodeQuery + randomMessage(random, 16 + random.nextInt(240));
+
+                    long start = System.nanoTime();
+                    try {
+                        HttpResponse<String> response = client.send(HttpRequest.newBuilder(URI.create(url + path)).build(),
+                                HttpResponse.BodyHandlers.ofString());
+
+                        if(response.statusCode() != 200) {
+                            errors.incrementAndGet();
+                            continue;
+                        }
+                    } catch(Exception e) {
+                        errors.incrementAndGet();
+                        continue;
+                    }
+                    long latency = System.nanoTime() - start;
+
+                    ArrayList<Long> latencies = crack ? crackLatencies : encodeLatencies;
+                    synchronized(latencies) {
+                        latencies.add(latency);
+                    }
+                }
+            });
+
+            thread.start();
+            threads.add(thread);
+        }
+
+        for(Thread thread : threads) {
+            thread.join();
+        }
+
+        if(server != null) {
+            server.stop();
+        }
+
+        System.out.println("Clients=" + clients + ", Duration=" + seconds + "s, Errors=" + errors.get());
+        report("encode", encodeLatencies, seconds);
+        report("crack", crackLatencies, seconds);
+    }
+
+    private static void report(String name, ArrayList<Long> latencies, int seconds) {
+        if(latencies.isEmpty()) {
+            System.out.println(name + ": no requests completed");
+            return;
+        }
+
+        Collections.sort(latencies);
+
+        System.out.printf("%-8s requests=%d, throughput=%.1f/s, p50=%.2fms, p99=%.2fms, max=%.2fms%n", name, latencies.size(),
+                (double) latencies.size() / seconds, percentile(latencies, 50), percentile(latencies, 99),
+                latencies.get(latencies.size() - 1) / 1e6);
+    }
+
+    private static double percentile(ArrayList<Long> sorted, int percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, index)) / 1e6;
+    }
+
+    private static String randomMessage(Random random, int length) {
+        StringBuilder builder = new StringBuilder();
+
+        for(int i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(26)));
+        }
+
+        return builder.toString();
+    }
+
+    private static String encode(String text) {
+        return URLEncoder.encode(text, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,217 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.*;
+import java.util.stream.IntStream;
+
+/**
+ * Banburismus was Turing's statistical method for cutting down the number of wheel orders the Bombes
+ * had to run. It looks at a whole day's traffic, which was all sent with the same wheel order, and
+ * finds pairs of messages that were enciphered "in depth", that is with the rotors in the same state
+ * for part of their length. Two cipher texts in depth repeat letters about twice as often as two
+ * unrelated ones, because German plain text repeats letters that often.
+ *
+ * The indicator of a message tells us where its rotors started. Two messages whose indicators agree
+ * on the left and middle letters only differ in where the right rotor started, by some distance d.
+ * Slide the later one d letters and the two line up in depth, unless the right rotor's notch lies
+ * between the two starting letters. In that case the earlier message's middle rotor steps before the
+ * later one's does, and the depth is broken. So every pair that shows depth (or clearly doesn't) votes
+ * for the right rotors whose notch would explain what was seen.
+ *
+ * Here the indicators are assumed to already give the rotor rotations of each message, as they did
+ * once the indicator system was broken, so rings don't matter: the notch is a property of the rotation.
+ * Repeats are scored in decibans with a precomputed log-odds table, pairs are compared in parallel, and
+ * the result is a ranking of the walzenlagen for the {@link BombeFarm}, most likely right rotor first.
+ */
+public class Banburismus {
+
+    // Chance two letters match when both cipher texts are in depth, i.e. the plain text's repeat rate,
+    // and when they are unrelated
+    static final double DEPTH_REPEAT_RATE = 0.0762;
+    static final double RANDOM_REPEAT_RATE = 1 / 26.0;
+
+    // Log-odds, in decibans, of a pair of aligned letters, indexed by 26 * a + b
+    private static final double[] LOG_ODDS = new double[26 * 26];
+
+    static {
+        double repeat = 10 * Math.log10(DEPTH_REPEAT_RATE / RANDOM_REPEAT_RATE);
+        double miss = 10 * Math.log10((1 - DEPTH_REPEAT_RATE) / (1 - RANDOM_REPEAT_RATE));
+
+        for(int a = 0; a < 26; a++) {
+            for(int b = 0; b < 26; b++) {
+                LOG_ODDS[26 * a + b] = a == b ? repeat : miss;
+            }
+        }
+    }
+
+    // Rotations of each message's rotors according to its indicator, and its cipher text
+    private final int[] left, middle, right;
+    private final byte[][] cipherTexts;
+
+    // Pairs of messages (indexes) sharing left and middle rotations, and their depth scores
+    private final int[] pairsA, pairsB;
+    private final double[] scores;
+
+    /**
+     * @param intercepts The day's traffic, each entry is the indicator (the three rotor rotations) and the cipher text
+     */
+    public Banburismus(List<String[]> intercepts) {
+        int n = intercepts.size();
+
+        this.left = new int[n];
+        this.middle = new int[n];
+        this.right = new int[n];
+        this.cipherTexts = new byte[n][];
+
+        HashMap<Integer, ArrayList<Integer>> groups = new HashMap<>();
+
+        for(int i = 0; i < n; i++) {
+            String indicator = intercepts.get(i)[0].toLowerCase();
+            String cipherText = intercepts.get(i)[1].toLowerCase().replace(" ", "");
+
+            if(indicator.length() != 3) {
+                throw new IllegalArgumentException("Indicators must be three letters: " + indicator);
+            }
+
+            left[i] = Utils.a2i(indicator.charAt(0));
+            middle[i] = Utils.a2i(indicator.charAt(1));
+            right[i] = Utils.a2i(indicator.charAt(2));
+
+            cipherTexts[i] = new byte[cipherText.length()];
+            for(int j = 0; j < cipherText.length(); j++) {
+                cipherTexts[i][j] = (byte) Utils.a2i(cipherText.charAt(j));
+            }
+
+            groups.computeIfAbsent(26 * left[i] + middle[i], k -> new ArrayList<>()).add(i);
+        }
+
+        // Only messages sharing left and middle rotations can be aligned
+        ArrayList<int[]> pairs = new ArrayList<>();
+        for(ArrayList<Integer> group : groups.values()) {
+            for(int i = 0; i < group.size(); i++) {
+                for(int j = i + 1; j < group.size(); j++) {
+                    int a = group.get(i);
+                    int b = group.get(j);
+
+                    if(right[a] != right[b]) {
+                        // a is always the message starting earlier
+                        pairs.add(right[a] < right[b] ? new int[]{a, b} : new int[]{b, a});
+                    }
+                }
+            }
+        }
+
+        this.pairsA = new int[pairs.size()];
+        this.pairsB = new int[pairs.size()];
+        for(int i = 0; i < pairs.size(); i++) {
+            pairsA[i] = pairs.get(i)[0];
+            pairsB[i] = pairs.get(i)[1];
+        }
+
+        this.scores = new double[pairs.size()];
+        IntStream.range(0, scores.length).parallel().forEach(i -> scores[i] = score(pairsA[i], pairsB[i]));
+    }
+
+    /**
+     * Reads intercepts, one per line as "[indicator] [cipher text]", skipping blank lines and lines starting with #
+     * @param in The intercepts
+     * @return the analysis of the intercepts
+     * @throws IOException If reading fails
+     */
+    public static Banburismus read(BufferedReader in) throws IOException {
+        ArrayList<String[]> intercepts = new ArrayList<>();
+
+        String line;
+        while((line = in.readLine()) != null) {
+            line = line.trim();
+
+            if(line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] tokens = line.split("\\s+", 2);
+            if(tokens.length != 2) {
+                throw new IllegalArgumentException("Expected an indicator and a cipher text: " + line);
+            }
+
+            intercepts.add(tokens);
+        }
+
+        return new Banburismus(intercepts);
+    }
+
+    /**
+     * Scores how strongly two messages look to be in depth when aligned by their right rotor rotations
+     * @param a The message that starts earlier
+     * @param b The message that starts later
+     * @return the evidence for depth, in decibans
+     */
+    private double score(int a, int b) {
+        byte[] early = cipherTexts[a];
+        byte[] late = cipherTexts[b];
+
+        // The earlier message reaches the later one's starting rotation after this many letters
+        int offset = right[b] - right[a];
+        int overlap = Math.min(early.length - offset, late.length);
+
+        double score = 0;
+        for(int i = 0; i < overlap; i++) {
+            score += LOG_ODDS[26 * early[i + offset] + late[i]];
+        }
+
+        return score;
+    }
+
+    /**
+     * @return how many pairs of messages could be aligned
+     */
+    public int getPairs() {
+        return scores.length;
+    }
+
+    /**
+     * Weighs the evidence for each rotor being the right rotor. A rotor predicts that a pair is in depth
+     * unless its notch lies between the two starting rotations, so it collects the scores of exactly those
+     * pairs, and a rotor that explains the repeats best ends up with the highest total.
+     * @return the log likelihood, in decibans, of each of the rotors I-V being the right rotor
+     */
+    public double[] scoreRightRotors() {
+        double[] rotors = new double[5];
+
+        for(int rotor = 0; rotor < 5; rotor++) {
+            int notch = Utils.a2i(Rotor.Mapping.getMapping(rotor).getTurnOver());
+
+            for(int i = 0; i < scores.length; i++) {
+                boolean broken = notch >= right[pairsA[i]] && notch < right[pairsB[i]];
+
+                if(!broken) {
+                    rotors[rotor] += scores[i];
+                }
+            }
+        }
+
+        return rotors;
+    }
+
+    /**
+     * Ranks every walzenlage by the evidence for its right rotor and drops the unlikely ones
+     * @param threshold How many decibans below the best right rotor a right rotor may score and still be kept,
+     *                  20 decibans means 100 to 1 against
+     * @return the surviving walzenlagen, in the format of {@link BombeFarm#getWalzenlagen()}, most likely first
+     */
+    public ArrayList<int[]> rankWalzenlagen(double threshold) {
+        double[] rotors = scoreRightRotors();
+        double best = Arrays.stream(rotors).max().orElse(0);
+
+        ArrayList<int[]> walzenlagen = new ArrayList<>();
+        for(int[] walzenlage : BombeFarm.getWalzenlagen()) {
+            if(rotors[walzenlage[3]] >= best - threshold) {
+                walzenlagen.add(walzenlage);
+            }
+        }
+
+        // A stable sort keeps the farm's usual order between walzenlagen sharing a right rotor
+        walzenlagen.sort(Comparator.comparingDouble(walzenlage -> -rotors[walzenlage[3]]));
+
+        return walzenlagen;
+    }
+}
@@ -0,0 +1,104 @@
+import java.util.ArrayList;
+
+/**
+ * A single (cipher text, crib) pair for the {@link BatchRunner}, optionally restricted to a few walzenlagen.
+ * A job made from a {@link CribScanner} placement also knows the message it was cut from and where.
+ *
+ * Jobs are read one per line in the format
+ * [cipher text] [crib] [walzenlage...]
+ * where each walzenlage is a comma separated rotor order optionally prefixed by the reflector, for example
+ * "I,IV,III" or "C:II,V,I". Without any walzenlagen all of {@link BombeFarm#getWalzenlagen()} are tried.
+ */
+public class BatchJob {
+
+    public final int id;
+    public final String cipherText, crib;
+    public final ArrayList<int[]> walzenlagen;
+
+    // The message's name and the crib's offset in it, or null and -1 if the job wasn't cut from a message
+    public final String name;
+    public final int offset;
+
+    public BatchJob(int id, String cipherText, String crib, ArrayList<int[]> walzenlagen) {
+        this(id, null, -1, cipherText, crib, walzenlagen);
+    }
+
+    /**
+     * @param id The job's id
+     * @param name The name of the message the cipher text was cut from
+     * @param offset Where in the message the cipher text starts
+     * @param cipherText The cipher text under the crib
+     * @param crib The crib
+     * @param walzenlagen The walzenlagen to run
+     */
+    public BatchJob(int id, String name, int offset, String cipherText, String crib, ArrayList<int[]> walzenlagen) {
+        this.id = id;
+        this.name = name;
+        this.offset = offset;
+        this.cipherText = cipherText.toLowerCase();
+        this.crib = crib.toLowerCase();
+        this.walzenlagen = walzenlagen;
+
+        if(this.cipherText.length() != this.crib.length()) {
+            throw new IllegalArgumentException("Cipher text and crib length must match.");
+        }
+    }
+
+    /**
+     * Parses a job from a line of a jobs file
+     * @param id The id to give the job, usually its line number
+     * @param line The line, such as "XJQWE HELLO I,II,III C:IV,V,I"
+     * @return The parsed job
+     */
+    public static BatchJob parse(int id, String line) {
+        String[] tokens = line.trim().split("\\s+");
+
+        if(tokens.length < 2) {
+            throw new IllegalArgumentException("A job needs at least a cipher text and a crib.");
+        }
+
+        ArrayList<int[]> walzenlagen = new ArrayList<>();
+        for(int i = 2; i < tokens.length; i++) {
+            walzenlagen.add(parseWalzenlage(tokens[i]));
+        }
+
+        return new BatchJob(id, tokens[0], tokens[1], walzenlagen.isEmpty() ? BombeFarm.getWalzenlagen() : walzenlagen);
+    }
+
+    /**
+     * Parses a walzenlage such as "I,IV,III" or "C:II,V,I", the reflector defaults to B
+     * @param text The walzenlage
+     * @return four {@link Rotor.Mapping} ordinals: reflector, left, middle, and right
+     */
+    public static int[] parseWalzenlage(String text) {
+        String reflector = "B";
+
+        int colon = text.indexOf(':');
+        if(colon != -1) {
+            reflector = text.substring(0, colon).toUpperCase();
+            text = text.substring(colon + 1);
+        }
+
+        String[] rotors = text.toUpperCase().split(",");
+        if(rotors.length != 3) {
+            throw new IllegalArgumentException("A walzenlage needs exactly three rotors: " + text);
+        }
+
+        return new int[]{
+                Rotor.Mapping.valueOf("Reflector" + reflector).ordinal(),
+                Rotor.Mapping.valueOf(rotors[0]).ordinal(),
+                Rotor.Mapping.valueOf(rotors[1]).ordinal(),
+                Rotor.Mapping.valueOf(rotors[2]).ordinal()
+        };
+    }
+
+    /**
+     * A rough estimate of how long the job will take, used to schedule the most expensive jobs first.
+     * Every walzenlage tests the same number of positions, and the time spent per position grows with
+     * the number of edges in the menu, which is at most the crib length.
+     * @return the relative cost of the job
+     */
+    public long getExpectedCost() {
+        return (long) walzenlagen.size() * crib.length();
+    }
+}
@@ -0,0 +1,177 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Cracks a whole file of {@link BatchJob}s in one JVM. Instead of running one farm after another,
+ * every (job, walzenlage) pair becomes a task on a single thread pool sized to the machine. The tasks
+ * are queued most expensive job first, so the long jobs start early and the cheap ones fill the gaps
+ * at the end. Scrambler caches are shared between every job using the same walzenlage, see
+ * {@link BombeEnigma}, so each walzenlage's cache is only built once for the whole batch.
+ *
+ * Each job's result is written as a single line of JSON as soon as its last walzenlage finishes.
+ *
+ * Run with: java -cp enigma.jar BatchRunner [jobs file] [output file] [threads]
+ */
+public class BatchRunner implements Closeable {
+
+    private final ThreadPoolExecutor executor;
+
+    public BatchRunner(int threads) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length < 2) {
+            System.err.println("Usage: BatchRunner [jobs file] [output file] [threads]");
+            System.exit(1);
+        }
+
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        try(BatchRunner runner = new BatchRunner(threads);
+            BufferedReader in = new BufferedReader(new FileReader(args[0]));
+            Writer out = new BufferedWriter(new FileWriter(args[1]))) {
+            int jobs = runner.run(in, out);
+            System.out.println("Finished " + jobs + " jobs");
+        }
+    }
+
+    /**
+     * Runs every job in the input, blank lines and lines starting with # are skipped
+     * @param in The jobs, one per line, see {@link BatchJob}
+     * @param out Where to write the results, one JSON object per line
+     * @return the number of jobs run
+     * @throws IOException If reading the jobs or writing the results fails
+     * @throws InterruptedException If interrupted while waiting for the jobs to finish
+     */
+    public int run(BufferedReader in, Writer out) throws IOException, InterruptedException {
+        ArrayList<BatchJob> jobs = new ArrayList<>();
+
+        String line;
+        int lineNumber = 0;
+        while((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+
+            if(line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            try {
+                jobs.add(BatchJob.parse(lineNumber, line));
+            } catch(IllegalArgumentException e) {
+                write(out, "{\"job\":" + lineNumber + ",\"error\":" + Utils.json(e.getMessage()) + "}");
+            }
+        }
+
+        jobs.sort(Comparator.comparingLong(BatchJob::getExpectedCost).reversed());
+
+        return run(jobs, out);
+    }
+
+    /**
+     * Runs jobs in the given order, each job's walzenlagen are queued right behind the previous job's
+     * @param jobs The jobs, such as the ranked placements of a {@link CribScanner}
+     * @param out Where to write the results, one JSON object per line
+     * @return the number of jobs run
+     * @throws IOException If writing the results fails
+     * @throws InterruptedException If interrupted while waiting for the jobs to finish
+     */
+    public int run(List<BatchJob> jobs, Writer out) throws IOException, InterruptedException {
+        CountDownLatch finished = new CountDownLatch(jobs.size());
+        ArrayList<IOException> errors = new ArrayList<>();
+
+        for(BatchJob job : jobs) {
+            // No walzenlage would ever count the job down, so its line is written right away
+            if(job.walzenlagen.isEmpty()) {
+                write(out, toJson(job, new ConcurrentLinkedQueue<>(), new ConcurrentLinkedQueue<>(), 0));
+                finished.countDown();
+                continue;
+            }
+
+            long start = System.nanoTime();
+            AtomicInteger remaining = new AtomicInteger(job.walzenlagen.size());
+            ConcurrentLinkedQueue<String[]> stops = new ConcurrentLinkedQueue<>();
+            ConcurrentLinkedQueue<String> failures = new ConcurrentLinkedQueue<>();
+
+            for(int[] walzenlage : job.walzenlagen) {
+                executor.execute(() -> {
+                    try {
+                        Bombe bombe = new Bombe(BombeFarm.createEnigma(walzenlage), job.cipherText, job.crib, true);
+                        stops.addAll(bombe.run());
+                    } catch(RuntimeException e) {
+                        failures.add(String.valueOf(e.getMessage()));
+                    } catch(Error e) {
+                        failures.add(String.valueOf(e));
+                        throw e;
+                    } finally {
+                        // Whatever happened to the walzenlage, the job has to finish or run() waits forever
+                        if(remaining.decrementAndGet() == 0) {
+                            try {
+                                write(out, toJson(job, stops, failures, System.nanoTime() - start));
+                            } catch(IOException e) {
+                                synchronized(errors) {
+                                    errors.add(e);
+                                }
+                            } finally {
+                                finished.countDown();
+                            }
+                        }
+                    }
+                });
+            }
+        }
+
+        finished.await();
+
+        if(!errors.isEmpty()) {
+            throw errors.get(0);
+        }
+
+        return jobs.size();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private static void write(Writer out, String line) throws IOException {
+        synchronized(out) {
+            out.write(line);
+            out.write('\n');
+            out.flush();
+        }
+    }
+
+    private static String toJson(BatchJob job, ConcurrentLinkedQueue<String[]> stops, ConcurrentLinkedQueue<String> failures, long elapsed) {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append("{\"job\":").append(job.id);
+
+        if(job.name != null) {
+            builder.append(",\"name\":").append(Utils.json(job.name))
+                    .append(",\"offset\":").append(job.offset);
+        }
+
+        builder.append(",\"cipherText\":").append(Utils.json(job.cipherText))
+                .append(",\"crib\":").append(Utils.json(job.crib))
+                .append(",\"walzenlagen\":").append(job.walzenlagen.size())
+                .append(",\"elapsedMs\":").append(elapsed / 1_000_000);
+
+        if(!failures.isEmpty()) {
+            builder.append(",\"error\":").append(Utils.json(failures.peek()));
+        }
+
+        ArrayList<String[]> sorted = new ArrayList<>(stops);
+        sorted.sort(Comparator.<String[], String>comparing(stop -> stop[2]).thenComparing(stop -> stop[0]));
+
+        builder.append(",\"stops\":").append(Utils.json(sorted));
+
+        return builder.append('}').toString();
+    }
+}
@@ -1,5 +1,7 @@
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Stack;
 
@@ -40,6 +42,22 @@ import java.util.Stack;
  */
 public class Bombe {
 
+    /**
+     * The number of rotor positions tested for a single walzenlage (26^3)
+     */
+    public static final int POSITIONS = 26 * 26 * 26;
+
+    /**
+     * How a Bombe tests each position. Both find exactly the same stops, which one is faster depends on the
+     * menu and the host, see {@link BombeTuner}.
+     */
+    public enum Engine {
+        // Energizes every position
+        ENERGIZE,
+        // Rules positions out by the loop condition before energizing, when the checking machine is on
+        LOOPS
+    }
+
     /**
      * The "menu" is a undirected graph describing a pairing of the cipher text
      * to a crib (the guessed plain text of the cipher text)
@@ -62,23 +80,44 @@ public class Bombe {
      *   in other words, which node has the most edges exiting from it. This letter
      *   should be included as one of the plugboard hypothesis'
      *
-     *  The graph is represented using the matrix representation. The row and col
-     *  represent letters, or nodes, and the values within the matrix represent two things:
-     *  - If the value is not along the diagonal, it represents an edge between two letters,
-     *    and its value corresponds to the offset of that edge
-     *  - If the value is along the diagonal, it represents a node. The depth-first search uses
-     *    these for some internal markers to aid the algorithm
+     *  The graph is represented as a list of edges, each holding its two letters and its offset,
+     *  and every letter holds a marker the depth-first search uses to aid the algorithm. Edges
+     *  are told apart by their place in the list rather than by their offset, so two letters
+     *  may be joined more than once: a letter pair that repeats at another offset is a loop of
+     *  its own, and cribs from messages in depth can have several edges at the same offset.
      */
     private static class Menu {
-        private final Integer[][] matrix = new Integer[26][26];
+        // Each edge's letters and offset, edge e joins ends[2 * e] and ends[2 * e + 1]
+        private final int[] ends;
+        private final int[] offsets;
+
+        // Whether each edge is still in the menu, the edges of every other subgraph are removed
+        private final boolean[] kept;
+
+        // A marker for each letter, null if the letter isn't in the menu
+        private final Integer[] nodes = new Integer[26];
 
         // the node within the subgraph with the most connections
         private final int mostConnectedLetter;
 
         // caches the adjacency lists
-        private final ArrayList<Integer[]> adjCache = new ArrayList<>();
+        private final ArrayList<int[]> adjCache = new ArrayList<>();
 
         public Menu(String cipherText, String crib) {
+            this(cipherText, crib, null);
+        }
+
+        /**
+         * @param cipherText The cipher text
+         * @param crib The crib
+         * @param offsets The key press each letter was enciphered at, counting from the Bombe's rotor position,
+         *                or null if they are consecutive
+         */
+        public Menu(String cipherText, String crib, int[] offsets) {
+            ArrayList<Integer> ends = new ArrayList<>();
+            ArrayList<Integer> edgeOffsets = new ArrayList<>();
+            HashSet<String> edges = new HashSet<>();
+
             // Fill the graph
             for(int i = 0; i < cipherText.length(); i++) {
                 int t = Utils.a2i(cipherText.charAt(i));
@@ -88,26 +127,39 @@ public class Bombe {
                     throw new IllegalArgumentException("Crib and cipher text violate no character can be encoded as itself rule.");
                 }
 
-                matrix[t][b] = i + 1;
-                matrix[b][t] = i + 1;
+                int offset = offsets != null ? offsets[i] : i + 1;
+
+                // The same letters at the same offset go through the same scrambler, a second edge adds nothing
+                if(!edges.add(Math.min(t, b) + "-" + Math.max(t, b) + "-" + offset)) {
+                    continue;
+                }
+
+                ends.add(t);
+                ends.add(b);
+                edgeOffsets.add(offset);
 
-                matrix[t][t] = 0;
-                matrix[b][b] = 0;
+                nodes[t] = 0;
+                nodes[b] = 0;
             }
 
+            this.ends = ends.stream().mapToInt(Integer::intValue).toArray();
+            this.offsets = edgeOffsets.stream().mapToInt(Integer::intValue).toArray();
+            this.kept = new boolean[this.offsets.length];
+            Arrays.fill(this.kept, true);
+
             // Find the subgraph with the most loops, in the event of a tie,
             // use nodes as a tie breaker
-            HashSet<Integer> exploredEdges = new HashSet<>();
+            boolean[] exploredEdges = new boolean[this.offsets.length];
             int mostLoopsSubgraph = -1; // the most connected letter in the subgraph
             int mostLoops = -1;
             int nNodes = -1;
 
             for(int i = 0; i < 26; i++) {
-                if(matrix[i][i] == null) {
+                if(nodes[i] == null) {
                     continue;
                 }
 
-                if(matrix[i][i] == 0) {
+                if(nodes[i] == 0) {
                     DFSResult result = dfs(exploredEdges, i);
                     if(result.nLoops > mostLoops || (result.nLoops == mostLoops && result.nNodes > nNodes)) {
                         if(mostLoopsSubgraph != -1) {
@@ -131,30 +183,35 @@ public class Bombe {
 
             // Cache the adjacency lists which will improve the performance of the Bombe
             for(int i = 0; i < 26; i++) {
-                ArrayList<Integer> array = new ArrayList<>();
-
-                Iterator it = getIterator(i);
-
-                Integer v;
-
-                while((v = it.next()) != null) {
-                    array.add(v);
-                }
-
-                adjCache.add(array.toArray(new Integer[0]));
+                adjCache.add(findEdges(i));
             }
         }
 
         /**
-         * Gets the offset between two letters, to traverse this edge,
+         * Gets the offset of an edge, to traverse this edge,
          * the rotor's right rotor will need to be incremented by the
          * return of this function
-         * @param a a node, represented as in integer in the range 0-25, as an offset from 'a'
-         * @param b a node, represented as in integer in the range 0-25, as an offset from 'a'
+         * @param edge an edge, as returned by {@link Menu#getAdjacent(int)}
          * @return a rotation to add to the Enigma's rightmost rotor (the fast rotor)
          */
-        public int getCribOffset(int a, int b) {
-            return this.matrix[a][b];
+        public int getCribOffset(int edge) {
+            return this.offsets[edge];
+        }
+
+        /**
+         * @param edge an edge, as returned by {@link Menu#getAdjacent(int)}
+         * @param letter one of the edge's letters
+         * @return the edge's other letter
+         */
+        public int getOther(int edge, int letter) {
+            return ends[2 * edge] == letter ? ends[2 * edge + 1] : ends[2 * edge];
+        }
+
+        /**
+         * @return how many edges the menu had before the other subgraphs were removed, every edge is below this
+         */
+        public int getEdgeCount() {
+            return offsets.length;
         }
 
         public int getMostConnected() {
@@ -169,39 +226,39 @@ public class Bombe {
         private void destroy(int letter) {
             Stack<Integer> chain = new Stack<>();
 
-            matrix[letter][letter] = 2;
+            nodes[letter] = 2;
             chain.push(letter);
 
             while(!chain.isEmpty()) {
                 int u = chain.pop();
 
-                Integer vertex;
-
-                Iterator it = getIterator(u);
+                for(int edge : findEdges(u)) {
+                    int vertex = getOther(edge, u);
 
-                while((vertex = it.next()) != null) {
-                    if(matrix[vertex][vertex] == 1) {
-                        matrix[vertex][vertex] = 2;
+                    if(nodes[vertex] == 1) {
+                        nodes[vertex] = 2;
                         chain.push(vertex);
                     }
                 }
             }
 
-            for(int i = 0; i < 26; i++) {
-                if(matrix[i][i] != null && matrix[i][i] == 2) {
-                    // Destroy rows and columns
-                    for(int j = 0; j < 26; j++) {
-                        matrix[i][j] = null;
-                        matrix[j][i] = null;
-                    }
+            // Destroy the edges and the letters
+            for(int edge = 0; edge < kept.length; edge++) {
+                if(nodes[ends[2 * edge]] != null && nodes[ends[2 * edge]] == 2) {
+                    kept[edge] = false;
                 }
             }
 
+            for(int i = 0; i < 26; i++) {
+                if(nodes[i] != null && nodes[i] == 2) {
+                    nodes[i] = null;
+                }
+            }
         }
 
         // Returns number of loops and most connected letter of a sub-graph including
         // the provided letter/node
-        private DFSResult dfs(HashSet<Integer> exploredEdges, int letter) {
+        private DFSResult dfs(boolean[] exploredEdges, int letter) {
             int nLoops = 0;
             int nNodes = 0;
             int maxConnectedLetter = 0;
@@ -209,7 +266,7 @@ public class Bombe {
 
             Stack<Integer> chain = new Stack<>();
 
-            matrix[letter][letter] = 1;
+            nodes[letter] = 1;
             chain.push(letter);
 
             while(!chain.isEmpty()) {
@@ -218,23 +275,20 @@ public class Bombe {
 
                 int nConnections = 0;
 
-                Iterator it = getIterator(u);
-
-                Integer vertex;
-
-                while((vertex = it.next()) != null) {
+                for(int edge : findEdges(u)) {
                     nConnections++;
 
-                    if(exploredEdges.contains(this.matrix[u][vertex])) {
+                    if(exploredEdges[edge]) {
                         continue;
                     }
 
-                    exploredEdges.add(this.matrix[u][vertex]);
+                    exploredEdges[edge] = true;
 
-                    if(matrix[vertex][vertex] == 0) {
-                        matrix[vertex][vertex] = 1;
+                    int vertex = getOther(edge, u);
+                    if(nodes[vertex] == 0) {
+                        nodes[vertex] = 1;
                         chain.push(vertex);
-                    } else if(matrix[vertex][vertex] == 1) {
+                    } else if(nodes[vertex] == 1) {
                         nLoops++;
                     }
                 }
@@ -248,34 +302,47 @@ public class Bombe {
             return new DFSResult(nLoops, nNodes, maxConnectedLetter);
         }
 
-        private class Iterator {
-            private final int letter;
-
-            private int index;
-
-            public Iterator(int letter) {
-                this.letter = letter;
-            }
+        /**
+         * @return the edges of a letter still in the menu, ordered by their other letter, then by offset
+         */
+        private int[] findEdges(int letter) {
+            ArrayList<Integer> edges = new ArrayList<>();
 
-            public Integer next() {
-                for(int i = index; i < 26; i++) {
-                    if(matrix[letter][i] != null && i != letter) {
-                        index = i + 1;
-                        return i;
-                    }
+            for(int edge = 0; edge < kept.length; edge++) {
+                if(kept[edge] && (ends[2 * edge] == letter || ends[2 * edge + 1] == letter)) {
+                    edges.add(edge);
                 }
-
-                return null;
             }
-        }
 
-        private Iterator getIterator(int letter) {
-            return new Iterator(letter);
+            edges.sort(Comparator.comparingInt((Integer edge) -> getOther(edge, letter)).thenComparingInt(edge -> offsets[edge]));
+            return edges.stream().mapToInt(Integer::intValue).toArray();
         }
 
-        public Integer[] getAdjacent(int letter) {
+        public int[] getAdjacent(int letter) {
             return adjCache.get(letter);
         }
+
+        /**
+         * Describes the menu the Bombe actually wires up, that is the edges of the subgraph that
+         * was kept and the letter the test register sits on. Two cribs with the same canonical form
+         * produce exactly the same stops for a given walzenlage.
+         * @return a string such as "ae3;bq1;eq7;|e"
+         */
+        public String getCanonicalForm() {
+            StringBuilder builder = new StringBuilder();
+
+            for(int a = 0; a < 26; a++) {
+                for(int edge : getAdjacent(a)) {
+                    int b = getOther(edge, a);
+
+                    if(b > a) {
+                        builder.append(Utils.i2a(a)).append(Utils.i2a(b)).append(offsets[edge]).append(';');
+                    }
+                }
+            }
+
+            return builder.append('|').append(Utils.i2a(mostConnectedLetter)).toString();
+        }
     }
 
     private final BombeEnigma enigma;
@@ -288,15 +355,195 @@ public class Bombe {
     private final int testRegister;
     private final int testRegisterPair;
 
+    // The hypothesis the wires currently hold, so the checking machine only energizes again when it has to
+    private int energizedPair = -1;
+
+    // Whether the last position tested came down to the guessed hypothesis alone, see isGuess()
+    private boolean guessed;
+
+    // The menu's edges by letter, the edges leaving letter i are edgeStart[i] up to edgeStart[i + 1]
+    private final int[] edgeStart = new int[27];
+    private final int[] edgeLetters;
+    private final int[] edgeOffsets;
+
+    // The 26 scramblers of the current left and middle rotations, 26 letters for each right rotation. Stepping
+    // the right rotor turns every edge's scrambler into the one of the edge with the next offset, so each
+    // edge just moves one scrambler along this ring instead of looking everything up again.
+    private final byte[] scramblers = new byte[26 * 26];
+    private final int[] edgeScramblers;
+
+    // The position the scramblers are set up for, or -1
+    private int position = -1;
+
+    /*
+     * Turing's loop condition: going around a loop of the menu from the test register's letter, through each
+     * edge's scrambler, has to bring its stecker partner back to itself. A spanning tree from the test register
+     * gives one loop per edge left out of the tree, a cycle basis of the menu. treeEdges holds the edge that
+     * reaches each letter of the tree from its parent, in breadth first order, and loopEdges the edges left out.
+     */
+    private final int[] treeEdges;
+    private final int[] treeParents;
+    private final int[] loopEdges;
+    private final int[] loopStarts;
+
+    // Entry 26 * letter + x is where the test register's stecker partner x ends up at the letter along the tree
+    private final int[] paths = new int[26 * 26];
+
+    // The letters the spanning tree reaches, which have a path
+    private final boolean[] treeLetters;
+
+    // Stecker pairs known beforehand, flattened as letter, partner, each pair listed from both of its letters
+    private int[] knownPairs = new int[0];
+
+    // The menu letters with a known partner, and their partners, which every path has to agree with
+    private int[] knownLetters = new int[0];
+    private int[] knownPartners = new int[0];
+
+    private Engine engine = Engine.LOOPS;
+
+    private final BombeStatistics statistics;
+
     public Bombe(Enigma enigma, String cipherText, String crib, boolean check) {
+        this(enigma, cipherText, crib, null, check);
+    }
+
+    /**
+     * Creates a Bombe whose menu's letters weren't enciphered one after another, for example
+     * letters from several cribs, as used by the {@link MultiMenuBombe}
+     * @param enigma The Enigma
+     * @param cipherText The cipher text letters
+     * @param crib The crib letters, must be the same length as the cipher text
+     * @param offsets The key press each letter was enciphered at, counting from the tested rotor position
+     *                (the first letter of an ordinary crib is at 1), or null if they are consecutive
+     * @param check Whether to run the checking machine on stops
+     */
+    public Bombe(Enigma enigma, String cipherText, String crib, int[] offsets, boolean check) {
         this.enigma = new BombeEnigma(enigma);
         this.check = check;
+        this.statistics = new BombeStatistics(this.enigma.getConfiguration());
 
-        this.menu = new Menu(cipherText.toLowerCase(), crib.toLowerCase());
+        this.menu = new Menu(cipherText.toLowerCase(), crib.toLowerCase(), offsets);
         this.wires = new boolean[26 * 26];
 
         this.testRegister = menu.getMostConnected();
         this.testRegisterPair = 1;
+
+        int edges = 0;
+        for(int i = 0; i < 26; i++) {
+            edges += menu.getAdjacent(i).length;
+        }
+
+        this.edgeLetters = new int[edges];
+        this.edgeOffsets = new int[edges];
+        this.edgeScramblers = new int[edges];
+
+        // The menu's edge each entry lists, every edge is listed from both of its letters
+        int[] menuEdges = new int[edges];
+
+        int edge = 0;
+        for(int i = 0; i < 26; i++) {
+            edgeStart[i] = edge;
+
+            for(int e : menu.getAdjacent(i)) {
+                edgeLetters[edge] = menu.getOther(e, i);
+                edgeOffsets[edge] = menu.getCribOffset(e);
+                menuEdges[edge] = e;
+                edge++;
+            }
+        }
+        edgeStart[26] = edge;
+
+        // Split the edges into a spanning tree from the test register and the loops it leaves out
+        boolean[] reached = new boolean[26];
+        boolean[] used = new boolean[menu.getEdgeCount()];
+        ArrayList<Integer> tree = new ArrayList<>();
+        ArrayList<Integer> parents = new ArrayList<>();
+        ArrayList<Integer> loops = new ArrayList<>();
+        ArrayList<Integer> starts = new ArrayList<>();
+
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        pending.add(this.testRegister);
+        reached[this.testRegister] = true;
+
+        while(!pending.isEmpty()) {
+            int letter = pending.poll();
+
+            for(int e = edgeStart[letter]; e < edgeStart[letter + 1]; e++) {
+                int k = edgeLetters[e];
+
+                // Each edge is listed from both of its letters, only go over it once
+                if(used[menuEdges[e]]) {
+                    continue;
+                }
+                used[menuEdges[e]] = true;
+
+                if(reached[k]) {
+                    loops.add(e);
+                    starts.add(letter);
+                } else {
+                    reached[k] = true;
+                    tree.add(e);
+                    parents.add(letter);
+                    pending.add(k);
+                }
+            }
+        }
+
+        this.treeEdges = tree.stream().mapToInt(Integer::intValue).toArray();
+        this.treeParents = parents.stream().mapToInt(Integer::intValue).toArray();
+        this.loopEdges = loops.stream().mapToInt(Integer::intValue).toArray();
+        this.loopStarts = starts.stream().mapToInt(Integer::intValue).toArray();
+        this.treeLetters = reached;
+    }
+
+    /**
+     * Sets stecker pairs that are already known, for example from other messages of the same day. They are
+     * energized along with every hypothesis, so a position whose scramblers contradict them is rejected
+     * straight away, and a known partner of the test register replaces guessing one.
+     * @param known The known pairs, letters steckered to themselves are ignored
+     */
+    public void setKnownSteckers(PlugBoard known) {
+        ArrayList<Integer> pairs = new ArrayList<>();
+        ArrayList<Integer> letters = new ArrayList<>();
+        ArrayList<Integer> partners = new ArrayList<>();
+
+        for(int letter = 0; letter < 26; letter++) {
+            int partner = Utils.a2i(known.swap(Utils.i2a(letter)));
+            if(partner == letter) {
+                continue;
+            }
+
+            pairs.add(letter);
+            pairs.add(partner);
+
+            if(this.treeLetters[letter]) {
+                letters.add(letter);
+                partners.add(partner);
+            }
+        }
+
+        this.knownPairs = pairs.stream().mapToInt(Integer::intValue).toArray();
+        this.knownLetters = letters.stream().mapToInt(Integer::intValue).toArray();
+        this.knownPartners = partners.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @param known Known stecker pairs, or null
+     * @return the known pairs in a fixed order, to tell Bombe results with different known pairs apart
+     */
+    public static String getKnownKey(PlugBoard known) {
+        StringBuilder builder = new StringBuilder();
+
+        if(known != null) {
+            for(int letter = 0; letter < 26; letter++) {
+                int partner = Utils.a2i(known.swap(Utils.i2a(letter)));
+                if(partner > letter) {
+                    builder.append(Utils.i2a(letter)).append(Utils.i2a(partner));
+                }
+            }
+        }
+
+        return builder.toString();
     }
 
     // assumption is that bombeLetter is a letter in the bombe's menu
@@ -345,6 +592,8 @@ public class Bombe {
             return;
         }
 
+        this.statistics.energizeCalls++;
+
         // Welchman's diagonal board, if i is steckered to j, j is also
         // steckered to i
         this.wires[idx] = true;
@@ -352,6 +601,7 @@ public class Bombe {
         int complement = 26 * j + i;
 
         this.wires[complement] = true;
+        this.statistics.wiresLit += idx == complement ? 1 : 2;
 
         // One of the bundles is a test register
         /*
@@ -377,14 +627,13 @@ public class Bombe {
          *
          * First, do wire j in bundle i
          */
-        Integer[] nodes = this.menu.getAdjacent(i);
-
-        for(int k : nodes) {
+        for(int edge = this.edgeStart[i]; edge < this.edgeStart[i + 1]; edge++) {
             /*
-             * Get all the scramblers rooted at i,
+             * Get all the scramblers rooted at i, each edge's scrambler is set
+             * for its offset, see setPosition(int)
              */
-            int offset = this.menu.getCribOffset(i, k); // effectively the scrambler setting
-            int encoded = this.enigma.encode(j, offset);
+            int k = this.edgeLetters[edge];
+            int encoded = this.scramblers[this.edgeScramblers[edge] + j];
 
             int other = 26 * k + encoded;
 
@@ -401,12 +650,10 @@ public class Bombe {
             return;
         }
 
-        nodes = this.menu.getAdjacent(j);
-
         // Second, do wire i in bundle j
-        for(int k : nodes) {
-            int offset = this.menu.getCribOffset(j, k);
-            int encoded = this.enigma.encode(i, offset);
+        for(int edge = this.edgeStart[j]; edge < this.edgeStart[j + 1]; edge++) {
+            int k = this.edgeLetters[edge];
+            int encoded = this.scramblers[this.edgeScramblers[edge] + i];
 
             int other = 26 * k + encoded;
 
@@ -449,8 +696,8 @@ public class Bombe {
                 }
             }
         } else if(this.liveWires == 1) {
-            // hypothesis is correct
-            steckerPair = this.testRegisterPair;
+            // hypothesis is correct, or the test register's partner is known
+            steckerPair = this.energizedPair;
         } else {
             if(!this.check) {
                 return new PlugBoard();
@@ -490,11 +737,13 @@ public class Bombe {
      * @return returns deduced stecker board pairs
      */
     public PlugBoard checkingMachine(int pair) {
-        if(pair != this.testRegisterPair) {
-            Arrays.fill(this.wires, false);
-            this.liveWires = 0;
+        this.statistics.checkingMachineRuns++;
+
+        if(pair != this.energizedPair) {
+            this.reset();
 
             this.energize(this.testRegister, pair);
+            this.energizedPair = pair;
         }
 
         PlugBoard board = new PlugBoard();
@@ -528,42 +777,430 @@ public class Bombe {
      * settings, the string of plugboard deductions, and the Bombe configuration
      */
     public ArrayList<String[]> run() {
+        return run(0, POSITIONS);
+    }
+
+    /**
+     * Runs the cracking operation over a slice of the rotor positions. Positions are indexed
+     * as 676 * left + 26 * middle + right, so {@code run(0, POSITIONS)} is a full sweep and
+     * disjoint ranges can be handed out to different machines.
+     * @param start the first position to test, inclusive
+     * @param end the last position to test, exclusive
+     * @return ArrayList of all Bombe stops within the range, in the same format as {@link Bombe#run()}, cut short
+     * if the thread is interrupted
+     */
+    public ArrayList<String[]> run(int start, int end) {
         ArrayList<String[]> result = new ArrayList<>();
 
+        BombeRunEvent event = new BombeRunEvent();
+        event.begin();
+
+        long startTime = System.nanoTime();
+        long energizeCalls = statistics.energizeCalls;
+        long wiresLit = statistics.wiresLit;
+        long checkingMachineRuns = statistics.checkingMachineRuns;
+
+        /*
+         * Check every initial rotor setting in the range
+         */
+        for(int position = start; position < end; position++) {
+            // Stop early when cancelled, e.g. by a BombeFarm that already has its answer
+            if((position & 0xff) == 0 && Thread.currentThread().isInterrupted()) {
+                end = position;
+                break;
+            }
+
+            PlugBoard deductions = test(position);
+
+            // A stop occurred
+            if(deductions != null) {
+                result.add(new String[]{enigma.getIndicator(), deductions.toString(), enigma.getConfiguration()});
+            }
+        }
+
+        statistics.positions += end - start;
+        statistics.stops += result.size();
+        statistics.runNanos += System.nanoTime() - startTime;
+
+        event.end();
+        if(event.shouldCommit()) {
+            event.configuration = statistics.configuration;
+            event.start = start;
+            event.end = end;
+            event.energizeCalls = statistics.energizeCalls - energizeCalls;
+            event.wiresLit = statistics.wiresLit - wiresLit;
+            event.stops = result.size();
+            event.checkingMachineRuns = statistics.checkingMachineRuns - checkingMachineRuns;
+            event.commit();
+        }
+
+        return result;
+    }
+
+    /**
+     * Tests a single rotor position
+     * @param position The position, indexed as in {@link Bombe#run(int, int)}
+     * @return null if the Bombe won't stop, otherwise the plug board deductions, see {@link Bombe#checkStop()}
+     */
+    PlugBoard test(int position) {
+        setPosition(position);
+
+        PlugBoard deductions;
+        boolean guessed = false;
+
         /*
-         * Check every possible initial rotor setting
+         * With the checking machine, a stop needs plug board deductions that agree with every
+         * scrambler, so no stecker partner going around every loop unchanged rules it out cheaply
          */
-        enigma.setRotation(0, 0, 0);
+        if(this.engine == Engine.LOOPS && this.check && (this.loopEdges.length > 0 || this.knownLetters.length > 0) && !checkLoops()) {
+            this.statistics.loopRejections++;
+            deductions = null;
+        } else if(!reset()) {
+            this.statistics.steckerRejections++;
+            deductions = null;
+        } else {
+            /*
+             * Shoot electricity through the menu, this is effectively the
+             * attempt to invalidate a certain plugboard setting. Known steckers
+             * may have given the test register's partner away already
+             */
+            if(this.liveWires == 0) {
+                this.energize(this.testRegister, this.testRegisterPair);
+                this.energizedPair = this.testRegisterPair;
+
+                // Nothing came back to the test register, so all that's known is the guess holds up on its own
+                guessed = this.liveWires == 1;
+            }
+
+            /*
+             * Check if the machine would have stopped
+             */
+            deductions = checkStop();
+        }
+
+        this.guessed = guessed;
+
+        if(ReferenceEngine.sample()) {
+            ReferenceEngine.checkBombe(this, position, deductions);
+        }
+
+        return deductions;
+    }
+
+    /**
+     * Clears every wire and energizes the known stecker pairs, which hold at every position
+     * @return false if the known pairs contradict each other at this position, so it can't be the right one
+     */
+    private boolean reset() {
+        Arrays.fill(this.wires, false);
+        this.liveWires = 0;
+        this.energizedPair = -1;
+
+        if(this.knownPairs.length == 0) {
+            return true;
+        }
+
+        for(int k = 0; k < this.knownPairs.length; k += 2) {
+            this.energize(this.knownPairs[k], this.knownPairs[k + 1]);
+        }
 
         for(int i = 0; i < 26; i++) {
-            for(int j = 0 ; j < 26; j++) {
-                for(int k = 0; k < 26; k++) {
-                    enigma.setRotation(i, j, k);
+            int count = 0;
+            for(int j = 0; j < 26; j++) {
+                if(this.wires[26 * i + j]) {
+                    count++;
 
-                    /*
-                     * Shoot electricity through the menu, this is effectively the
-                     * attempt to invalidate a certain plugboard setting
-                     */
-                    Arrays.fill(this.wires, false);
-                    this.liveWires = 0;
+                    if(i == this.testRegister) {
+                        this.energizedPair = j;
+                    }
+                }
+            }
 
-                    this.energize(this.testRegister, this.testRegisterPair);
+            if(count > 1) {
+                return false;
+            }
+        }
 
-                    /*
-                     * Check if the machine would have stopped
-                     */
+        return true;
+    }
+
+    /**
+     * Checks Turing's loop condition at the current position. Any deductions the checking machine accepts give
+     * every letter of the menu a stecker partner that each scrambler maps onto its neighbor's, so going around
+     * a loop from the test register brings the test register's partner back to itself. If no letter survives
+     * every loop, the checking machine is bound to reject the position and energizing can be skipped.
+     * The same goes for a known stecker partner of a menu letter that no path agrees with.
+     * @return false if no stecker partner of the test register satisfies every loop and known stecker
+     */
+    private boolean checkLoops() {
+        for(int x = 0; x < 26; x++) {
+            this.paths[26 * this.testRegister + x] = x;
+        }
 
-                    PlugBoard deductions = checkStop();
+        for(int t = 0; t < this.treeEdges.length; t++) {
+            int edge = this.treeEdges[t];
+            int from = 26 * this.treeParents[t];
+            int to = 26 * this.edgeLetters[edge];
+            int scrambler = this.edgeScramblers[edge];
 
-                    // A stop occurred
-                    if(deductions != null) {
-                        result.add(new String[]{enigma.getIndicator(), deductions.toString(), enigma.getConfiguration()});
+            for(int x = 0; x < 26; x++) {
+                this.paths[to + x] = this.scramblers[scrambler + this.paths[from + x]];
+            }
+        }
+
+        int candidates = (1 << 26) - 1;
+        for(int k = 0; k < this.knownLetters.length && candidates != 0; k++) {
+            int from = 26 * this.knownLetters[k];
+            int partner = this.knownPartners[k];
+
+            for(int x = 0; x < 26; x++) {
+                if(this.paths[from + x] != partner) {
+                    candidates &= ~(1 << x);
+                }
+            }
+        }
+
+        for(int l = 0; l < this.loopEdges.length && candidates != 0; l++) {
+            int edge = this.loopEdges[l];
+            int from = 26 * this.loopStarts[l];
+            int to = 26 * this.edgeLetters[edge];
+            int scrambler = this.edgeScramblers[edge];
+
+            for(int x = 0; x < 26; x++) {
+                if(this.scramblers[scrambler + this.paths[from + x]] != this.paths[to + x]) {
+                    candidates &= ~(1 << x);
+                }
+            }
+        }
+
+        return candidates != 0;
+    }
+
+    /**
+     * Sets the scramblers up for a position. Positions are usually tested in order, where stepping the right
+     * rotor only moves each edge on to the next scrambler, and the left and middle rotors' scramblers are
+     * only copied out of the cache once every 26 positions.
+     */
+    private void setPosition(int position) {
+        int right = position % 26;
+        enigma.setRotation(position / 676, (position / 26) % 26, right);
+
+        if(right != 0 && position == this.position + 1) {
+            for(int edge = 0; edge < this.edgeScramblers.length; edge++) {
+                int scrambler = this.edgeScramblers[edge] + 26;
+                this.edgeScramblers[edge] = scrambler == 26 * 26 ? 0 : scrambler;
+            }
+        } else {
+            if(this.position < 0 || position / 26 != this.position / 26) {
+                enigma.copyScramblers(position / 676, (position / 26) % 26, this.scramblers);
+            }
+
+            for(int edge = 0; edge < this.edgeScramblers.length; edge++) {
+                this.edgeScramblers[edge] = 26 * ((right + this.edgeOffsets[edge]) % 26);
+            }
+        }
+
+        this.position = position;
+    }
+
+    /**
+     * Tests a single rotor position the slow and obvious way, as the reference {@link Bombe#test(int)} is
+     * checked against: every hypothesis is followed to its full closure with a work list, through scramblers
+     * that don't use the cache, see {@link ReferenceEngine}
+     * @param position The position, indexed as in {@link Bombe#run(int, int)}
+     * @return null if the Bombe won't stop, otherwise the plug board deductions, see {@link Bombe#checkStop()}
+     */
+    PlugBoard testReference(int position) {
+        enigma.setRotation(position / 676, (position / 26) % 26, position % 26);
+
+        // What the known steckers alone light, they have to agree among themselves
+        boolean[] known = closureReference(-1);
+        int partner = -1;
+        for(int i = 0; i < 26; i++) {
+            int count = 0;
+            for(int j = 0; j < 26; j++) {
+                if(known[26 * i + j]) {
+                    count++;
+
+                    if(i == this.testRegister) {
+                        partner = j;
                     }
                 }
             }
+
+            if(count > 1) {
+                return null;
+            }
         }
 
-        return result;
+        if(partner >= 0) {
+            if(this.check) {
+                return checkingMachineReference(partner);
+            }
+
+            PlugBoard board = new PlugBoard();
+            board.add(this.testRegister, partner);
+            return board;
+        }
+
+        boolean[] wires = closureReference(this.testRegisterPair);
+
+        int live = 0;
+        int missing = -1;
+        for(int j = 0; j < 26; j++) {
+            if(wires[26 * this.testRegister + j]) {
+                live++;
+            } else {
+                missing = j;
+            }
+        }
+
+        if(live == 26) {
+            return null;
+        }
+
+        if(live == 25 || live == 1) {
+            int pair = live == 25 ? missing : this.testRegisterPair;
+
+            if(this.check) {
+                return checkingMachineReference(pair);
+            }
+
+            PlugBoard board = new PlugBoard();
+            board.add(this.testRegister, pair);
+            return board;
+        }
+
+        if(!this.check) {
+            return new PlugBoard();
+        }
+
+        PlugBoard stecker = null;
+        for(int i = 0; i < 26; i++) {
+            PlugBoard board = checkingMachineReference(i);
+
+            if(board != null) {
+                if(stecker != null) {
+                    return new PlugBoard();
+                }
+                stecker = board;
+            }
+        }
+
+        return stecker;
+    }
+
+    private PlugBoard checkingMachineReference(int pair) {
+        boolean[] wires = closureReference(pair);
+
+        PlugBoard board = new PlugBoard();
+        board.add(this.testRegister, pair);
+
+        for(int i = 0; i < 26; i++) {
+            int count = 0;
+            int other = -1;
+            for(int j = 0; j < 26; j++) {
+                if(wires[26 * i + j]) {
+                    count++;
+                    other = j;
+                }
+            }
+
+            if(count > 1) {
+                return null;
+            } else if(count == 1) {
+                board.add(i, other);
+            }
+        }
+
+        return board;
+    }
+
+    /**
+     * @param pair The test register's stecker partner, or -1 to only follow the known steckers
+     * @return every wire that goes live when the test register's letter is steckered to a letter, along with
+     * the known steckers
+     */
+    private boolean[] closureReference(int pair) {
+        boolean[] live = new boolean[26 * 26];
+
+        ArrayDeque<Integer> pending = new ArrayDeque<>();
+        if(pair >= 0) {
+            pending.add(26 * this.testRegister + pair);
+        }
+        for(int k = 0; k < this.knownPairs.length; k += 2) {
+            pending.add(26 * this.knownPairs[k] + this.knownPairs[k + 1]);
+        }
+
+        while(!pending.isEmpty()) {
+            int wire = pending.poll();
+            if(live[wire]) {
+                continue;
+            }
+
+            live[wire] = true;
+
+            int i = wire / 26;
+            int j = wire % 26;
+
+            // The diagonal board, and every scrambler on cable i
+            pending.add(26 * j + i);
+            for(int edge : this.menu.getAdjacent(i)) {
+                pending.add(26 * this.menu.getOther(edge, i) + this.enigma.encodeReference(j, this.menu.getCribOffset(edge)));
+            }
+        }
+
+        return live;
+    }
+
+    /**
+     * @param engine How to test each position, {@link Engine#LOOPS} unless set
+     */
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * @return how many loops the menu has, the size of its cycle basis
+     */
+    public int getLoops() {
+        return loopEdges.length;
+    }
+
+    /**
+     * Whether the outcome of the last {@link Bombe#test(int)} rests on the test register's guessed partner rather
+     * than on a deduction. That's when energizing the guess lights no other wire in the test register, as always
+     * happens on a menu without loops. The Bombe then stops with the guess and whatever follows from it, or
+     * rejects the position if the checking machine finds the guess contradictory, though another partner might
+     * not have been. Either way the position wasn't proven right or wrong.
+     * @return true if the last test only shows the guessed hypothesis holds up, or doesn't
+     */
+    boolean isGuess() {
+        return guessed;
+    }
+
+    /**
+     * @return the rotor rotations last tested, as in a stop
+     */
+    String getIndicator() {
+        return enigma.getIndicator();
+    }
+
+    /**
+     * Builds the menu for a cipher text and crib without building a Bombe
+     * @param cipherText The cipher text
+     * @param crib The crib, must be the same length as the cipher text
+     * @return the canonical form of the menu, see {@link BombeCache}
+     */
+    public static String getMenuKey(String cipherText, String crib) {
+        return new Menu(cipherText.toLowerCase(), crib.toLowerCase()).getCanonicalForm();
+    }
+
+    /**
+     * @return the work this Bombe has done so far, across every call to {@link Bombe#run(int, int)}
+     */
+    public BombeStatistics getStatistics() {
+        return statistics;
     }
 
     /*
@@ -0,0 +1,185 @@
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the stops of Bombe runs so that repeated jobs don't have to run the Bombe again.
+ *
+ * The stops of a Bombe only depend on the menu it wires up, the walzenlage, and whether the checking
+ * machine runs. The menu is keyed by its canonical form (see {@link Bombe#getMenuKey(String, String)}),
+ * which only holds the edges of the subgraph the Bombe keeps and their offsets, so different cribs that
+ * boil down to the same menu share their results. Menus that only differ by relabelling their letters
+ * are NOT treated as equal: Welchman's diagonal board ties the wire for letter j in cable i to the wire
+ * for letter i in cable j, so the letters themselves take part in the logic and such menus stop at
+ * different positions.
+ *
+ * The most recently used entries are held in memory, and if a directory is given, every entry is also
+ * written to disk so it survives restarts.
+ */
+public class BombeCache {
+
+    private final LinkedHashMap<String, ArrayList<String[]>> memory;
+    private final Path directory;
+
+    private long hits, misses;
+
+    /**
+     * @param capacity The maximum number of walzenlage results held in memory
+     * @param directory A directory to keep results in across runs, or null to only use memory
+     * @throws IOException If the directory couldn't be created
+     */
+    public BombeCache(int capacity, Path directory) throws IOException {
+        this.memory = new LinkedHashMap<String, ArrayList<String[]>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ArrayList<String[]>> eldest) {
+                return size() > capacity;
+            }
+        };
+
+        this.directory = directory;
+
+        if(directory != null) {
+            Files.createDirectories(directory);
+        }
+    }
+
+    /**
+     * @param menuKey The canonical form of the menu
+     * @param walzenlage The configuration of the Bombe, such as "ReflectorB, I, II, III"
+     * @param check Whether the checking machine was used
+     * @return the key results are stored under
+     */
+    public static String getKey(String menuKey, String walzenlage, boolean check) {
+        return menuKey + "|" + walzenlage + "|" + check;
+    }
+
+    /**
+     * @param key A key from {@link BombeCache#getKey(String, String, boolean)}
+     * @return the cached stops, or null if the run isn't cached
+     */
+    public ArrayList<String[]> get(String key) {
+        synchronized(memory) {
+            ArrayList<String[]> stops = memory.get(key);
+            if(stops != null) {
+                hits++;
+                return new ArrayList<>(stops);
+            }
+        }
+
+        ArrayList<String[]> stops = directory == null ? null : read(key);
+
+        synchronized(memory) {
+            if(stops == null) {
+                misses++;
+                return null;
+            }
+
+            hits++;
+            memory.put(key, stops);
+            return new ArrayList<>(stops);
+        }
+    }
+
+    /**
+     * Stores the stops of a Bombe run
+     * @param key A key from {@link BombeCache#getKey(String, String, boolean)}
+     * @param stops The stops, in the format returned by {@link Bombe#run()}
+     */
+    public void put(String key, ArrayList<String[]> stops) {
+        stops = new ArrayList<>(stops);
+
+        synchronized(memory) {
+            memory.put(key, stops);
+        }
+
+        if(directory != null) {
+            write(key, stops);
+        }
+    }
+
+    public void clear() {
+        synchronized(memory) {
+            memory.clear();
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized(memory) {
+            return "Entries=" + memory.size() + ", Hits=" + hits + ", Misses=" + misses
+                    + (directory != null ? ", Directory=" + directory : "");
+        }
+    }
+
+    private Path getFile(String key) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+
+            StringBuilder name = new StringBuilder();
+            for(byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+
+            return directory.resolve(name.append(".stops").toString());
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Entries on disk start with their full key, so a hash collision is detected instead of
+     * returning the wrong stops, followed by one tab separated stop per line
+     */
+    private ArrayList<String[]> read(String key) {
+        Path file = getFile(key);
+
+        if(!Files.exists(file)) {
+            return null;
+        }
+
+        try(BufferedReader in = Files.newBufferedReader(file)) {
+            if(!key.equals(in.readLine())) {
+                return null;
+            }
+
+            ArrayList<String[]> stops = new ArrayList<>();
+
+            String line;
+            while((line = in.readLine()) != null) {
+                stops.add(line.split("\t", -1));
+            }
+
+            return stops;
+        } catch(IOException e) {
+            return null;
+        }
+    }
+
+    private void write(String key, ArrayList<String[]> stops) {
+        Path file = getFile(key);
+
+        try {
+            Path temp = Files.createTempFile(directory, "bombe", ".tmp");
+
+            try(BufferedWriter out = Files.newBufferedWriter(temp)) {
+                out.write(key);
+                out.newLine();
+
+                for(String[] stop : stops) {
+                    out.write(String.join("\t", stop));
+                    out.newLine();
+                }
+            }
+
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch(IOException e) {
+            // The disk is only a second tier, the result is still cached in memory
+            e.printStackTrace();
+        }
+    }
+}
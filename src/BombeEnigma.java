@@ -1,3 +1,8 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
 /**
  * The Bombe, which was Turing's machine used to crack Enigma,
  * included many Enigmas of its own that were slightly modified.
@@ -9,26 +14,101 @@
  * - Letters are not passed through a plug board as the Bombe's goal is to deduce what the plug board
  *   settings could be
  * - Here, every letter through every possible rotation of the rotors is cached to make the Bombe
- *   speedier. This is literally caching half a million integers, isn't modern hardware great? Technically,
- *   you wouldn't need to cache all three rotations keys and could use something fancy like Cantor's
- *   pairing function, but we're too lazy for that.
+ *   speedier. That's half a million letters, and since each one fits in a byte they're kept in one flat
+ *   byte array of 26 letters per position, 457KB per walzenlage. With 60 walzenlagen running at once
+ *   the whole working set is under 30MB, where nested int arrays (with their headers and pointers) took
+ *   over 120MB and mostly lived in main memory. The scrambler at any one position is an involution of
+ *   13 swaps, so 13 bytes would do, but then a lookup is a search and no longer a single load.
+ * - The cache only depends on the rotor order, so it is built once per walzenlage and shared by every
+ *   BombeEnigma of that walzenlage in the process. Repeated cracks and batch jobs only pay for it once.
+ * - On a four rotor Enigma (M4) the greek rotor never moves, so together with the thin reflector it just
+ *   acts as a different reflector. The greek rotor at its rotation and the thin reflector are combined into
+ *   one virtual reflector table up front, and the Bombe runs exactly like it does for three rotors. Every
+ *   greek rotation is a separate BombeEnigma, which the farm can run in parallel.
  */
 public class BombeEnigma {
 
+    // How many scrambler caches to keep around, each one is 457KB
+    private static final int MAX_CACHES = 64;
+
     private final Rotor reflector;
+    private final Rotor greek;
     private final Rotor left;
     private final Rotor middle;
     private final Rotor right;
 
-    // Indexed in the following order: left rotation, middle rotation,
-    // right rotation, and the letter to encode
-    private final int[][][][] CACHE = new int[26][26][26][26];
+    // The reflector, or on an M4 the greek rotor and thin reflector combined, as a lookup table
+    private final int[] reflectorTable;
+
+    // Scrambler caches shared across every BombeEnigma, keyed by configuration, least recently used go first
+    private static final Map<String, byte[]> CACHES = Collections.synchronizedMap(new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+            return size() > MAX_CACHES;
+        }
+    });
+
+    // Virtual reflectors shared across every BombeEnigma, keyed by configuration
+    private static final ConcurrentHashMap<String, int[]> REFLECTORS = new ConcurrentHashMap<>();
+
+    // Entry 26 * (676 * left + 26 * middle + right) + letter is the letter encoded at those rotations
+    private final byte[] CACHE;
+
+    // Where the left and middle rotors' 676 entries of 26 letters start in the cache
+    private int base;
 
     public BombeEnigma(Enigma enigma) {
-        this.reflector = enigma.reflector.copy();
-        this.left = enigma.left.copy();
-        this.middle = enigma.middle.copy();
-        this.right = enigma.right.copy();
+        // Rings are ignored, so only the wiring of each rotor is kept
+        this.reflector = new Rotor(enigma.reflector.mapping, 0, 0);
+        this.left = new Rotor(enigma.left.mapping, 0, 0);
+        this.middle = new Rotor(enigma.middle.mapping, 0, 0);
+        this.right = new Rotor(enigma.right.mapping, 0, 0);
+
+        // Like the other rotors, the greek rotor's ring is ignored, but its rotation is kept
+        this.greek = enigma.greek != null ? new Rotor(enigma.greek.mapping, 0, enigma.greek.rotation) : null;
+
+        String greekKey = greek != null ? ", " + greek.mapping + " at " + Utils.i2a(greek.rotation) : "";
+        String key = getConfiguration() + greekKey;
+
+        this.reflectorTable = REFLECTORS.computeIfAbsent(reflector.mapping + greekKey, k -> buildReflectorTable());
+
+        byte[] cache = CACHES.get(key);
+
+        // Two threads may race to build the same cache, which is harmless as both
+        // come out identical, and keeps slow builds from holding a lock on the map
+        if(cache == null) {
+            cache = buildCache();
+            byte[] existing = CACHES.putIfAbsent(key, cache);
+            cache = existing != null ? existing : cache;
+        }
+
+        this.CACHE = cache;
+        setRotation(left.rotation, middle.rotation, right.rotation);
+    }
+
+    private int[] buildReflectorTable() {
+        int[] table = new int[26];
+
+        for(int letter = 0; letter < 26; letter++) {
+            if(greek != null) {
+                table[letter] = greek.encode(reflector.encode(greek.encode(letter, true), true), false);
+            } else {
+                table[letter] = reflector.encode(letter, true);
+            }
+        }
+
+        return table;
+    }
+
+    /**
+     * Drops every shared scrambler cache, they will be rebuilt on demand
+     */
+    public static void clearCaches() {
+        CACHES.clear();
+    }
+
+    private byte[] buildCache() {
+        byte[] cache = new byte[26 * 26 * 26 * 26];
 
         // Cache the entire possible state
         for(int i = 0; i < 26; i++) {
@@ -46,18 +126,20 @@ public class BombeEnigma {
                         letter = left.encode(letter, true);
 
                         // Run through the reflector
-                        letter = reflector.encode(letter, true);
+                        letter = reflectorTable[letter];
 
                         // Run through the rotors backwards
                         letter = left.encode(letter, false);
                         letter = middle.encode(letter, false);
                         letter = right.encode(letter, false);
 
-                        CACHE[i][j][k][l] = letter;
+                        cache[26 * (676 * i + 26 * j + k) + l] = (byte) letter;
                     }
                 }
             }
         }
+
+        return cache;
     }
 
     /**
@@ -70,6 +152,7 @@ public class BombeEnigma {
         this.left.rotation = left;
         this.middle.rotation = middle;
         this.right.rotation = right;
+        this.base = 26 * (676 * left + 26 * middle);
     }
 
     /**
@@ -81,23 +164,64 @@ public class BombeEnigma {
      * @return the encoded letter as an offset from 'a'
      */
     public int encode(int letter, int rightRotation) {
-        return CACHE[this.left.rotation][this.middle.rotation][(right.rotation + rightRotation) % 26][letter];
+        return CACHE[base + 26 * ((right.rotation + rightRotation) % 26) + letter];
+    }
+
+    /**
+     * Copies out the 26 scramblers of a left and middle rotation, one per right rotation, so a Bombe can step
+     * the right rotor through them without going back to the cache
+     * @param left The left rotor's rotation
+     * @param middle The middle rotor's rotation
+     * @param into 676 bytes, entry 26 * right + letter is the letter encoded at that right rotation
+     */
+    void copyScramblers(int left, int middle, byte[] into) {
+        System.arraycopy(CACHE, 26 * (676 * left + 26 * middle), into, 0, 26 * 26);
+    }
+
+    /**
+     * Encodes a letter straight through the rotors, without the cache or the virtual reflector, as the
+     * reference {@link BombeEnigma#encode(int, int)} is checked against, see {@link ReferenceEngine}
+     * @param letter The letter to encode, an integer in the range 0-25 representing an offset from 'a'
+     * @param rightRotation Added to the right rotor's rotation, as in {@link BombeEnigma#encode(int, int)}
+     * @return the encoded letter as an offset from 'a'
+     */
+    int encodeReference(int letter, int rightRotation) {
+        Rotor left = new Rotor(this.left.mapping, 0, this.left.rotation);
+        Rotor middle = new Rotor(this.middle.mapping, 0, this.middle.rotation);
+        Rotor right = new Rotor(this.right.mapping, 0, (this.right.rotation + rightRotation) % 26);
+
+        letter = right.encode(letter, true);
+        letter = middle.encode(letter, true);
+        letter = left.encode(letter, true);
+
+        if(greek != null) {
+            letter = greek.encode(reflector.encode(greek.encode(letter, true), true), false);
+        } else {
+            letter = reflector.encode(letter, true);
+        }
+
+        letter = left.encode(letter, false);
+        letter = middle.encode(letter, false);
+        return right.encode(letter, false);
     }
 
     /**
      * Returns the three rotations for each of the rotors, this is used to identify which rotor position was used
      * if the Bombe stops so it can be reported as a particular candidate Enigma setting
-     * @return A three letter string representing the three rotor positions
+     * @return A three letter string representing the three rotor positions, preceded by the greek rotor's
+     * rotation on an M4
      */
     public String getIndicator() {
-        return String.valueOf(Utils.i2a(left.rotation)) + Utils.i2a(middle.rotation) + Utils.i2a(right.rotation);
+        return (greek != null ? String.valueOf(Utils.i2a(greek.rotation)) : "")
+                + Utils.i2a(left.rotation) + Utils.i2a(middle.rotation) + Utils.i2a(right.rotation);
     }
 
     /**
      * @return returns a string representing the Bombe's configuration
      */
     public String getConfiguration() {
-        return reflector.mapping.toString() + ", " + left.mapping.toString()+", " + middle.mapping.toString() + ", " + right.mapping.toString();
+        return reflector.mapping.toString() + ", " + (greek != null ? greek.mapping.toString() + ", " : "")
+                + left.mapping.toString()+", " + middle.mapping.toString() + ", " + right.mapping.toString();
     }
 
 }
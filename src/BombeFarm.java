@@ -1,21 +1,131 @@
+import java.io.BufferedReader;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
 
 public class BombeFarm {
 
-    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(60, 60, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
-    private final CompletionService<ArrayList<String[]>> completionService = new ExecutorCompletionService<>(executor);
+    /**
+     * Decides whether a stop is the answer, for example by deciphering the rest of the message with it,
+     * see {@link PlaintextVerifier}
+     */
+    public interface Verifier {
+        /**
+         * @param walzenlage The walzenlage the stop was found with
+         * @param stop The stop, as returned by {@link Bombe#run()}
+         * @return true if the stop is the answer, which ends the farm's run
+         */
+        boolean verify(int[] walzenlage, String[] stop);
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final CompletionService<ArrayList<String[]>> completionService;
+
+    // Whether the executor was created by this farm, and should be shut down by it
+    private final boolean ownsExecutor;
 
     private final String cipherText, crib;
     private final boolean check;
 
+    // Whether to search the four rotor Enigma (M4) instead
+    private final boolean fourRotor;
+
+    private final ConcurrentLinkedQueue<BombeStatistics> statistics = new ConcurrentLinkedQueue<>();
+    private FarmMetrics metrics;
+
+    private BombeCache cache;
+
+    // The walzenlagen to run, in order, or null for all of them
+    private ArrayList<int[]> walzenlagen;
+
+    // How likely each walzenlage is, which ones are ruled out, and how to recognize the answer, all optional
+    private ToDoubleFunction<int[]> priors;
+    private Predicate<int[]> exclusions;
+    private Verifier verifier;
+
+    private String[] verified;
+    private int[] verifiedWalzenlage;
+
+    // How the Bombes test positions, and how many tasks each walzenlage is split into
+    private Bombe.Engine engine = Bombe.Engine.LOOPS;
+    private int slices = 1;
+
+    // Stecker pairs known beforehand, or null
+    private PlugBoard known;
+
+    // The tasks of the current run, so they can be cancelled from another thread
+    private final CopyOnWriteArrayList<Future<ArrayList<String[]>>> futures = new CopyOnWriteArrayList<>();
+    private volatile boolean cancelled;
+
+    // Progress of the current run, readable while it runs
+    private volatile int tasks, completedTasks, stopCount;
+
     public BombeFarm(String cipherText, String crib, boolean check) {
+        this(cipherText, crib, check, false);
+    }
+
+    /**
+     * @param cipherText The cipher text
+     * @param crib The crib, must be the same length as the cipher text
+     * @param check Whether to run the checking machine on stops
+     * @param fourRotor Whether to search the four rotor Enigma (M4), which runs every walzenlage once for
+     *                  each of the 26 greek rotor rotations
+     */
+    public BombeFarm(String cipherText, String crib, boolean check, boolean fourRotor) {
+        this(cipherText, crib, check, fourRotor, new ThreadPoolExecutor(60, 60, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>()), true);
+    }
+
+    /**
+     * Creates a farm with its own thread pool of a given size, see {@link BombeTuner} for picking one
+     * @param cipherText The cipher text
+     * @param crib The crib, must be the same length as the cipher text
+     * @param check Whether to run the checking machine on stops
+     * @param fourRotor Whether to search the four rotor Enigma (M4)
+     * @param threads How many Bombes to run at once
+     */
+    public BombeFarm(String cipherText, String crib, boolean check, boolean fourRotor, int threads) {
+        this(cipherText, crib, check, fourRotor, new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>()), true);
+    }
+
+    /**
+     * Creates a farm that runs on an existing thread pool, which is left running afterwards so it can be
+     * shared by several farms
+     * @param cipherText The cipher text
+     * @param crib The crib, must be the same length as the cipher text
+     * @param check Whether to run the checking machine on stops
+     * @param fourRotor Whether to search the four rotor Enigma (M4)
+     * @param executor The thread pool to run the Bombes on
+     */
+    public BombeFarm(String cipherText, String crib, boolean check, boolean fourRotor, ThreadPoolExecutor executor) {
+        this(cipherText, crib, check, fourRotor, executor, false);
+    }
+
+    private BombeFarm(String cipherText, String crib, boolean check, boolean fourRotor, ThreadPoolExecutor executor, boolean ownsExecutor) {
         this.cipherText = cipherText.toLowerCase();
         this.crib = crib.toLowerCase();
         this.check = check;
+        this.fourRotor = fourRotor;
+        this.executor = executor;
+        this.completionService = new ExecutorCompletionService<>(executor);
+        this.ownsExecutor = ownsExecutor;
     }
 
-    public ArrayList<String[]> run() {
+    /**
+     * Lists every walzenlage (wheel order) the farm tries, that is reflector B with every ordering
+     * of three distinct rotors out of I-V
+     * @return 60 entries of four {@link Rotor.Mapping} ordinals: reflector, left, middle, and right
+     */
+    public static ArrayList<int[]> getWalzenlagen() {
+        ArrayList<int[]> walzenlagen = new ArrayList<>();
+
         for(int reflector = 0; reflector < 1; reflector++) {
             for(int i = 0; i < 5; i++) {
                 for(int j = 0; j < 5; j++) {
@@ -28,42 +138,434 @@ public class BombeFarm {
                             continue;
                         }
 
-                        final Enigma enigma = new Enigma(
-                                new PlugBoard(),
-                                new Rotor(Rotor.Mapping.getMapping(5 + reflector), 0, 0),
-                                new Rotor(Rotor.Mapping.getMapping(i), 0, 0),
-                                new Rotor(Rotor.Mapping.getMapping(j), 0, 0),
-                                new Rotor(Rotor.Mapping.getMapping(k), 0, 0)
-                        );
+                        walzenlagen.add(new int[]{5 + reflector, i, j, k});
+                    }
+                }
+            }
+        }
 
-                        Callable<ArrayList<String[]>> task = () -> {
-                            Bombe bombe = new Bombe(enigma, cipherText, crib, check);
-                            return bombe.run();
-                        };
+        return walzenlagen;
+    }
 
-                        completionService.submit(task);
-                    }
+    /**
+     * Lists every walzenlage of the four rotor Enigma (M4) the farm tries, that is either thin reflector with
+     * either greek rotor and every ordering of three distinct rotors out of I-V
+     * @return 240 entries of five {@link Rotor.Mapping} ordinals: thin reflector, greek, left, middle, and right
+     */
+    public static ArrayList<int[]> getFourRotorWalzenlagen() {
+        ArrayList<int[]> walzenlagen = new ArrayList<>();
+
+        for(Rotor.Mapping reflector : new Rotor.Mapping[]{Rotor.Mapping.ReflectorBThin, Rotor.Mapping.ReflectorCThin}) {
+            for(Rotor.Mapping greek : new Rotor.Mapping[]{Rotor.Mapping.Beta, Rotor.Mapping.Gamma}) {
+                for(int[] walzenlage : getWalzenlagen()) {
+                    walzenlagen.add(new int[]{reflector.ordinal(), greek.ordinal(), walzenlage[1], walzenlage[2], walzenlage[3]});
                 }
             }
         }
 
+        return walzenlagen;
+    }
+
+    /**
+     * Builds an Enigma with an empty plug board and zeroed rings and rotations for a walzenlage
+     * @param walzenlage four {@link Rotor.Mapping} ordinals: reflector, left, middle, and right, or five
+     *                   for an M4: thin reflector, greek, left, middle, and right
+     * @return an Enigma suitable to be handed to a {@link Bombe}
+     */
+    public static Enigma createEnigma(int[] walzenlage) {
+        return createEnigma(walzenlage, 0);
+    }
+
+    /**
+     * Builds an Enigma with an empty plug board and zeroed rings and rotations for a walzenlage
+     * @param walzenlage The walzenlage, see {@link BombeFarm#createEnigma(int[])}
+     * @param greekRotation The rotation of the greek rotor, ignored unless the walzenlage is an M4 one
+     * @return an Enigma suitable to be handed to a {@link Bombe}
+     */
+    public static Enigma createEnigma(int[] walzenlage, int greekRotation) {
+        if(walzenlage.length == 5) {
+            return new Enigma(
+                    new PlugBoard(),
+                    new Rotor(Rotor.Mapping.getMapping(walzenlage[0]), 0, 0),
+                    new Rotor(Rotor.Mapping.getMapping(walzenlage[1]), 0, greekRotation),
+                    new Rotor(Rotor.Mapping.getMapping(walzenlage[2]), 0, 0),
+                    new Rotor(Rotor.Mapping.getMapping(walzenlage[3]), 0, 0),
+                    new Rotor(Rotor.Mapping.getMapping(walzenlage[4]), 0, 0)
+            );
+        }
+
+        return new Enigma(
+                new PlugBoard(),
+                new Rotor(Rotor.Mapping.getMapping(walzenlage[0]), 0, 0),
+                new Rotor(Rotor.Mapping.getMapping(walzenlage[1]), 0, 0),
+                new Rotor(Rotor.Mapping.getMapping(walzenlage[2]), 0, 0),
+                new Rotor(Rotor.Mapping.getMapping(walzenlage[3]), 0, 0)
+        );
+    }
+
+    /**
+     * Builds the configuration string a {@link Bombe} reports for a walzenlage
+     * @param walzenlage The walzenlage, see {@link BombeFarm#createEnigma(int[])}
+     * @return a configuration such as "ReflectorB, I, II, III"
+     */
+    public static String getConfiguration(int[] walzenlage) {
+        StringBuilder builder = new StringBuilder();
+
+        for(int i = 0; i < walzenlage.length; i++) {
+            builder.append(i == 0 ? "" : ", ").append(Rotor.Mapping.getMapping(walzenlage[i]));
+        }
+
+        return builder.toString();
+    }
+
+    /**
+     * Sets a cache to look up walzenlagen in before running them, and to store new results in
+     * @param cache The cache, or null to always run every walzenlage
+     */
+    public void setCache(BombeCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Restricts the farm to some walzenlagen, which are run in the given order, for example the ranking
+     * from {@link Banburismus#rankWalzenlagen(double)}
+     * @param walzenlagen The walzenlagen, in the format of {@link #getWalzenlagen()} (or {@link #getFourRotorWalzenlagen()}
+     *                    for an M4 farm), or null to run all of them
+     */
+    public void setWalzenlagen(ArrayList<int[]> walzenlagen) {
+        this.walzenlagen = walzenlagen;
+    }
+
+    /**
+     * @param engine How the Bombes test each position, {@link Bombe.Engine#LOOPS} unless set
+     */
+    public void setEngine(Bombe.Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * @param known Stecker pairs known beforehand, which every Bombe of the farm takes into account, see
+     * {@link Bombe#setKnownSteckers(PlugBoard)}, or null
+     */
+    public void setKnownSteckers(PlugBoard known) {
+        this.known = known;
+    }
+
+    /**
+     * Stops a run from another thread. Tasks that haven't started are dropped, running ones stop at their next
+     * check, and {@link BombeFarm#run()} returns the stops found so far. The next run starts afresh.
+     */
+    public void cancel() {
+        cancelled = true;
+        cancelTasks();
+    }
+
+    /**
+     * @return whether {@link BombeFarm#cancel()} was called during the current or last run
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return how many tasks the current run has, once they are all submitted
+     */
+    public int getTasks() {
+        return tasks;
+    }
+
+    /**
+     * @return how many tasks of the current run have finished
+     */
+    public int getCompletedTasks() {
+        return completedTasks;
+    }
+
+    /**
+     * @return how many stops the current run has found so far
+     */
+    public int getStopCount() {
+        return stopCount;
+    }
+
+    private void cancelTasks() {
+        for(Future<ArrayList<String[]>> future : futures) {
+            future.cancel(true);
+        }
+    }
+
+    /**
+     * Splits every walzenlage into several tasks over a range of rotor positions each, which keeps every
+     * thread busy when there are fewer walzenlagen than threads, for example after banburismus
+     * @param slices How many tasks each walzenlage is split into, from 1 to 26
+     */
+    public void setSlices(int slices) {
+        if(slices < 1 || slices > 26) {
+            throw new IllegalArgumentException("A walzenlage can be split into 1 to 26 tasks: " + slices);
+        }
+
+        this.slices = slices;
+    }
+
+    /**
+     * Orders the walzenlagen so the most likely run first, for example by known rotor usage rules or how often
+     * each walzenlage came up before. Walzenlagen with the same prior keep their usual order.
+     * @param priors The relative likelihood of a walzenlage, higher runs sooner, or null to keep the usual order
+     */
+    public void setPriors(ToDoubleFunction<int[]> priors) {
+        this.priors = priors;
+    }
+
+    /**
+     * Rules out walzenlagen before any work starts
+     * @param exclusions Whether a walzenlage can't be the answer, or null to run all of them
+     */
+    public void setExclusions(Predicate<int[]> exclusions) {
+        this.exclusions = exclusions;
+    }
+
+    /**
+     * Sets a verifier that every stop is handed to as its walzenlage finishes. Once a stop is verified, the
+     * walzenlagen still queued are cancelled, the running ones are interrupted, and the run returns straight away.
+     * @param verifier The verifier, or null to always run every walzenlage
+     */
+    public void setVerifier(Verifier verifier) {
+        this.verifier = verifier;
+    }
+
+    /**
+     * @return the stop the verifier accepted in the last run, or null if none was
+     */
+    public String[] getVerified() {
+        return verified;
+    }
+
+    /**
+     * @return the walzenlage of the stop the verifier accepted in the last run, or null if none was
+     */
+    public int[] getVerifiedWalzenlage() {
+        return verifiedWalzenlage;
+    }
+
+    /**
+     * The rule that no rotor sits in the same place as it did the day before, as German key sheets
+     * were drawn up to avoid that
+     * @param previous The previous day's walzenlage
+     * @return an exclusion ruling out every walzenlage with a rotor in the same place, see {@link #setExclusions(Predicate)}
+     */
+    public static Predicate<int[]> clashesWith(int[] previous) {
+        return walzenlage -> {
+            // The left, middle and right rotors are always the last three
+            for(int i = 1; i <= 3; i++) {
+                if(walzenlage[walzenlage.length - i] == previous[previous.length - i]) {
+                    return true;
+                }
+            }
+
+            return false;
+        };
+    }
+
+    /**
+     * Reads how often each walzenlage came up before, one per line as "[walzenlage] [weight]" such as
+     * "B:I,II,III 12", skipping blank lines and lines starting with #
+     * @param in The weights
+     * @return priors for {@link #setPriors(ToDoubleFunction)}, walzenlagen that aren't listed get 0
+     * @throws IOException If reading fails
+     */
+    public static ToDoubleFunction<int[]> readPriors(BufferedReader in) throws IOException {
+        HashMap<String, Double> weights = new HashMap<>();
+
+        String line;
+        while((line = in.readLine()) != null) {
+            line = line.trim();
+
+            if(line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] tokens = line.split("\\s+");
+            if(tokens.length != 2) {
+                throw new IllegalArgumentException("Expected a walzenlage and a weight: " + line);
+            }
+
+            weights.merge(Arrays.toString(BatchJob.parseWalzenlage(tokens[0])), Double.parseDouble(tokens[1]), Double::sum);
+        }
+
+        return walzenlage -> weights.getOrDefault(Arrays.toString(walzenlage), 0.0);
+    }
+
+    public ArrayList<String[]> run() {
+        BombeFarmEvent event = new BombeFarmEvent();
+        event.begin();
+        long start = System.nanoTime();
+
+        ArrayList<int[]> walzenlagen = new ArrayList<>(this.walzenlagen != null ? this.walzenlagen : fourRotor ? getFourRotorWalzenlagen() : getWalzenlagen());
+
+        if(exclusions != null) {
+            walzenlagen.removeIf(exclusions);
+        }
+
+        // A stable sort, and the executor's queue is first come first served, so the most likely walzenlagen run first
+        if(priors != null) {
+            walzenlagen.sort(Comparator.comparingDouble(priors).reversed());
+        }
+
+        verified = null;
+        verifiedWalzenlage = null;
+        statistics.clear();
+        futures.clear();
+        cancelled = false;
+        completedTasks = 0;
+        stopCount = 0;
+        ArrayList<int[]> taskWalzenlagen = new ArrayList<>();
+
+        // Known steckers change the stops, so results with and without them are kept apart
+        final String menuKey = cache != null ? Bombe.getMenuKey(cipherText, crib) + (known != null ? "+" + Bombe.getKnownKey(known) : "") : null;
+        final AtomicInteger cacheHits = new AtomicInteger();
+
+        // On an M4 every greek rotation is its own task with its own virtual reflector, and each of them may
+        // be split further into slices of rotor positions
+        int tasks = 0;
+        for(int[] walzenlage : walzenlagen) {
+            for(int greekRotation = 0; greekRotation < (walzenlage.length == 5 ? 26 : 1); greekRotation++) {
+                final Enigma enigma = createEnigma(walzenlage, greekRotation);
+                final String configuration = getConfiguration(walzenlage) + (walzenlage.length == 5 ? " at " + Utils.i2a(greekRotation) : "");
+                final String key = cache != null ? BombeCache.getKey(menuKey, configuration, check) : null;
+
+                // Hit or miss is decided once for the whole walzenlage, a cache filled or evicted by another run
+                // between two of its slices would otherwise lose or repeat the stops of some slices
+                final ArrayList<String[]> cached = key != null ? cache.get(key) : null;
+                if(cached != null) {
+                    cacheHits.incrementAndGet();
+
+                    futures.add(completionService.submit(() -> cached));
+                    taskWalzenlagen.add(walzenlage);
+                    tasks++;
+                    continue;
+                }
+
+                // A walzenlage's stops are only cached once every slice of it has run in full
+                final AtomicReferenceArray<ArrayList<String[]>> parts = new AtomicReferenceArray<>(slices);
+                final AtomicInteger remaining = new AtomicInteger(slices);
+                final AtomicBoolean partial = new AtomicBoolean();
+
+                for(int slice = 0; slice < slices; slice++) {
+                    final int part = slice;
+                    final int first = Bombe.POSITIONS * slice / slices;
+                    final int last = Bombe.POSITIONS * (slice + 1) / slices;
+                    final long submitted = System.nanoTime();
+
+                    Callable<ArrayList<String[]>> task = () -> {
+                        long queued = System.nanoTime() - submitted;
+
+                        Bombe bombe = new Bombe(enigma, cipherText, crib, check);
+                        bombe.setEngine(engine);
+                        if(known != null) {
+                            bombe.setKnownSteckers(known);
+                        }
+                        ArrayList<String[]> result = bombe.run(first, last);
+
+                        bombe.getStatistics().queuedNanos = queued;
+                        statistics.add(bombe.getStatistics());
+
+                        // Cancelled after another walzenlage was verified, so the result is only partial
+                        if(Thread.currentThread().isInterrupted()) {
+                            partial.set(true);
+                        }
+
+                        parts.set(part, result);
+                        if(remaining.decrementAndGet() == 0 && key != null && !partial.get()) {
+                            ArrayList<String[]> stops = new ArrayList<>();
+                            for(int i = 0; i < slices; i++) {
+                                stops.addAll(parts.get(i));
+                            }
+
+                            cache.put(key, stops);
+                        }
+
+                        return result;
+                    };
+
+                    futures.add(completionService.submit(task));
+                    taskWalzenlagen.add(walzenlage);
+                    tasks++;
+                }
+            }
+        }
+
+        this.tasks = tasks;
+
         ArrayList<String[]> results = new ArrayList<>();
+        int[] queueDepths = new int[tasks];
 
         int received = 0;
-        while(received < 60) {
+        while(received < tasks) {
+            if(cancelled) {
+                cancelTasks();
+                break;
+            }
+
             try {
                 Future<ArrayList<String[]>> result = completionService.take();
 
                 results.addAll(result.get());
 
+                queueDepths[received] = executor.getQueue().size();
                 received++;
+                completedTasks = received;
+                stopCount = results.size();
+
+                if(verifier != null) {
+                    int[] walzenlage = taskWalzenlagen.get(futures.indexOf(result));
+
+                    for(String[] stop : result.get()) {
+                        if(verifier.verify(walzenlage, stop)) {
+                            verified = stop;
+                            verifiedWalzenlage = walzenlage;
+                            break;
+                        }
+                    }
+
+                    if(verified != null) {
+                        cancelTasks();
+                        break;
+                    }
+                }
+            } catch(CancellationException e) {
+                // Only happens after cancel(), which the next round handles
             } catch(InterruptedException | ExecutionException e) {
                 e.printStackTrace();
             }
         }
 
-        executor.shutdown();
+        queueDepths = Arrays.copyOf(queueDepths, received);
+
+        if(ownsExecutor) {
+            executor.shutdown();
+        }
+
+        metrics = new FarmMetrics(new ArrayList<>(statistics), queueDepths, cacheHits.get(), System.nanoTime() - start);
+
+        event.end();
+        if(event.shouldCommit()) {
+            event.walzenlagen = metrics.walzenlagen.size() + metrics.cacheHits;
+            event.positions = metrics.total.positions;
+            event.energizeCalls = metrics.total.energizeCalls;
+            event.wiresLit = metrics.total.wiresLit;
+            event.stops = metrics.total.stops;
+            event.checkingMachineRuns = metrics.total.checkingMachineRuns;
+            event.maxQueueDepth = metrics.maxQueueDepth;
+            event.commit();
+        }
 
         return results;
     }
+
+    /**
+     * @return counters and timings for the last call to {@link BombeFarm#run()}, or null if it hasn't run
+     */
+    public FarmMetrics getMetrics() {
+        return metrics;
+    }
 }
@@ -0,0 +1,32 @@
+import jdk.jfr.*;
+
+/**
+ * A Java Flight Recorder event emitted when a {@link BombeFarm} finishes, covering the whole run
+ */
+@Name("enigma.BombeFarm")
+@Label("Bombe Farm Run")
+@Category({"Enigma", "Bombe"})
+@Description("A Bombe farm testing every walzenlage")
+public class BombeFarmEvent extends Event {
+
+    @Label("Walzenlagen")
+    public int walzenlagen;
+
+    @Label("Positions")
+    public long positions;
+
+    @Label("Energize Calls")
+    public long energizeCalls;
+
+    @Label("Wires Lit")
+    public long wiresLit;
+
+    @Label("Stops")
+    public long stops;
+
+    @Label("Checking Machine Runs")
+    public long checkingMachineRuns;
+
+    @Label("Max Queue Depth")
+    public int maxQueueDepth;
+}
@@ -0,0 +1,33 @@
+import jdk.jfr.*;
+
+/**
+ * A Java Flight Recorder event emitted every time a {@link Bombe} finishes a run over a range
+ * of rotor positions. Record with e.g. java -XX:StartFlightRecording=filename=bombe.jfr -jar enigma.jar
+ */
+@Name("enigma.BombeRun")
+@Label("Bombe Run")
+@Category({"Enigma", "Bombe"})
+@Description("A Bombe testing a range of rotor positions for one walzenlage")
+public class BombeRunEvent extends Event {
+
+    @Label("Configuration")
+    public String configuration;
+
+    @Label("First Position")
+    public int start;
+
+    @Label("Last Position")
+    public int end;
+
+    @Label("Energize Calls")
+    public long energizeCalls;
+
+    @Label("Wires Lit")
+    public long wiresLit;
+
+    @Label("Stops")
+    public long stops;
+
+    @Label("Checking Machine Runs")
+    public long checkingMachineRuns;
+}
@@ -0,0 +1,90 @@
+/**
+ * Counters describing how much work a {@link Bombe} did. Every Bombe owns its own instance and only
+ * ever touches it from the thread running it, so the counters are plain fields that cost next to
+ * nothing to bump inside the hot loop. Statistics from several Bombes, for example every walzenlage
+ * of a {@link BombeFarm}, are combined afterwards with {@link BombeStatistics#add(BombeStatistics)}.
+ */
+public class BombeStatistics {
+
+    // The Bombe configuration these statistics belong to, or null once several have been added together
+    public String configuration;
+
+    // Rotor positions tested
+    public long positions;
+
+    // Calls to Bombe#energize, including the ones made by the checking machine
+    public long energizeCalls;
+
+    // Wires that became live, counting both wires that the diagonal board lights up at once
+    public long wiresLit;
+
+    // Positions the Bombe stopped on
+    public long stops;
+
+    // Calls to Bombe#checkingMachine
+    public long checkingMachineRuns;
+
+    // Positions ruled out by the loop condition without energizing, see Bombe#checkLoops
+    public long loopRejections;
+
+    // Positions ruled out by known steckers, see Bombe#setKnownSteckers
+    public long steckerRejections;
+
+    // Time spent testing positions
+    public long runNanos;
+
+    // Time spent waiting in a thread pool's queue before starting, if run by a farm
+    public long queuedNanos;
+
+    public BombeStatistics() {}
+
+    public BombeStatistics(String configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Adds the counters of another Bombe to these ones
+     * @param other The statistics to add
+     */
+    public void add(BombeStatistics other) {
+        if(configuration != null && !configuration.equals(other.configuration)) {
+            configuration = null;
+        }
+
+        positions += other.positions;
+        energizeCalls += other.energizeCalls;
+        wiresLit += other.wiresLit;
+        stops += other.stops;
+        checkingMachineRuns += other.checkingMachineRuns;
+        loopRejections += other.loopRejections;
+        steckerRejections += other.steckerRejections;
+        runNanos += other.runNanos;
+        queuedNanos += other.queuedNanos;
+    }
+
+    /**
+     * @return an independent copy of these statistics
+     */
+    public BombeStatistics copy() {
+        BombeStatistics copy = new BombeStatistics(configuration);
+        copy.add(this);
+        return copy;
+    }
+
+    /**
+     * @return the fraction of positions the loop condition ruled out before energizing
+     */
+    public double getLoopRejectionRate() {
+        return positions == 0 ? 0 : (double) loopRejections / positions;
+    }
+
+    @Override
+    public String toString() {
+        return "Positions=" + positions + ", Energize calls=" + energizeCalls + ", Wires lit=" + wiresLit
+                + ", Stops=" + stops + ", Checking machine runs=" + checkingMachineRuns
+                + ", Loop rejections=" + loopRejections + String.format(" (%.1f%%)", 100 * getLoopRejectionRate())
+                + (steckerRejections > 0 ? ", Stecker rejections=" + steckerRejections : "")
+                + ", Run time=" + runNanos / 1_000_000 + "ms"
+                + (queuedNanos > 0 ? ", Queued=" + queuedNanos / 1_000_000 + "ms" : "");
+    }
+}
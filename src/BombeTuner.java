@@ -0,0 +1,259 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Properties;
+import java.util.concurrent.*;
+
+/**
+ * Picks how a {@link BombeFarm} runs on this host: which {@link Bombe.Engine} tests the positions, how many
+ * threads run Bombes at once, and how many tasks every walzenlage is split into.
+ *
+ * The engine and the thread count are decided by short timed trials on the actual menu, since which is
+ * faster depends on the menu's loops as much as on the cores and caches of the host. Trials take a fraction
+ * of a second, but that's still worth skipping, so their outcome is kept in a small profile file per host:
+ * the thread count once per host, the engine once per host and menu shape. The granularity needs no trial,
+ * a walzenlage is only split up when there are too few of them to keep every thread busy until the end.
+ *
+ * The profile is ~/.enigma-tuning.properties unless -Denigma.tuning names another file.
+ */
+public class BombeTuner {
+
+    /**
+     * A choice of engine, threads and granularity. Unset fields are left for {@link BombeTuner#tune} to fill in,
+     * so they double as overrides.
+     */
+    public static class Tuning {
+        public Bombe.Engine engine;
+        public int threads;
+        public int slices;
+
+        @Override
+        public String toString() {
+            return "Engine=" + engine + ", Threads=" + threads + ", Slices=" + slices;
+        }
+    }
+
+    // Positions each trial run tests, after the same number to warm up
+    private static final int TRIAL_POSITIONS = 2 * 676;
+
+    // How many tasks per thread a farm should have so that none sit idle while the last ones finish
+    private static final int TASKS_PER_THREAD = 4;
+
+    private final Path profile;
+    private final Properties properties = new Properties();
+
+    /**
+     * Creates a tuner keeping its profile in the default file
+     * @throws IOException If the profile exists but couldn't be read
+     */
+    public BombeTuner() throws IOException {
+        this(getDefaultProfile());
+    }
+
+    /**
+     * @param profile The file to keep decisions in across runs, or null to decide again every run
+     * @throws IOException If the profile exists but couldn't be read
+     */
+    public BombeTuner(Path profile) throws IOException {
+        this.profile = profile;
+
+        if(profile != null && Files.exists(profile)) {
+            try(Reader reader = Files.newBufferedReader(profile)) {
+                properties.load(reader);
+            }
+        }
+    }
+
+    /**
+     * @return the profile file named by -Denigma.tuning, or ~/.enigma-tuning.properties
+     */
+    public static Path getDefaultProfile() {
+        String path = System.getProperty("enigma.tuning");
+        return path != null ? Paths.get(path) : Paths.get(System.getProperty("user.home"), ".enigma-tuning.properties");
+    }
+
+    /**
+     * Fills in the unset fields of a tuning, running trials for whatever the profile doesn't know yet. Jobs may
+     * tune at the same time, so they take turns.
+     * @param tuning The overrides, fields left unset are tuned
+     * @param cipherText The cipher text of the job
+     * @param crib The crib of the job
+     * @param check Whether the job runs the checking machine
+     * @param tasks How many walzenlagen the job runs, counting every greek rotation of an M4
+     * @return the same tuning, complete
+     * @throws IOException If the profile couldn't be written
+     */
+    public synchronized Tuning tune(Tuning tuning, String cipherText, String crib, boolean check, int tasks) throws IOException {
+        String host = getHostKey();
+        boolean changed = false;
+
+        if(tuning.engine == null) {
+            Bombe bombe = new Bombe(BombeFarm.createEnigma(new int[]{5, 0, 1, 2}), cipherText, crib, check);
+            String shape = getMenuShape(bombe, check);
+            String key = "engine." + host + "." + shape;
+            String engine = "noloops".equals(shape) ? Bombe.Engine.ENERGIZE.name() : properties.getProperty(key);
+
+            if(engine == null) {
+                engine = chooseEngine(cipherText, crib, check).name();
+                properties.setProperty(key, engine);
+                changed = true;
+            }
+
+            tuning.engine = Bombe.Engine.valueOf(engine);
+        }
+
+        if(tuning.threads == 0) {
+            String key = "threads." + host;
+            String threads = properties.getProperty(key);
+
+            if(threads == null) {
+                threads = String.valueOf(chooseThreads(cipherText, crib, check, tuning.engine));
+                properties.setProperty(key, threads);
+                changed = true;
+            }
+
+            tuning.threads = Integer.parseInt(threads);
+        }
+
+        if(tuning.slices == 0) {
+            tuning.slices = getSlices(tuning.threads, tasks);
+        }
+
+        if(changed && profile != null) {
+            try(Writer writer = Files.newBufferedWriter(profile)) {
+                properties.store(writer, "Bombe tuning, delete to run the trials again");
+            }
+        }
+
+        return tuning;
+    }
+
+    /**
+     * Forgets every decision, so the next jobs run their trials again
+     * @throws IOException If the profile couldn't be deleted
+     */
+    public void clear() throws IOException {
+        properties.clear();
+
+        if(profile != null) {
+            Files.deleteIfExists(profile);
+        }
+    }
+
+    /**
+     * @param threads How many threads the farm runs
+     * @param tasks How many walzenlagen the farm runs
+     * @return how many tasks to split every walzenlage into so each thread gets a few
+     */
+    public static int getSlices(int threads, int tasks) {
+        int slices = (TASKS_PER_THREAD * threads + tasks - 1) / Math.max(tasks, 1);
+        return Math.max(1, Math.min(26, slices));
+    }
+
+    /**
+     * @return what the decisions of this host depend on, its cores, architecture, OS, and JVM
+     */
+    public static String getHostKey() {
+        String key = Runtime.getRuntime().availableProcessors() + "-" + System.getProperty("os.arch") + "-" +
+                System.getProperty("os.name") + "-" + System.getProperty("java.vm.version");
+
+        return key.replaceAll("[^A-Za-z0-9_.+-]", "_");
+    }
+
+    /**
+     * Menus with as many loops are assumed to favor the same engine, and without the checking machine or any
+     * loop the engines do the same work anyway
+     */
+    private static String getMenuShape(Bombe bombe, boolean check) {
+        return check && bombe.getLoops() > 0 ? "loops" + Math.min(bombe.getLoops(), 8) : "noloops";
+    }
+
+    private static Bombe.Engine chooseEngine(String cipherText, String crib, boolean check) {
+        Bombe.Engine best = Bombe.Engine.LOOPS;
+        long bestNanos = Long.MAX_VALUE;
+
+        for(Bombe.Engine engine : Bombe.Engine.values()) {
+            Bombe bombe = new Bombe(BombeFarm.createEnigma(new int[]{5, 0, 1, 2}), cipherText, crib, check);
+            bombe.setEngine(engine);
+
+            bombe.run(0, TRIAL_POSITIONS);
+
+            long nanos = Long.MAX_VALUE;
+            for(int i = 0; i < 3; i++) {
+                long start = System.nanoTime();
+                bombe.run(TRIAL_POSITIONS, 2 * TRIAL_POSITIONS);
+                nanos = Math.min(nanos, System.nanoTime() - start);
+            }
+
+            if(nanos < bestNanos) {
+                best = engine;
+                bestNanos = nanos;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Times the same amount of work per thread with 1, as many as there are cores, and twice as many threads,
+     * and keeps the one with the best throughput. A thread count has to beat a smaller one by 10% to be picked,
+     * more threads than are needed only cost memory and scheduling.
+     */
+    private static int chooseThreads(String cipherText, String crib, boolean check, Bombe.Engine engine) {
+        int cores = Runtime.getRuntime().availableProcessors();
+
+        int best = 0;
+        double bestThroughput = 0;
+
+        for(int threads : new int[]{1, cores, 2 * cores}) {
+            if(threads <= best) {
+                continue;
+            }
+
+            double throughput = getThroughput(cipherText, crib, check, engine, threads);
+            if(best == 0 || throughput > 1.1 * bestThroughput) {
+                best = threads;
+                bestThroughput = throughput;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * @return positions tested per second with the given number of threads, each testing its own walzenlage
+     */
+    private static double getThroughput(String cipherText, String crib, boolean check, Bombe.Engine engine, int threads) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+        try {
+            ArrayList<int[]> walzenlagen = BombeFarm.getWalzenlagen();
+            ArrayList<Callable<Void>> trials = new ArrayList<>();
+
+            for(int i = 0; i < threads; i++) {
+                int[] walzenlage = walzenlagen.get(i % walzenlagen.size());
+
+                trials.add(() -> {
+                    Bombe bombe = new Bombe(BombeFarm.createEnigma(walzenlage), cipherText, crib, check);
+                    bombe.setEngine(engine);
+                    bombe.run(0, TRIAL_POSITIONS);
+                    return null;
+                });
+            }
+
+            // Warm up, then time
+            executor.invokeAll(trials);
+
+            long start = System.nanoTime();
+            for(Future<Void> future : executor.invokeAll(trials)) {
+                future.get();
+            }
+
+            return (double) threads * TRIAL_POSITIONS / (System.nanoTime() - start) * 1e9;
+        } catch(InterruptedException | ExecutionException e) {
+            throw new IllegalStateException("Tuning trial failed", e);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
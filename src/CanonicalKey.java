@@ -0,0 +1,238 @@
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.function.LongConsumer;
+
+/**
+ * Collapses Enigma settings that encipher the same way into one representative, working on packed
+ * {@link MachineState}s.
+ *
+ * Only rotation - ring offset decides how a rotor's wiring sits (see {@link Rotor#encode(int, boolean)}), call
+ * it the rotor's core position. The ring on its own only moves where the rotor turns over its neighbor, and
+ * the notch is fixed to the ring's letters. So:
+ * - The left rotor never turns anything over, and the greek rotor of an M4 never moves at all, so their rings
+ *   never matter, only their core positions do.
+ * - The middle and right rotors' rings only matter through when the middle and left rotors step. On a message
+ *   of some length, two settings encipher alike as long as their core positions agree and the middle and left
+ *   rotors first step on the same key presses, or don't step within the message at all.
+ *
+ * A key class is therefore the core positions plus the key press the middle rotor first steps on and the key
+ * press the left rotor first steps on, each 0 when it's past the end of the message. Without a length there
+ * are 26^5 classes per walzenlage rather than 26^6 settings. On a 20 letter message there are only 26^3 * 61.
+ * The representative has the left and greek rings at 'a', and the middle and right rings chosen to step at
+ * those key presses.
+ *
+ * Bombe stops are already in this form: a Bombe ignores the rings and reports the core positions as the
+ * rotations, see {@link BombeEnigma}.
+ */
+public final class CanonicalKey {
+
+    // For keys that hold for a message of any length
+    public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+    private CanonicalKey() {}
+
+    /**
+     * @param state A packed state
+     * @param length How many letters the state enciphers, or {@link CanonicalKey#UNBOUNDED}
+     * @return the representative of the state's key class, equal for every state that enciphers any message
+     * of that length the same way
+     */
+    public static long canonicalize(long state, int length) {
+        int middleStep = getMiddleStep(state, length);
+        int leftStep = getLeftStep(state, length);
+
+        return withSchedule(state, middleStep, leftStep);
+    }
+
+    /**
+     * Turns a Bombe stop into a state. The stop's rotations are core positions, so with the rings at 'a' this is
+     * already the representative of its class for messages of any length. The Bombe assumes the middle rotor
+     * doesn't step during the crib though, so the true key may be any of {@link CanonicalKey#getRingClasses(long, int)}.
+     * @param walzenlage The walzenlage the stop was found with, see {@link BombeFarm#createEnigma(int[])}
+     * @param stop The stop, as returned by {@link Bombe#run()}
+     * @return the stop's state, with the rings at 'a'
+     */
+    public static long fromStop(int[] walzenlage, String[] stop) {
+        return getCorePositions(walzenlage, stop[0]);
+    }
+
+    /**
+     * Enumerates the key classes a state's core positions belong to, every way the ring settings can make the
+     * middle and left rotors step within the message. This is what's left to search once a Bombe stop has
+     * given the core positions.
+     * @param state A packed state, only its mappings and core positions are used
+     * @param length The length of the message
+     * @return one representative per key class
+     */
+    public static long[] getRingClasses(long state, int length) {
+        ArrayList<int[]> schedules = getSchedules(state, length);
+        long[] classes = new long[schedules.size()];
+
+        for(int i = 0; i < classes.length; i++) {
+            classes[i] = withSchedule(state, schedules.get(i)[0], schedules.get(i)[1]);
+        }
+
+        return classes;
+    }
+
+    /**
+     * Enumerates every key class of a walzenlage, one representative each
+     * @param walzenlage A packed state, only its mappings are used
+     * @param length The length of the message
+     * @param consumer Called with each representative
+     */
+    public static void forEach(long walzenlage, int length, LongConsumer consumer) {
+        ArrayList<int[]> schedules = getSchedules(walzenlage, length);
+        int greeks = MachineState.isFourRotor(walzenlage) ? 26 : 1;
+
+        for(int position = 0; position < greeks * Bombe.POSITIONS; position++) {
+            long state = withCorePositions(walzenlage, position / Bombe.POSITIONS, position / 676 % 26, position / 26 % 26, position % 26);
+
+            for(int[] schedule : schedules) {
+                consumer.accept(withSchedule(state, schedule[0], schedule[1]));
+            }
+        }
+    }
+
+    /**
+     * @param walzenlage A packed state, only its mappings are used
+     * @param length The length of the message
+     * @return how many key classes the walzenlage has for messages of that length
+     */
+    public static long count(long walzenlage, int length) {
+        return (MachineState.isFourRotor(walzenlage) ? 26L : 1L) * Bombe.POSITIONS * getSchedules(walzenlage, length).size();
+    }
+
+    /**
+     * @param state A packed state
+     * @param slot One of RIGHT, MIDDLE, LEFT, or GREEK
+     * @return the rotor's core position, rotation - ring offset
+     */
+    public static int getCorePosition(long state, int slot) {
+        return (26 + MachineState.getRotation(state, slot) - MachineState.getRing(state, slot)) % 26;
+    }
+
+    /**
+     * @param state A packed state
+     * @param length The length of the message
+     * @return the key press the middle rotor first steps on, counting from 1, or 0 if not within the message
+     */
+    public static int getMiddleStep(long state, int length) {
+        int notch = getNotch(state, MachineState.RIGHT);
+        if(notch < 0) {
+            return 0;
+        }
+
+        int press = (26 + notch - MachineState.getRotation(state, MachineState.RIGHT)) % 26 + 1;
+        return press <= length ? press : 0;
+    }
+
+    /**
+     * @param state A packed state
+     * @param length The length of the message
+     * @return the key press the left rotor first steps on, counting from 1, or 0 if not within the message
+     */
+    public static int getLeftStep(long state, int length) {
+        int notch = getNotch(state, MachineState.MIDDLE);
+        if(notch < 0) {
+            return 0;
+        }
+
+        // The middle rotor needs to reach its notch, it then steps again along with the left rotor
+        int distance = (26 + notch - MachineState.getRotation(state, MachineState.MIDDLE)) % 26;
+        if(distance == 0) {
+            return length >= 1 ? 1 : 0;
+        }
+
+        int middleStep = getMiddleStep(state, UNBOUNDED);
+        if(middleStep == 0) {
+            return 0;
+        }
+
+        long press = middleStep + 26L * (distance - 1) + 1;
+        return press <= length ? (int) press : 0;
+    }
+
+    private static long getCorePositions(int[] walzenlage, String indicator) {
+        Rotor.Mapping[] mappings = new Rotor.Mapping[5];
+        for(int i = 0; i < walzenlage.length; i++) {
+            mappings[5 - walzenlage.length + i] = Rotor.Mapping.getMapping(walzenlage[i]);
+        }
+
+        long state = MachineState.create(mappings[0] != null ? mappings[0] : mappings[1],
+                mappings[0] != null ? mappings[1] : null, mappings[2], mappings[3], mappings[4]);
+
+        int i = indicator.length() - 3;
+        return withCorePositions(state, walzenlage.length == 5 ? Utils.a2i(indicator.charAt(0)) : 0,
+                Utils.a2i(indicator.charAt(i)), Utils.a2i(indicator.charAt(i + 1)), Utils.a2i(indicator.charAt(i + 2)));
+    }
+
+    private static long withCorePositions(long state, int greek, int left, int middle, int right) {
+        int[] cores = {right, middle, left, greek};
+
+        for(int slot = MachineState.RIGHT; slot <= (MachineState.isFourRotor(state) ? MachineState.GREEK : MachineState.LEFT); slot++) {
+            state = MachineState.withRing(state, slot, 0);
+            state = MachineState.withRotation(state, slot, cores[slot]);
+        }
+
+        return state;
+    }
+
+    /**
+     * Picks the representative rings and rotations, keeping the core positions
+     */
+    private static long withSchedule(long state, int middleStep, int leftStep) {
+        int[] cores = new int[4];
+        for(int slot = MachineState.RIGHT; slot <= MachineState.GREEK; slot++) {
+            cores[slot] = getCorePosition(state, slot);
+        }
+
+        state = withCorePositions(state, cores[MachineState.GREEK], cores[MachineState.LEFT], cores[MachineState.MIDDLE], cores[MachineState.RIGHT]);
+
+        // Not stepping within the message is represented by stepping as late as possible
+        int rightNotch = getNotch(state, MachineState.RIGHT);
+        int press = middleStep != 0 ? middleStep : 26;
+        if(rightNotch >= 0) {
+            state = withSetting(state, MachineState.RIGHT, (26 + rightNotch - (press - 1)) % 26, cores[MachineState.RIGHT]);
+        }
+
+        int middleNotch = getNotch(state, MachineState.MIDDLE);
+        int distance = leftStep == 0 ? 25 : leftStep == 1 ? 0 : (leftStep - 1 - press) / 26 + 1;
+        if(middleNotch >= 0) {
+            state = withSetting(state, MachineState.MIDDLE, (26 + middleNotch - distance) % 26, cores[MachineState.MIDDLE]);
+        }
+
+        return state;
+    }
+
+    private static long withSetting(long state, int slot, int rotation, int core) {
+        state = MachineState.withRotation(state, slot, rotation);
+        return MachineState.withRing(state, slot, (26 + rotation - core) % 26);
+    }
+
+    /**
+     * @return every distinct pair of middle and left step, see {@link CanonicalKey#getMiddleStep(long, int)}
+     */
+    private static ArrayList<int[]> getSchedules(long state, int length) {
+        LinkedHashSet<Long> schedules = new LinkedHashSet<>();
+
+        for(int right = 0; right < 26; right++) {
+            for(int middle = 0; middle < 26; middle++) {
+                long setting = MachineState.withRotation(MachineState.withRotation(state, MachineState.RIGHT, right), MachineState.MIDDLE, middle);
+                schedules.add(((long) getMiddleStep(setting, length) << 32) | getLeftStep(setting, length));
+            }
+        }
+
+        ArrayList<int[]> result = new ArrayList<>();
+        for(long schedule : schedules) {
+            result.add(new int[]{(int) (schedule >>> 32), (int) schedule});
+        }
+
+        return result;
+    }
+
+    private static int getNotch(long state, int slot) {
+        char turnOver = MachineState.getMapping(state, slot).getTurnOver();
+        return turnOver == 0 ? -1 : Utils.a2i(turnOver);
+    }
+}
@@ -0,0 +1,257 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Finds everywhere a dictionary of cribs can sit in a corpus of cipher texts. An Enigma never enciphers a
+ * letter as itself, so a crib can't be placed where any of its letters lines up with the same cipher text letter.
+ *
+ * Each cipher text is indexed as 26 bitsets, one per letter, holding the positions the letter appears at. Shifting
+ * the bitset of a crib's i-th letter back by i marks every offset where that letter would land on itself, so OR-ing
+ * those together for the whole crib gives every illegal offset of the crib at once, 64 offsets to a word.
+ *
+ * The legal placements are ranked by how many loops their menu has, since loops are what let the {@link Bombe}
+ * reject wrong positions, and can be turned straight into {@link BatchJob}s for a {@link BatchRunner}.
+ */
+public class CribScanner {
+
+    /**
+     * A crib at a legal offset in a message
+     */
+    public static class Placement {
+        public final int message;
+        public final String crib;
+        public final int offset;
+
+        // Loops in the subgraph of the menu the Bombe would wire up
+        public final int loops;
+
+        private Placement(int message, String crib, int offset, int loops) {
+            this.message = message;
+            this.crib = crib;
+            this.offset = offset;
+            this.loops = loops;
+        }
+    }
+
+    private final ArrayList<String> names, cipherTexts;
+
+    // letters[message][letter] is a bitset of the positions the letter appears at in the message
+    private final long[][][] letters;
+
+    /**
+     * @param names A name for each message, for example its serial number
+     * @param cipherTexts The cipher texts
+     */
+    public CribScanner(List<String> names, List<String> cipherTexts) {
+        this.names = new ArrayList<>(names);
+        this.cipherTexts = new ArrayList<>();
+        this.letters = new long[cipherTexts.size()][26][];
+
+        for(int i = 0; i < cipherTexts.size(); i++) {
+            String cipherText = cipherTexts.get(i).toLowerCase().replace(" ", "");
+            if(!cipherText.matches("[a-z]*")) {
+                throw new IllegalArgumentException("Cipher texts must only hold letters: " + cipherText);
+            }
+
+            this.cipherTexts.add(cipherText);
+
+            for(int letter = 0; letter < 26; letter++) {
+                letters[i][letter] = new long[(cipherText.length() + 63) / 64];
+            }
+
+            for(int j = 0; j < cipherText.length(); j++) {
+                letters[i][Utils.a2i(cipherText.charAt(j))][j / 64] |= 1L << j;
+            }
+        }
+    }
+
+    /**
+     * Reads a corpus in the same format as {@link DepthFinder#read(BufferedReader)}
+     * @param in The corpus
+     * @return a scanner over the corpus
+     * @throws IOException If reading fails
+     */
+    public static CribScanner read(BufferedReader in) throws IOException {
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<String> cipherTexts = new ArrayList<>();
+
+        String line;
+        int number = 0;
+        while((line = in.readLine()) != null) {
+            number++;
+            line = line.trim();
+
+            if(line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] tokens = line.split("\\s+", 2);
+            names.add(tokens.length == 2 ? tokens[0] : String.valueOf(number));
+            cipherTexts.add(tokens[tokens.length - 1]);
+        }
+
+        return new CribScanner(names, cipherTexts);
+    }
+
+    /**
+     * Finds every offset a crib may legally sit at in a message
+     * @param message The message's index
+     * @param crib The crib, in lower case
+     * @return a bitset of the legal offsets
+     */
+    public long[] getLegalOffsets(int message, String crib) {
+        int length = cipherTexts.get(message).length();
+        int offsets = length - crib.length() + 1;
+
+        if(offsets <= 0) {
+            return new long[0];
+        }
+
+        long[] illegal = new long[(offsets + 63) / 64];
+
+        for(int i = 0; i < crib.length(); i++) {
+            long[] positions = letters[message][Utils.a2i(crib.charAt(i))];
+            int words = i / 64;
+            int bits = i % 64;
+
+            // Bit o of the shifted bitset is set when the cipher text holds this letter at o + i
+            for(int w = 0; w < illegal.length && w + words < positions.length; w++) {
+                long shifted = positions[w + words] >>> bits;
+                if(bits != 0 && w + words + 1 < positions.length) {
+                    shifted |= positions[w + words + 1] << (64 - bits);
+                }
+
+                illegal[w] |= shifted;
+            }
+        }
+
+        long[] legal = new long[illegal.length];
+        for(int w = 0; w < legal.length; w++) {
+            legal[w] = ~illegal[w];
+        }
+
+        // Offsets past the end of the cipher text don't exist
+        if(offsets % 64 != 0) {
+            legal[legal.length - 1] &= (1L << (offsets % 64)) - 1;
+        }
+
+        return legal;
+    }
+
+    /**
+     * Counts the loops of a menu the same way {@link Bombe}'s menu does, in the subgraph with the most loops.
+     * A connected subgraph has one loop for every edge beyond those needed to connect its letters, a letter pair
+     * that repeats at another offset included.
+     * @param cipherText The cipher text, in lower case
+     * @param crib The crib, in lower case, which must line up with the cipher text, each letter at its own offset
+     * @return the number of loops
+     */
+    public static int countLoops(String cipherText, String crib) {
+        int[] parent = new int[26];
+        int[] loops = new int[26];
+
+        for(int i = 0; i < 26; i++) {
+            parent[i] = i;
+        }
+
+        int most = 0;
+        for(int i = 0; i < crib.length(); i++) {
+            int a = Utils.a2i(cipherText.charAt(i));
+            int b = Utils.a2i(crib.charAt(i));
+
+            int rootA = find(parent, a);
+            int rootB = find(parent, b);
+
+            if(rootA == rootB) {
+                loops[rootA]++;
+            } else {
+                parent[rootB] = rootA;
+                loops[rootA] += loops[rootB];
+            }
+
+            most = Math.max(most, loops[rootA]);
+        }
+
+        return most;
+    }
+
+    private static int find(int[] parent, int i) {
+        while(parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+
+        return i;
+    }
+
+    /**
+     * Places every crib at every legal offset of every message, the messages are scanned in parallel
+     * @param cribs The cribs
+     * @param minLoops The fewest loops a placement's menu must have to be kept
+     * @return the placements, most loops first, then longest crib first
+     */
+    public ArrayList<Placement> scan(List<String> cribs, int minLoops) {
+        ConcurrentLinkedQueue<Placement> placements = new ConcurrentLinkedQueue<>();
+
+        IntStream.range(0, cipherTexts.size()).parallel().forEach(message -> {
+            String cipherText = cipherTexts.get(message);
+
+            for(String crib : cribs) {
+                long[] legal = getLegalOffsets(message, crib);
+
+                for(int w = 0; w < legal.length; w++) {
+                    long bits = legal[w];
+
+                    while(bits != 0) {
+                        int offset = 64 * w + Long.numberOfTrailingZeros(bits);
+                        bits &= bits - 1;
+
+                        int loops = countLoops(cipherText.substring(offset, offset + crib.length()), crib);
+                        if(loops >= minLoops) {
+                            placements.add(new Placement(message, crib, offset, loops));
+                        }
+                    }
+                }
+            }
+        });
+
+        ArrayList<Placement> sorted = new ArrayList<>(placements);
+        sorted.sort(Comparator.comparingInt((Placement placement) -> -placement.loops)
+                .thenComparingInt(placement -> -placement.crib.length())
+                .thenComparingInt(placement -> placement.message)
+                .thenComparingInt(placement -> placement.offset));
+
+        return sorted;
+    }
+
+    /**
+     * Turns a placement into a job for the {@link BatchRunner}, the part of the cipher text under the crib against the crib,
+     * so its result names the message and the offset the crib sits at
+     * @param id The job's id
+     * @param placement The placement
+     * @param walzenlagen The walzenlagen to run, see {@link BombeFarm#getWalzenlagen()}
+     * @return the job
+     */
+    public BatchJob toJob(int id, Placement placement, ArrayList<int[]> walzenlagen) {
+        String cipherText = cipherTexts.get(placement.message).substring(placement.offset, placement.offset + placement.crib.length());
+        return new BatchJob(id, names.get(placement.message), placement.offset, cipherText, placement.crib, walzenlagen);
+    }
+
+    /**
+     * @param message A message's index
+     * @return the message's name
+     */
+    public String getName(int message) {
+        return names.get(message);
+    }
+
+    /**
+     * @return how many messages are in the corpus
+     */
+    public int size() {
+        return cipherTexts.size();
+    }
+}
@@ -0,0 +1,144 @@
+/**
+ * One day's entry on a key sheet: the walzenlage, ring settings, steckers, and the ground setting
+ * (Grundstellung) every operator set their rotors to before enciphering their message key.
+ *
+ * Entries are read one per line in the format
+ * [day] [walzenlage] [rings] [ground] [steckers...]
+ * for example "17 C:IV,V,I qdf xwb AB CE FG HL", see {@link BatchJob#parseWalzenlage(String)} for the walzenlage.
+ *
+ * Since every message of the day only differs in where its rotors start, the permutation of every rotor
+ * position, plug board included, is computed once into a table the size of a Bombe's search, 17576 positions
+ * of 26 letters. Deciphering a letter is then a step of the rotors and a single lookup.
+ */
+public class DayKey {
+
+    public final String day;
+
+    // The day's walzenlage and rings, with the rotations at the ground setting
+    private final long ground;
+    private final byte[] plugBoard;
+
+    // Entry 26 * (676 * left + 26 * middle + right) + letter is the letter enciphered at those rotations
+    private byte[] table;
+
+    public DayKey(String day, int[] walzenlage, String rings, String ground, PlugBoard board) {
+        if(rings.length() != 3 || ground.length() != 3) {
+            throw new IllegalArgumentException("Rings and ground setting must be three letters each.");
+        }
+
+        this.day = day;
+        this.plugBoard = MachineState.createPlugBoard(board);
+
+        long state = MachineState.create(Rotor.Mapping.getMapping(walzenlage[0]), null,
+                Rotor.Mapping.getMapping(walzenlage[1]), Rotor.Mapping.getMapping(walzenlage[2]), Rotor.Mapping.getMapping(walzenlage[3]));
+
+        int[] slots = {MachineState.LEFT, MachineState.MIDDLE, MachineState.RIGHT};
+        for(int i = 0; i < 3; i++) {
+            state = MachineState.withRing(state, slots[i], Utils.a2i(Character.toLowerCase(rings.charAt(i))));
+        }
+
+        this.ground = withRotations(state, ground.toLowerCase());
+    }
+
+    /**
+     * Parses a day's entry from a line of a key sheet
+     * @param line The line, such as "17 C:IV,V,I qdf xwb AB CE FG HL"
+     * @return The parsed day key
+     */
+    public static DayKey parse(String line) {
+        String[] tokens = line.trim().split("\\s+", 5);
+
+        if(tokens.length < 4) {
+            throw new IllegalArgumentException("A day key needs a day, a walzenlage, rings and a ground setting.");
+        }
+
+        return new DayKey(tokens[0], BatchJob.parseWalzenlage(tokens[1]), tokens[2], tokens[3],
+                tokens.length > 4 ? new PlugBoard(tokens[4]) : new PlugBoard());
+    }
+
+    private static long withRotations(long state, String rotations) {
+        state = MachineState.withRotation(state, MachineState.LEFT, Utils.a2i(rotations.charAt(0)));
+        state = MachineState.withRotation(state, MachineState.MIDDLE, Utils.a2i(rotations.charAt(1)));
+        return MachineState.withRotation(state, MachineState.RIGHT, Utils.a2i(rotations.charAt(2)));
+    }
+
+    /**
+     * Recovers a message key by deciphering its indicator at the ground setting. Until May 1940 the key was
+     * enciphered twice, so a six letter indicator must decipher to the same three letters twice.
+     * @param indicator The three or six letter indicator
+     * @return the message key, the rotations the message was enciphered from
+     */
+    public String getMessageKey(String indicator) {
+        if(indicator.length() != 3 && indicator.length() != 6) {
+            throw new IllegalArgumentException("Indicators must be three or six letters: " + indicator);
+        }
+
+        String key = MachineState.encode(ground, plugBoard, indicator).toLowerCase();
+
+        if(key.length() == 6 && !key.substring(0, 3).equals(key.substring(3))) {
+            throw new IllegalArgumentException("Indicator " + indicator + " deciphers to " + key + ", which doesn't repeat");
+        }
+
+        return key.substring(0, 3);
+    }
+
+    /**
+     * @return the permutation table of every rotor position, built the first time it is needed
+     */
+    private synchronized byte[] getTable() {
+        if(table == null) {
+            byte[] table = new byte[Bombe.POSITIONS * 26];
+
+            for(int position = 0; position < Bombe.POSITIONS; position++) {
+                long state = withRotations(ground, "" + Utils.i2a(position / 676) + Utils.i2a(position / 26 % 26) + Utils.i2a(position % 26));
+
+                for(int letter = 0; letter < 26; letter++) {
+                    table[26 * position + letter] = (byte) MachineState.encode(state, plugBoard, letter);
+                }
+            }
+
+            this.table = table;
+        }
+
+        return table;
+    }
+
+    /**
+     * Deciphers (or enciphers) a message, like an Enigma set to this day key and the message key would.
+     * Anything other than a letter, such as the spaces between groups, is passed through.
+     * @param messageKey The rotations to start from
+     * @param text The message
+     * @return the deciphered message, in lower case
+     */
+    public String decrypt(String messageKey, String text) {
+        byte[] table = getTable();
+        long start = withRotations(ground, messageKey.toLowerCase());
+        long state = start;
+
+        char[] letters = text.toLowerCase().toCharArray();
+        for(int i = 0; i < letters.length; i++) {
+            if(letters[i] >= 'a' && letters[i] <= 'z') {
+                state = MachineState.step(state);
+
+                int position = 676 * MachineState.getRotation(state, MachineState.LEFT)
+                        + 26 * MachineState.getRotation(state, MachineState.MIDDLE)
+                        + MachineState.getRotation(state, MachineState.RIGHT);
+
+                letters[i] = (char) ('a' + table[26 * position + letters[i] - 'a']);
+            }
+        }
+
+        String decrypted = new String(letters);
+
+        if(ReferenceEngine.sample()) {
+            ReferenceEngine.checkEncode("DayKey " + day, start, plugBoard, text, decrypted);
+        }
+
+        return decrypted;
+    }
+
+    @Override
+    public String toString() {
+        return day + ": " + MachineState.toString(ground);
+    }
+}
@@ -0,0 +1,318 @@
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.*;
+
+/**
+ * Cracks several cribbed messages of the same day together. They were all enciphered with the same walzenlage
+ * and plug board, only their rotor start differs, so a walzenlage is only possible if every message has a stop
+ * whose plug board deductions agree with one stop of each other message.
+ *
+ * Every walzenlage runs one task that runs a {@link Bombe} for each message, giving up on the walzenlage as soon as
+ * one message has no stops, and then intersects the stops starting from the message with the fewest, which keeps the
+ * number of combinations to compare down. Stops are kept as primitive records: the
+ * rotor position and 26 bytes holding each letter's deduced stecker partner, or -1 if it wasn't deduced. To find the
+ * stops of the next message that agree with a candidate, the stops are indexed by each stecker pair they deduce,
+ * 676 buckets in all, and only the stops sharing a deduced pair with the candidate are compared with it. A stop that
+ * deduces some of the candidate's letters but none of its pairs contradicts it. A stop that deduces none of the
+ * candidate's letters can't contradict it, which a bit mask of each stop's deduced letters finds, since a Bombe only
+ * keeps part of each menu and two cribs sharing a letter needn't share a deduced one.
+ */
+public class DayKeySolver implements Closeable {
+
+    // How many combinations of stops a walzenlage may keep, beyond this its cribs are too weak to tell anything
+    private static final int MAX_CANDIDATES = 10_000;
+
+    /**
+     * A walzenlage whose stops agree across every message
+     */
+    public static class Solution {
+        public final int[] walzenlage;
+
+        // The rotor rotations of each message's stop, in the order the messages were given, or null if ambiguous
+        public final String[] indicators;
+
+        // The plug board deductions of every message together, or null if ambiguous
+        public final String steckers;
+
+        // Whether the stops agreed in too many ways to list, the cribs being too weak to rule the walzenlage out
+        public final boolean ambiguous;
+
+        private Solution(int[] walzenlage, String[] indicators, String steckers) {
+            this.walzenlage = walzenlage;
+            this.indicators = indicators;
+            this.steckers = steckers;
+            this.ambiguous = indicators == null;
+        }
+
+        @Override
+        public String toString() {
+            if(ambiguous) {
+                return BombeFarm.getConfiguration(walzenlage) + ": more than " + MAX_CANDIDATES + " combinations of stops agree";
+            }
+
+            return BombeFarm.getConfiguration(walzenlage) + ": " + String.join(" ", indicators) + ", steckers " + steckers;
+        }
+    }
+
+    /**
+     * The stops of one message for one walzenlage
+     */
+    private static class Stops {
+        private final int[] positions;
+
+        // 26 entries per stop, the stecker partner of each letter or -1
+        private final byte[] steckers;
+
+        // bucketStops[bucketStarts[26 * a + b] ... bucketStarts[26 * a + b + 1]] are the stops deducing a-b, a <= b
+        private final int[] bucketStarts = new int[26 * 26 + 1];
+        private final int[] bucketStops;
+
+        // Bit a of an entry is set if the stop deduces letter a's partner
+        private final int[] letters;
+
+        private Stops(ArrayList<String[]> stops) {
+            this.positions = new int[stops.size()];
+            this.steckers = new byte[26 * stops.size()];
+            Arrays.fill(steckers, (byte) -1);
+
+            this.letters = new int[stops.size()];
+
+            int pairs = 0;
+            for(int i = 0; i < stops.size(); i++) {
+                String indicator = stops.get(i)[0];
+                positions[i] = 676 * Utils.a2i(indicator.charAt(0)) + 26 * Utils.a2i(indicator.charAt(1)) + Utils.a2i(indicator.charAt(2));
+
+                String[] tokens = stops.get(i)[1].trim().split("\\s+");
+                for(String token : tokens) {
+                    if(token.length() == 2) {
+                        // A plug board lists its pairs either way round, a bucket holds them lowest letter first
+                        int a = Math.min(Utils.a2i(token.charAt(0)), Utils.a2i(token.charAt(1)));
+                        int b = Math.max(Utils.a2i(token.charAt(0)), Utils.a2i(token.charAt(1)));
+                        steckers[26 * i + a] = (byte) b;
+                        steckers[26 * i + b] = (byte) a;
+                        letters[i] |= (1 << a) | (1 << b);
+                        bucketStarts[26 * a + b + 1]++;
+                        pairs++;
+                    }
+                }
+            }
+
+            for(int i = 0; i < 26 * 26; i++) {
+                bucketStarts[i + 1] += bucketStarts[i];
+            }
+
+            this.bucketStops = new int[pairs];
+
+            int[] next = Arrays.copyOf(bucketStarts, 26 * 26);
+            for(int i = 0; i < positions.length; i++) {
+                for(int a = 0; a < 26; a++) {
+                    int b = steckers[26 * i + a];
+                    if(b >= a) {
+                        bucketStops[next[26 * a + b]++] = i;
+                    }
+                }
+            }
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+
+    public DayKeySolver(int threads) {
+        this.executor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+    }
+
+    /**
+     * Cracks the messages together over every walzenlage
+     * @param cipherTexts The cipher texts, one per message
+     * @param cribs The cribs, one per message, each the same length as its cipher text
+     * @return the walzenlagen whose stops agree across every message, each with every combination of stops that agrees
+     * @throws InterruptedException If interrupted while waiting for the Bombes
+     */
+    public ArrayList<Solution> solve(String[] cipherTexts, String[] cribs) throws InterruptedException {
+        return solve(cipherTexts, cribs, BombeFarm.getWalzenlagen());
+    }
+
+    /**
+     * Cracks the messages together over some walzenlagen
+     * @param cipherTexts The cipher texts, one per message
+     * @param cribs The cribs, one per message, each the same length as its cipher text
+     * @param walzenlagen The walzenlagen to try, see {@link BombeFarm#getWalzenlagen()}
+     * @return the walzenlagen whose stops agree across every message, each with every combination of stops that agrees
+     * @throws InterruptedException If interrupted while waiting for the Bombes
+     */
+    public ArrayList<Solution> solve(String[] cipherTexts, String[] cribs, ArrayList<int[]> walzenlagen) throws InterruptedException {
+        if(cipherTexts.length != cribs.length || cipherTexts.length == 0) {
+            throw new IllegalArgumentException("Every message needs a crib.");
+        }
+
+        ArrayList<Future<ArrayList<Solution>>> futures = new ArrayList<>();
+        for(int[] walzenlage : walzenlagen) {
+            futures.add(executor.submit(() -> solve(walzenlage, cipherTexts, cribs)));
+        }
+
+        ArrayList<Solution> solutions = new ArrayList<>();
+        for(Future<ArrayList<Solution>> future : futures) {
+            try {
+                solutions.addAll(future.get());
+            } catch(ExecutionException e) {
+                throw new IllegalStateException("Cracking a walzenlage failed", e.getCause());
+            }
+        }
+
+        return solutions;
+    }
+
+    private ArrayList<Solution> solve(int[] walzenlage, String[] cipherTexts, String[] cribs) {
+        Enigma enigma = BombeFarm.createEnigma(walzenlage);
+
+        // Longer cribs usually leave fewer stops, so they rule out the walzenlage soonest
+        Integer[] order = new Integer[cribs.length];
+        for(int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingInt(i -> -cribs[i].length()));
+
+        Stops[] stops = new Stops[cribs.length];
+        for(int message : order) {
+            stops[message] = new Stops(new Bombe(enigma, cipherTexts[message], cribs[message], true).run());
+
+            if(stops[message].positions.length == 0) {
+                return new ArrayList<>();
+            }
+        }
+
+        Arrays.sort(order, Comparator.comparingInt(i -> stops[i].positions.length));
+
+        // Each candidate is the stop chosen for every message so far, and their deductions together
+        ArrayList<int[]> chosen = new ArrayList<>();
+        ArrayList<byte[]> deductions = new ArrayList<>();
+
+        for(int step = 0; step < order.length; step++) {
+            int message = order[step];
+            Stops next = stops[message];
+
+            ArrayList<int[]> nextChosen = new ArrayList<>();
+            ArrayList<byte[]> nextDeductions = new ArrayList<>();
+
+            if(step == 0) {
+                if(next.positions.length > MAX_CANDIDATES) {
+                    return getAmbiguous(walzenlage);
+                }
+
+                for(int i = 0; i < next.positions.length; i++) {
+                    int[] stopsChosen = new int[cribs.length];
+                    stopsChosen[message] = i;
+                    nextChosen.add(stopsChosen);
+                    nextDeductions.add(Arrays.copyOfRange(next.steckers, 26 * i, 26 * i + 26));
+                }
+            } else {
+                // Marks the stops already compared with the current candidate
+                int[] seen = new int[next.positions.length];
+                int stamp = 0;
+
+                for(int c = 0; c < chosen.size(); c++) {
+                    if(nextChosen.size() >= MAX_CANDIDATES) {
+                        return getAmbiguous(walzenlage);
+                    }
+
+                    byte[] candidate = deductions.get(c);
+                    stamp++;
+
+                    int candidateLetters = 0;
+                    for(int a = 0; a < 26; a++) {
+                        int b = candidate[a];
+                        if(b < a) {
+                            continue;
+                        }
+
+                        candidateLetters |= (1 << a) | (1 << b);
+
+                        for(int k = next.bucketStarts[26 * a + b]; k < next.bucketStarts[26 * a + b + 1]; k++) {
+                            int stop = next.bucketStops[k];
+                            if(seen[stop] != stamp) {
+                                seen[stop] = stamp;
+                                join(chosen.get(c), candidate, next, message, stop, nextChosen, nextDeductions);
+                            }
+                        }
+                    }
+
+                    // Stops deducing none of the candidate's letters agree with it, those without deductions included
+                    for(int stop = 0; stop < next.positions.length; stop++) {
+                        if((next.letters[stop] & candidateLetters) == 0 && seen[stop] != stamp) {
+                            join(chosen.get(c), candidate, next, message, stop, nextChosen, nextDeductions);
+                        }
+                    }
+                }
+            }
+
+            chosen = nextChosen;
+            deductions = nextDeductions;
+
+            if(chosen.isEmpty()) {
+                break;
+            }
+        }
+
+        ArrayList<Solution> solutions = new ArrayList<>();
+        for(int c = 0; c < chosen.size(); c++) {
+            String[] indicators = new String[cribs.length];
+            for(int message = 0; message < cribs.length; message++) {
+                int position = stops[message].positions[chosen.get(c)[message]];
+                indicators[message] = "" + Utils.i2a(position / 676) + Utils.i2a(position / 26 % 26) + Utils.i2a(position % 26);
+            }
+
+            solutions.add(new Solution(walzenlage, indicators, toString(deductions.get(c))));
+        }
+
+        return solutions;
+    }
+
+    private static ArrayList<Solution> getAmbiguous(int[] walzenlage) {
+        ArrayList<Solution> solutions = new ArrayList<>();
+        solutions.add(new Solution(walzenlage, null, null));
+        return solutions;
+    }
+
+    // Adds a stop to a candidate if their deductions agree
+    private static void join(int[] stopsChosen, byte[] candidate, Stops next, int message, int stop,
+                             ArrayList<int[]> nextChosen, ArrayList<byte[]> nextDeductions) {
+        byte[] merged = candidate.clone();
+
+        for(int a = 0; a < 26; a++) {
+            byte b = next.steckers[26 * stop + a];
+
+            if(b >= 0) {
+                if(merged[a] >= 0 && merged[a] != b) {
+                    return;
+                }
+
+                merged[a] = b;
+            }
+        }
+
+        int[] joined = stopsChosen.clone();
+        joined[message] = stop;
+
+        nextChosen.add(joined);
+        nextDeductions.add(merged);
+    }
+
+    private static String toString(byte[] deductions) {
+        StringBuilder builder = new StringBuilder();
+
+        for(int a = 0; a < 26; a++) {
+            if(deductions[a] >= a) {
+                builder.append(Utils.i2a(a)).append(Utils.i2a(deductions[a])).append(' ');
+            }
+        }
+
+        return builder.toString().trim();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
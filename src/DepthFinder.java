@@ -0,0 +1,292 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Finds messages in a corpus that were enciphered "in depth", that is at the same rotor settings, or at
+ * settings a few key presses apart. Such messages repeat letters at the aligned positions about twice as
+ * often as unrelated ones, which is found by counting coincidences for every pair of messages at every
+ * small offset.
+ *
+ * Each cipher text is packed 12 letters to a long, 5 bits a letter, so one XOR compares 12 letters at
+ * once and a letter matched exactly when its 5 bits came out zero. To compare at offsets that aren't a
+ * multiple of 12, every text is also packed starting from each of its first 12 letters. Pairs are
+ * compared in parallel, and pairs in depth are then joined into groups of messages sharing a key.
+ */
+public class DepthFinder {
+
+    private static final int LETTERS_PER_WORD = 12;
+
+    // The lowest bit of each 5 bit letter
+    private static final long LOW_BITS = 0x0842108421084210L >>> 4;
+
+    private static final double REPEAT_DECIBANS = 10 * Math.log10(Banburismus.DEPTH_REPEAT_RATE / Banburismus.RANDOM_REPEAT_RATE);
+    private static final double MISS_DECIBANS = 10 * Math.log10((1 - Banburismus.DEPTH_REPEAT_RATE) / (1 - Banburismus.RANDOM_REPEAT_RATE));
+
+    /**
+     * Two messages found to be in depth
+     */
+    public static class Depth {
+        // The messages, b is enciphered starting offset key presses after a
+        public final int a, b, offset;
+        public final int overlap, repeats;
+
+        // The evidence for depth, in decibans
+        public final double score;
+
+        private Depth(int a, int b, int offset, int overlap, int repeats) {
+            this.a = a;
+            this.b = b;
+            this.offset = offset;
+            this.overlap = overlap;
+            this.repeats = repeats;
+            this.score = repeats * REPEAT_DECIBANS + (overlap - repeats) * MISS_DECIBANS;
+        }
+
+        @Override
+        public String toString() {
+            return a + " and " + b + " at offset " + offset + ": " + repeats + " repeats in " + overlap + " letters, " + String.format("%.1f", score) + " decibans";
+        }
+    }
+
+    private final ArrayList<String> names, cipherTexts;
+
+    // packed[message][shift] is the message packed starting from letter shift
+    private final long[][][] packed;
+
+    /**
+     * @param names A name for each message, for example its serial number
+     * @param cipherTexts The cipher texts
+     */
+    public DepthFinder(List<String> names, List<String> cipherTexts) {
+        this.names = new ArrayList<>(names);
+        this.cipherTexts = new ArrayList<>();
+        this.packed = new long[cipherTexts.size()][LETTERS_PER_WORD][];
+
+        for(int i = 0; i < cipherTexts.size(); i++) {
+            String cipherText = cipherTexts.get(i).toLowerCase().replace(" ", "");
+            if(!cipherText.matches("[a-z]*")) {
+                throw new IllegalArgumentException("Cipher texts must only hold letters: " + cipherText);
+            }
+            this.cipherTexts.add(cipherText);
+
+            for(int shift = 0; shift < LETTERS_PER_WORD; shift++) {
+                packed[i][shift] = pack(cipherText, shift);
+            }
+        }
+    }
+
+    /**
+     * Reads a corpus, one message per line as "[name] [cipher text]" or just "[cipher text]", in which case the
+     * line number is its name. Blank lines and lines starting with # are skipped.
+     * @param in The corpus
+     * @return a depth finder over the corpus
+     * @throws IOException If reading fails
+     */
+    public static DepthFinder read(BufferedReader in) throws IOException {
+        ArrayList<String> names = new ArrayList<>();
+        ArrayList<String> cipherTexts = new ArrayList<>();
+
+        String line;
+        int number = 0;
+        while((line = in.readLine()) != null) {
+            number++;
+            line = line.trim();
+
+            if(line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] tokens = line.split("\\s+", 2);
+            names.add(tokens.length == 2 ? tokens[0] : String.valueOf(number));
+            cipherTexts.add(tokens[tokens.length - 1]);
+        }
+
+        return new DepthFinder(names, cipherTexts);
+    }
+
+    private static long[] pack(String text, int shift) {
+        int letters = Math.max(text.length() - shift, 0);
+        long[] words = new long[(letters + LETTERS_PER_WORD - 1) / LETTERS_PER_WORD];
+
+        for(int i = 0; i < letters; i++) {
+            words[i / LETTERS_PER_WORD] |= (long) Utils.a2i(text.charAt(shift + i)) << (5 * (i % LETTERS_PER_WORD));
+        }
+
+        return words;
+    }
+
+    /**
+     * Counts the letters of message b that repeat the letter of message a offset letters further on
+     * @param a The message starting earlier
+     * @param b The message starting later
+     * @param offset How many letters into a message b starts
+     * @param overlap How many letters to compare
+     * @return the number of repeats
+     */
+    private int countRepeats(int a, int b, int offset, int overlap) {
+        long[] early = packed[a][offset % LETTERS_PER_WORD];
+        long[] late = packed[b][0];
+        int first = offset / LETTERS_PER_WORD;
+
+        int words = overlap / LETTERS_PER_WORD;
+        int misses = 0;
+
+        for(int i = 0; i < words; i++) {
+            long diff = early[first + i] ^ late[i];
+            misses += Long.bitCount((diff | diff >>> 1 | diff >>> 2 | diff >>> 3 | diff >>> 4) & LOW_BITS);
+        }
+
+        int rest = overlap % LETTERS_PER_WORD;
+        if(rest > 0) {
+            long diff = (early[first + words] ^ late[words]) & ((1L << (5 * rest)) - 1);
+            misses += Long.bitCount((diff | diff >>> 1 | diff >>> 2 | diff >>> 3 | diff >>> 4) & LOW_BITS);
+        }
+
+        return overlap - misses;
+    }
+
+    /**
+     * Compares every pair of messages at every offset up to maxOffset either way
+     * @param maxOffset The largest number of key presses apart two messages may be
+     * @param minOverlap The fewest letters two messages must overlap by to be compared
+     * @param threshold The fewest decibans of evidence to count as depth, 20 decibans means 100 to 1 on
+     * @return the pairs in depth, the best offset of each pair only, strongest first
+     */
+    public ArrayList<Depth> findDepths(int maxOffset, int minOverlap, double threshold) {
+        ConcurrentLinkedQueue<Depth> depths = new ConcurrentLinkedQueue<>();
+
+        IntStream.range(0, cipherTexts.size()).parallel().forEach(i -> {
+            for(int j = i + 1; j < cipherTexts.size(); j++) {
+                Depth best = null;
+
+                for(int offset = -maxOffset; offset <= maxOffset; offset++) {
+                    // Keep the message starting earlier first
+                    int a = offset >= 0 ? i : j;
+                    int b = offset >= 0 ? j : i;
+                    int shift = Math.abs(offset);
+
+                    int overlap = Math.min(cipherTexts.get(a).length() - shift, cipherTexts.get(b).length());
+                    if(overlap < minOverlap) {
+                        continue;
+                    }
+
+                    Depth depth = new Depth(a, b, shift, overlap, countRepeats(a, b, shift, overlap));
+                    if(depth.score >= threshold && (best == null || depth.score > best.score)) {
+                        best = depth;
+                    }
+                }
+
+                if(best != null) {
+                    depths.add(best);
+                }
+            }
+        });
+
+        ArrayList<Depth> sorted = new ArrayList<>(depths);
+        sorted.sort(Comparator.comparingDouble(depth -> -depth.score));
+
+        return sorted;
+    }
+
+    /**
+     * Joins pairs in depth into groups of messages sharing a key. The strongest pairs are joined first, so a
+     * weaker pair between two messages already in one group can't move them.
+     * @param depths The pairs in depth, as from {@link #findDepths(int, int, double)}
+     * @return the groups, largest first, each a list of {message, position} where position is how many key presses
+     *         after the group's first message the message starts
+     */
+    public ArrayList<ArrayList<int[]>> findGroups(List<Depth> depths) {
+        int[] parent = new int[cipherTexts.size()];
+        // Position of each message relative to its parent
+        int[] position = new int[cipherTexts.size()];
+        for(int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+
+        for(Depth depth : depths) {
+            int rootA = find(parent, position, depth.a);
+            int rootB = find(parent, position, depth.b);
+
+            if(rootA != rootB) {
+                parent[rootB] = rootA;
+                position[rootB] = position[depth.a] + depth.offset - position[depth.b];
+            }
+        }
+
+        HashMap<Integer, ArrayList<int[]>> groups = new HashMap<>();
+        for(int i = 0; i < parent.length; i++) {
+            int root = find(parent, position, i);
+            groups.computeIfAbsent(root, k -> new ArrayList<>()).add(new int[]{i, position[i]});
+        }
+
+        ArrayList<ArrayList<int[]>> sorted = new ArrayList<>();
+        for(Map.Entry<Integer, ArrayList<int[]>> entry : groups.entrySet()) {
+            ArrayList<int[]> group = entry.getValue();
+            if(group.size() < 2) {
+                continue;
+            }
+
+            int first = group.stream().mapToInt(member -> member[1]).min().getAsInt();
+            for(int[] member : group) {
+                member[1] -= first;
+            }
+            group.sort(Comparator.comparingInt(member -> member[1]));
+
+            sorted.add(group);
+        }
+        sorted.sort(Comparator.comparingInt(group -> -group.size()));
+
+        return sorted;
+    }
+
+    // Finds the root of a message's group, flattening the path and keeping positions relative to the root
+    private static int find(int[] parent, int[] position, int i) {
+        if(parent[i] == i) {
+            return i;
+        }
+
+        int root = find(parent, position, parent[i]);
+        position[i] += position[parent[i]];
+        parent[i] = root;
+
+        return root;
+    }
+
+    /**
+     * Writes groups for the Bombe or batch decryption, each as a "# group" line followed by one
+     * "[name] [position] [cipher text]" line for each of its messages
+     * @param groups The groups, as from {@link #findGroups(List)}
+     * @param out Where to write them
+     * @throws IOException If writing fails
+     */
+    public void writeGroups(List<ArrayList<int[]>> groups, Writer out) throws IOException {
+        for(int i = 0; i < groups.size(); i++) {
+            out.write("# group " + (i + 1) + ", " + groups.get(i).size() + " messages\n");
+
+            for(int[] member : groups.get(i)) {
+                out.write(names.get(member[0]) + " " + member[1] + " " + cipherTexts.get(member[0]) + "\n");
+            }
+        }
+
+        out.flush();
+    }
+
+    /**
+     * @param message A message's index
+     * @return the message's name
+     */
+    public String getName(int message) {
+        return names.get(message);
+    }
+
+    /**
+     * @return how many messages are in the corpus
+     */
+    public int size() {
+        return cipherTexts.size();
+    }
+}
@@ -14,15 +14,25 @@
  * You'll notice Enigma's fatal flaw happens because of the reflector,
  * and letter than enters it may never come out as itself which
  * is one of the properties that can be exploited while cracking the code.
+ *
+ * The four rotor naval Enigma (M4) is simulated by setting the greek rotor,
+ * which sits between the left rotor and a thin reflector and never rotates.
+ * It is null on a three rotor Enigma.
  */
 public class Enigma {
 
     public Rotor left, middle, right, reflector;
+    public Rotor greek;
     private PlugBoard board;
 
     Enigma(PlugBoard board, Rotor reflector, Rotor left, Rotor middle, Rotor right) {
+        this(board, reflector, null, left, middle, right);
+    }
+
+    Enigma(PlugBoard board, Rotor reflector, Rotor greek, Rotor left, Rotor middle, Rotor right) {
         this.board = board;
         this.reflector = reflector;
+        this.greek = greek;
         this.left = left;
         this.right = right;
         this.middle = middle;
@@ -79,8 +89,14 @@ public class Enigma {
         c = middle.encode(c, true);
         c = left.encode(c, true);
 
-        // Run through the reflector
-        c = reflector.encode(c, true);
+        // Run through the reflector, via the greek rotor on an M4
+        if(greek != null) {
+            c = greek.encode(c, true);
+            c = reflector.encode(c, true);
+            c = greek.encode(c, false);
+        } else {
+            c = reflector.encode(c, true);
+        }
 
         // Run through the rotors backwards
         c = left.encode(c, false);
@@ -116,7 +132,12 @@ public class Enigma {
     }
 
     public void setRotors(Rotor reflector, Rotor left, Rotor middle, Rotor right) {
+        setRotors(reflector, null, left, middle, right);
+    }
+
+    public void setRotors(Rotor reflector, Rotor greek, Rotor left, Rotor middle, Rotor right) {
         this.reflector = reflector;
+        this.greek = greek;
         this.left = left;
         this.middle = middle;
         this.right = right;
@@ -126,22 +147,43 @@ public class Enigma {
         board = new PlugBoard(s);
     }
 
+    public PlugBoard getPlugBoard() {
+        return board;
+    }
+
     public void setRings(int left, int middle, int right) {
         this.left.ringOffset = left;
         this.middle.ringOffset = middle;
         this.right.ringOffset = right;
     }
 
+    public void setRings(int greek, int left, int middle, int right) {
+        this.greek.ringOffset = greek;
+        setRings(left, middle, right);
+    }
+
     public void setRotations(int left, int middle, int right) {
         this.left.setRotationPermanent(left);
         this.middle.setRotationPermanent(middle);
         this.right.setRotationPermanent(right);
     }
 
+    public void setRotations(int greek, int left, int middle, int right) {
+        this.greek.setRotationPermanent(greek);
+        setRotations(left, middle, right);
+    }
+
     /**
      * @return returns a string representing the Bombe's configuration
      */
     public String getConfiguration() {
+        if(greek != null) {
+            return "Rotors=["+reflector.mapping.toString() + ", " + greek.mapping.toString() + ", " + left.mapping.toString()+", " + middle.mapping.toString() + ", " + right.mapping.toString()
+                    +"], Rings=["+Utils.i2a(greek.ringOffset)+", "+Utils.i2a(left.ringOffset)+", "+Utils.i2a(middle.ringOffset)+", "+Utils.i2a(right.ringOffset)+"]"
+                    +", Rotations=["+Utils.i2a(greek.rotation)+", "+Utils.i2a(left.rotation)+", "+Utils.i2a(middle.rotation)+", "+Utils.i2a(right.rotation)+"], Steckerboard: "
+                    +board.toString();
+        }
+
         return "Rotors=["+reflector.mapping.toString() + ", " + left.mapping.toString()+", " + middle.mapping.toString() + ", " + right.mapping.toString()
                 +"], Rings=["+Utils.i2a(left.ringOffset)+", "+Utils.i2a(middle.ringOffset)+", "+Utils.i2a(right.ringOffset)+"]"
                 +", Rotations=["+Utils.i2a(left.rotation)+", "+Utils.i2a(middle.rotation)+", "+Utils.i2a(right.rotation)+"], Steckerboard: "
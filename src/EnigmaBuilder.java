@@ -1,6 +1,7 @@
 public class EnigmaBuilder {
     private PlugBoard board;
     private Rotor reflector;
+    private Rotor greek;
     private Rotor left;
     private Rotor middle;
     private Rotor right;
@@ -15,6 +16,13 @@ public class EnigmaBuilder {
         return this;
     }
 
+    /**
+     * Sets the greek rotor (Beta or Gamma) of a four rotor Enigma, use it with a thin reflector
+     */
+    public EnigmaBuilder setGreek(Rotor.Mapping mapping, char ringPosition, char rotation) {
+        return setGreek(mapping, Utils.a2i(ringPosition), Utils.a2i(rotation));
+    }
+
     public EnigmaBuilder setLeft(Rotor.Mapping mapping, char ringPosition, char rotation) {
         return setLeft(mapping, Utils.a2i(ringPosition), Utils.a2i(rotation));
     }
@@ -27,6 +35,11 @@ public class EnigmaBuilder {
         return setRight(mapping, Utils.a2i(ringPosition), Utils.a2i(rotation));
     }
 
+    public EnigmaBuilder setGreek(Rotor.Mapping mapping, int ringPosition, int rotation) {
+        this.greek = new Rotor(mapping, ringPosition, rotation);
+        return this;
+    }
+
     public EnigmaBuilder setLeft(Rotor.Mapping mapping, int ringPosition, int rotation) {
         this.left = new Rotor(mapping, ringPosition, rotation);
         return this;
@@ -43,6 +56,6 @@ public class EnigmaBuilder {
     }
 
     public Enigma build() {
-        return new Enigma(board, reflector, left, middle, right);
+        return new Enigma(board, reflector, greek, left, middle, right);
     }
 }
\ No newline at end of file
@@ -0,0 +1,236 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.*;
+
+/**
+ * Serves encode and crack requests over HTTP, using the JDK's built in server, so several clients
+ * can use the simulator at once. Every endpoint answers with JSON. There is no authentication and a
+ * crack keeps every core busy, so the server only listens on the loopback interface.
+ *
+ * - GET /encode?message=...&rotors=B,I,II,III&rings=aaa&rotations=aaa&steckers=AB+CD
+ * - GET /crack?cipher=...&crib=...&rotors=B,I,II,III
+ * - GET /farm-crack?cipher=...&crib=...&m4=false
+ *
+ * Rotor, ring, rotation and stecker parameters are optional and default to Main's starting Enigma.
+ * An M4 takes five rotors, e.g. rotors=B-thin,Beta,I,II,III&rings=aaaa&rotations=aaaa
+ *
+ * An Enigma's rotors move as it encodes, so requests never share one. Each request builds its own
+ * machine from its parameters, which only costs a few small objects. The expensive state is shared
+ * instead: the Bombe's scrambler caches (see {@link BombeEnigma}) and one thread pool that every
+ * crack and farm-crack runs on, so concurrent cracks queue up rather than each taking cores of its own.
+ * Requests themselves run on virtual threads when the JVM has them, and on a cached thread pool otherwise.
+ */
+public class EnigmaServer {
+
+    private final HttpServer server;
+    private final ExecutorService requests;
+    private final ThreadPoolExecutor crackPool;
+
+    /**
+     * Creates and starts the server
+     * @param port The port to listen on, 0 picks any free port
+     * @param crackThreads How many threads crack and farm-crack requests share
+     * @throws IOException If the port couldn't be bound
+     */
+    public EnigmaServer(int port, int crackThreads) throws IOException {
+        this.requests = newRequestExecutor();
+        this.crackPool = new ThreadPoolExecutor(crackThreads, crackThreads, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "enigma-server-crack");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.setExecutor(requests);
+
+        this.server.createContext("/encode", exchange -> handle(exchange, this::encode));
+        this.server.createContext("/crack", exchange -> handle(exchange, this::crack));
+        this.server.createContext("/farm-crack", exchange -> handle(exchange, this::farmCrack));
+
+        this.server.start();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8080;
+        EnigmaServer server = new EnigmaServer(port, Runtime.getRuntime().availableProcessors());
+        System.out.println("Listening on " + server.getUrl());
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return the server's root, such as http://127.0.0.1:8080/
+     */
+    public String getUrl() {
+        String host = server.getAddress().getAddress().getHostAddress();
+        return "http://" + (host.contains(":") ? "[" + host + "]" : host) + ":" + getPort() + "/";
+    }
+
+    public void stop() {
+        server.stop(0);
+        requests.shutdown();
+        crackPool.shutdown();
+    }
+
+    /**
+     * Virtual threads only exist from Java 21 onwards, and the build targets 17, so they are looked up reflectively
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch(ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    private interface Handler {
+        String handle(HashMap<String, String> params) throws Exception;
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        int status = 200;
+        String body;
+
+        try {
+            body = handler.handle(parseQuery(exchange.getRequestURI().getRawQuery()));
+        } catch(Exception e) {
+            status = 400;
+            body = "{\"error\":" + Utils.json(String.valueOf(e.getMessage())) + "}";
+        }
+
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try(OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private String encode(HashMap<String, String> params) {
+        Enigma enigma = createEnigma(params);
+        return "{\"result\":" + Utils.json(enigma.encode(require(params, "message"))) + "}";
+    }
+
+    private String crack(HashMap<String, String> params) throws InterruptedException, ExecutionException {
+        long start = System.nanoTime();
+
+        Enigma enigma = createEnigma(params);
+        String cipherText = require(params, "cipher");
+        String crib = require(params, "crib");
+
+        // Rejects a bad crib on the request's thread, before anything is queued
+        new Bombe(enigma, cipherText, crib, true);
+
+        // Split into one slice of rotor positions per thread, in order, so the stops come out as a single run's would
+        int slices = crackPool.getMaximumPoolSize();
+        ArrayList<Future<ArrayList<String[]>>> futures = new ArrayList<>();
+        for(int slice = 0; slice < slices; slice++) {
+            int first = Bombe.POSITIONS * slice / slices;
+            int last = Bombe.POSITIONS * (slice + 1) / slices;
+
+            futures.add(crackPool.submit(() -> new Bombe(enigma, cipherText, crib, true).run(first, last)));
+        }
+
+        ArrayList<String[]> stops = new ArrayList<>();
+        try {
+            for(Future<ArrayList<String[]>> future : futures) {
+                stops.addAll(future.get());
+            }
+        } finally {
+            for(Future<ArrayList<String[]>> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return "{\"elapsedMs\":" + (System.nanoTime() - start) / 1_000_000 + ",\"stops\":" + Utils.json(stops) + "}";
+    }
+
+    private String farmCrack(HashMap<String, String> params) {
+        long start = System.nanoTime();
+
+        BombeFarm farm = new BombeFarm(require(params, "cipher"), require(params, "crib"), true,
+                Boolean.parseBoolean(params.get("m4")), crackPool);
+        ArrayList<String[]> stops = farm.run();
+
+        return "{\"elapsedMs\":" + (System.nanoTime() - start) / 1_000_000 + ",\"stops\":" + Utils.json(stops) + "}";
+    }
+
+    /**
+     * Builds a fresh Enigma for a single request
+     */
+    private static Enigma createEnigma(HashMap<String, String> params) {
+        String[] rotors = params.getOrDefault("rotors", "B,I,II,III").split(",");
+        boolean fourRotor = rotors.length == 5;
+
+        String rings = params.getOrDefault("rings", fourRotor ? "aaaa" : "aaa").toLowerCase();
+        String rotations = params.getOrDefault("rotations", fourRotor ? "aaaa" : "aaa").toLowerCase();
+
+        if(rotors.length != 4 && !fourRotor) {
+            throw new IllegalArgumentException("rotors must be a reflector followed by three or four rotors");
+        }
+
+        if(rings.length() != rotors.length - 1 || rotations.length() != rotors.length - 1) {
+            throw new IllegalArgumentException("rings and rotations need a letter for every rotor");
+        }
+
+        String steckers = params.getOrDefault("steckers", "").trim();
+
+        EnigmaBuilder builder = new EnigmaBuilder()
+                .setBoard(steckers.isEmpty() ? new PlugBoard() : new PlugBoard(steckers))
+                .setReflector(Rotor.Mapping.valueOf("Reflector" + rotors[0].replace("-thin", "Thin")));
+
+        int offset = 1;
+        if(fourRotor) {
+            builder.setGreek(Rotor.Mapping.valueOf(rotors[1]), rings.charAt(0), rotations.charAt(0));
+            offset = 2;
+        }
+
+        return builder
+                .setLeft(Rotor.Mapping.valueOf(rotors[offset]), rings.charAt(offset - 1), rotations.charAt(offset - 1))
+                .setMiddle(Rotor.Mapping.valueOf(rotors[offset + 1]), rings.charAt(offset), rotations.charAt(offset))
+                .setRight(Rotor.Mapping.valueOf(rotors[offset + 2]), rings.charAt(offset + 1), rotations.charAt(offset + 1))
+                .build();
+    }
+
+    private static String require(HashMap<String, String> params, String name) {
+        String value = params.get(name);
+
+        if(value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter: " + name);
+        }
+
+        return value;
+    }
+
+    private static HashMap<String, String> parseQuery(String query) {
+        HashMap<String, String> params = new HashMap<>();
+
+        if(query == null) {
+            return params;
+        }
+
+        for(String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+
+            if(equals > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+
+        return params;
+    }
+}
@@ -0,0 +1,302 @@
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.function.Consumer;
+
+/**
+ * The coordinator spreads a {@link BombeFarm} job across several processes, possibly on several
+ * hosts. The search space (every walzenlage times every rotor position) is cut into {@link WorkUnit}s
+ * which are handed out to {@link FarmWorker}s over a plain line based socket protocol:
+ *
+ * - coordinator to worker: "JOB [cipher text] [crib] [check]" once, then one "UNIT ..." line at a
+ *   time, and finally "BYE" once every unit is finished
+ * - worker to coordinator: a tab separated "STOP" line for every Bombe stop in the unit, a
+ *   "WORKING [unit id]" line every 676 positions, and "DONE [unit id]" at the end
+ *
+ * Workers pull a new unit as soon as they finish the previous one, so faster workers naturally take
+ * on more of the job. If a worker dies, disconnects, or sends nothing for the worker timeout while on a
+ * unit, the unit it was working on goes back to the front of the queue for the next worker. Stops are only accepted once their unit is DONE, so a unit
+ * that gets handed out twice never produces duplicate stops. If no worker is left and none connects for
+ * a while, the job fails rather than waiting forever.
+ */
+public class FarmCoordinator implements Closeable {
+
+    private final ServerSocket server;
+
+    private final String cipherText, crib;
+    private final boolean check;
+
+    private final LinkedList<WorkUnit> pending = new LinkedList<>();
+    private final boolean[] completed;
+    private int nCompleted;
+
+    private final ArrayList<String[]> results = new ArrayList<>();
+    private Consumer<String[]> listener = stop -> {};
+
+    // The workers connected right now, and when a worker last connected, finished a unit, or went away
+    private int connected;
+    private long lastSeen;
+    private long workerTimeoutMillis = 30_000;
+
+    /**
+     * Creates a coordinator and starts listening for workers
+     * @param port The port to listen on, 0 picks any free port
+     * @param cipherText The cipher text
+     * @param crib The crib, must be the same length as the cipher text
+     * @param check Whether workers should run the checking machine on stops
+     * @param unitsPerWalzenlage How many position ranges each walzenlage is split into
+     * @throws IOException If the server socket couldn't be opened
+     */
+    public FarmCoordinator(int port, String cipherText, String crib, boolean check, int unitsPerWalzenlage) throws IOException {
+        this(port, cipherText, crib, check, unitsPerWalzenlage, BombeFarm.getWalzenlagen());
+    }
+
+    /**
+     * Creates a coordinator for some walzenlagen and starts listening for workers
+     * @param port The port to listen on, 0 picks any free port
+     * @param cipherText The cipher text
+     * @param crib The crib, must be the same length as the cipher text
+     * @param check Whether workers should run the checking machine on stops
+     * @param unitsPerWalzenlage How many position ranges each walzenlage is split into
+     * @param walzenlagen The walzenlagen to run, see {@link BombeFarm#getWalzenlagen()}
+     * @throws IOException If the server socket couldn't be opened
+     */
+    public FarmCoordinator(int port, String cipherText, String crib, boolean check, int unitsPerWalzenlage, ArrayList<int[]> walzenlagen) throws IOException {
+        if(cipherText.length() != crib.length()) {
+            throw new IllegalArgumentException("Cipher text and crib length must match.");
+        }
+
+        this.cipherText = cipherText.toLowerCase();
+        this.crib = crib.toLowerCase();
+        this.check = check;
+
+        // Build a Bombe once here, a crib it rejects would otherwise only fail inside every worker
+        new Bombe(BombeFarm.createEnigma(new int[]{5, 0, 1, 2}), this.cipherText, this.crib, check);
+
+        int id = 0;
+        for(int[] walzenlage : walzenlagen) {
+            for(int i = 0; i < unitsPerWalzenlage; i++) {
+                int start = Bombe.POSITIONS * i / unitsPerWalzenlage;
+                int end = Bombe.POSITIONS * (i + 1) / unitsPerWalzenlage;
+
+                pending.add(new WorkUnit(id++, walzenlage, start, end));
+            }
+        }
+
+        this.completed = new boolean[id];
+        this.server = new ServerSocket(port);
+        this.lastSeen = System.currentTimeMillis();
+
+        Thread acceptor = new Thread(this::accept, "farm-coordinator");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * @param millis How long {@link FarmCoordinator#run(Consumer)} waits while no worker is connected before it
+     *               gives up, and how long a worker on a unit may stay silent before its unit goes to another
+     *               worker, 30 seconds unless set. Workers that are already connected keep the old timeout.
+     */
+    public synchronized void setWorkerTimeout(long millis) {
+        this.workerTimeoutMillis = millis;
+        notifyAll();
+    }
+
+    /**
+     * Waits for the workers to finish every unit
+     * @param listener Called with every stop as soon as the unit containing it finishes
+     * @return all Bombe stops, in the same format as {@link BombeFarm#run()}
+     * @throws InterruptedException If interrupted while waiting
+     * @throws IllegalStateException If no worker was connected for the worker timeout with units left to do
+     */
+    public ArrayList<String[]> run(Consumer<String[]> listener) throws InterruptedException {
+        synchronized(this) {
+            this.listener = listener;
+
+            while(nCompleted < completed.length) {
+                long idle = System.currentTimeMillis() - lastSeen;
+
+                if(connected > 0) {
+                    wait();
+                } else if(idle < workerTimeoutMillis) {
+                    wait(workerTimeoutMillis - idle);
+                } else {
+                    throw new IllegalStateException("No worker connected for " + idle / 1000 + "s, " + nCompleted + " of "
+                            + completed.length + " units finished");
+                }
+            }
+
+            return new ArrayList<>(results);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Launches a worker in a new JVM on this machine, using the same classpath as this JVM
+     * @param port The port the coordinator is listening on
+     * @return the worker process
+     * @throws IOException If the process couldn't be started
+     */
+    public static Process startLocalWorker(int port) throws IOException {
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+        return new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), "FarmWorker",
+                InetAddress.getLoopbackAddress().getHostAddress(), String.valueOf(port))
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.INHERIT)
+                .start();
+    }
+
+    private void accept() {
+        while(!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+
+                Thread handler = new Thread(() -> serve(socket), "farm-coordinator-" + socket.getPort());
+                handler.setDaemon(true);
+                handler.start();
+            } catch(IOException e) {
+                // the server socket was closed
+            }
+        }
+    }
+
+    /**
+     * Feeds work units to a single worker until the job is finished or the worker goes away
+     */
+    private void serve(Socket socket) {
+        WorkUnit unit = null;
+        seen(1);
+
+        try(Socket s = socket;
+            BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()));
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(s.getOutputStream())))) {
+
+            // A worker sends a line every 676 positions, one that stays silent for longer is taken as hung
+            s.setSoTimeout((int) Math.min(Integer.MAX_VALUE, getWorkerTimeout()));
+
+            out.println("JOB " + cipherText + " " + crib + " " + check);
+            out.flush();
+
+            String walzenlage = null;
+
+            while((unit = nextUnit(walzenlage)) != null) {
+                walzenlage = unit.getWalzenlageKey();
+
+                out.println(unit);
+                out.flush();
+
+                ArrayList<String[]> stops = new ArrayList<>();
+
+                String line;
+                while((line = in.readLine()) != null) {
+                    if(line.startsWith("STOP\t")) {
+                        String[] tokens = line.split("\t", -1);
+                        stops.add(new String[]{tokens[2], tokens[3], tokens[4]});
+                    } else if(line.equals("DONE " + unit.id)) {
+                        break;
+                    }
+                }
+
+                if(line == null) {
+                    throw new EOFException("Worker disconnected during unit " + unit.id);
+                }
+
+                complete(unit, stops);
+                unit = null;
+            }
+
+            out.println("BYE");
+            out.flush();
+        } catch(IOException | RuntimeException e) {
+            // Including the SocketTimeoutException of a worker that hung on its unit
+            if(unit != null) {
+                requeue(unit);
+            }
+        } catch(InterruptedException e) {
+            if(unit != null) {
+                requeue(unit);
+            }
+
+            Thread.currentThread().interrupt();
+        } finally {
+            seen(-1);
+        }
+    }
+
+    private synchronized long getWorkerTimeout() {
+        return workerTimeoutMillis;
+    }
+
+    /**
+     * Notes that a worker connected, or with -1 went away
+     */
+    private synchronized void seen(int change) {
+        connected += change;
+        lastSeen = System.currentTimeMillis();
+        notifyAll();
+    }
+
+    /**
+     * Blocks until a unit is available. Units of the walzenlage the worker last worked on are preferred
+     * so the worker can keep reusing its Bombe instead of rebuilding the scrambler cache.
+     * @return the next unit, or null if the whole job is finished
+     */
+    private synchronized WorkUnit nextUnit(String walzenlage) throws InterruptedException {
+        while(pending.isEmpty()) {
+            if(nCompleted == completed.length) {
+                return null;
+            }
+
+            wait();
+        }
+
+        Iterator<WorkUnit> it = pending.iterator();
+        while(it.hasNext()) {
+            WorkUnit unit = it.next();
+            if(unit.getWalzenlageKey().equals(walzenlage)) {
+                it.remove();
+                return unit;
+            }
+        }
+
+        return pending.removeFirst();
+    }
+
+    private synchronized void requeue(WorkUnit unit) {
+        if(!completed[unit.id]) {
+            pending.addFirst(unit);
+            notifyAll();
+        }
+    }
+
+    private synchronized void complete(WorkUnit unit, ArrayList<String[]> stops) {
+        if(completed[unit.id]) {
+            return;
+        }
+
+        completed[unit.id] = true;
+        nCompleted++;
+        lastSeen = System.currentTimeMillis();
+
+        for(String[] stop : stops) {
+            results.add(stop);
+            listener.accept(stop);
+        }
+
+        notifyAll();
+    }
+}
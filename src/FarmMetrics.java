@@ -0,0 +1,84 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+
+/**
+ * A snapshot of where a {@link BombeFarm} run spent its time: the combined {@link BombeStatistics}
+ * of every walzenlage, the statistics of each walzenlage on its own, and how deep the thread pool's
+ * queue got while the farm was running.
+ */
+public class FarmMetrics {
+
+    public final BombeStatistics total;
+
+    // One entry per walzenlage, however many slices it ran in, in the order they finished
+    public final ArrayList<BombeStatistics> walzenlagen;
+
+    // Tasks waiting in the thread pool's queue, sampled each time a task finished
+    public final int[] queueDepths;
+    public final int maxQueueDepth;
+
+    // Walzenlagen answered by a BombeCache instead of being run, these have no statistics
+    public final int cacheHits;
+
+    public final long wallNanos;
+
+    /**
+     * @param tasks The statistics of every task, a walzenlage split into slices has one for each slice
+     * @param queueDepths The queue depths sampled as tasks finished
+     * @param cacheHits How many walzenlagen the cache answered
+     * @param wallNanos How long the run took
+     */
+    public FarmMetrics(ArrayList<BombeStatistics> tasks, int[] queueDepths, int cacheHits, long wallNanos) {
+        this.queueDepths = queueDepths;
+        this.cacheHits = cacheHits;
+        this.wallNanos = wallNanos;
+
+        // The slices of a walzenlage are added up, so it is listed where its first slice finished
+        LinkedHashMap<String, BombeStatistics> walzenlagen = new LinkedHashMap<>();
+        this.total = new BombeStatistics();
+        for(BombeStatistics statistics : tasks) {
+            this.total.add(statistics);
+            walzenlagen.merge(statistics.configuration, statistics.copy(), (sum, slice) -> {
+                sum.add(slice);
+                return sum;
+            });
+        }
+        this.walzenlagen = new ArrayList<>(walzenlagen.values());
+
+        int max = 0;
+        for(int depth : queueDepths) {
+            max = Math.max(max, depth);
+        }
+        this.maxQueueDepth = max;
+    }
+
+    /**
+     * @return the walzenlage that took the longest to run, or null if nothing ran
+     */
+    public BombeStatistics getSlowest() {
+        BombeStatistics slowest = null;
+
+        for(BombeStatistics statistics : walzenlagen) {
+            if(slowest == null || statistics.runNanos > slowest.runNanos) {
+                slowest = statistics;
+            }
+        }
+
+        return slowest;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+
+        builder.append("Wall time=").append(wallNanos / 1_000_000).append("ms, Walzenlagen=").append(walzenlagen.size())
+                .append(", Cache hits=").append(cacheHits).append(", Max queue depth=").append(maxQueueDepth).append('\n')
+                .append("Total: ").append(total);
+
+        for(BombeStatistics statistics : walzenlagen) {
+            builder.append('\n').append(statistics.configuration).append(": ").append(statistics);
+        }
+
+        return builder.toString();
+    }
+}
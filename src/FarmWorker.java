@@ -0,0 +1,73 @@
+import java.io.*;
+import java.net.Socket;
+
+/**
+ * A worker for the {@link FarmCoordinator}. A worker connects to the coordinator, runs every
+ * {@link WorkUnit} it is handed on its own {@link Bombe}, and streams back the stops.
+ *
+ * Run with: java -cp enigma.jar FarmWorker [coordinator host] [coordinator port]
+ */
+public class FarmWorker {
+
+    // Positions run between two WORKING lines, so the coordinator can tell a slow worker from a hung one
+    private static final int HEARTBEAT_POSITIONS = 676;
+
+    public static void main(String[] args) throws IOException {
+        if(args.length != 2) {
+            System.err.println("Usage: FarmWorker [coordinator host] [coordinator port]");
+            System.exit(1);
+        }
+
+        work(args[0], Integer.parseInt(args[1]));
+    }
+
+    /**
+     * Connects to a coordinator and works until it says BYE
+     * @param host The coordinator's host
+     * @param port The coordinator's port
+     * @throws IOException If the connection fails
+     */
+    public static void work(String host, int port) throws IOException {
+        try(Socket socket = new Socket(host, port);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())))) {
+
+            String header = in.readLine();
+            if(header == null || !header.startsWith("JOB ")) {
+                throw new IOException("Expected a job from the coordinator, got: " + header);
+            }
+
+            String[] job = header.split("\\s+");
+            String cipherText = job[1];
+            String crib = job[2];
+            boolean check = Boolean.parseBoolean(job[3]);
+
+            // Building a Bombe fills its scrambler cache, so hang on to it while
+            // units for the same walzenlage keep coming in
+            Bombe bombe = null;
+            String walzenlage = null;
+
+            String line;
+            while((line = in.readLine()) != null && !"BYE".equals(line)) {
+                WorkUnit unit = WorkUnit.parse(line);
+
+                if(!unit.getWalzenlageKey().equals(walzenlage)) {
+                    bombe = new Bombe(BombeFarm.createEnigma(unit.walzenlage), cipherText, crib, check);
+                    walzenlage = unit.getWalzenlageKey();
+                }
+
+                for(int start = unit.start; start < unit.end; start += HEARTBEAT_POSITIONS) {
+                    for(String[] stop : bombe.run(start, Math.min(start + HEARTBEAT_POSITIONS, unit.end))) {
+                        out.println("STOP\t" + unit.id + "\t" + stop[0] + "\t" + stop[1] + "\t" + stop[2]);
+                    }
+
+                    out.println("WORKING " + unit.id);
+                    out.flush();
+                }
+
+                out.println("DONE " + unit.id);
+                out.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,572 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Runs cracking jobs in the background, so the REPL stays free for other work while they run.
+ *
+ * Every job gets a thread of its own to coordinate it, which hands the actual Bombe work to one compute pool
+ * shared by all jobs. The pool's queue takes turns between jobs rather than going first come first served,
+ * so a quick crack started while a farm-crack has hundreds of walzenlagen queued up runs next, instead of
+ * after all of them.
+ */
+public class JobManager {
+
+    public enum State {
+        RUNNING, DONE, CANCELLED, FAILED
+    }
+
+    /**
+     * The work of a job, run on the job's own thread
+     */
+    public interface Work {
+        /**
+         * @param job The job, to report progress and a summary to, and to set up cancelling with
+         * @return the stops found
+         * @throws Exception If the job fails
+         */
+        ArrayList<String[]> run(Job job) throws Exception;
+    }
+
+    public static class Job {
+        public final int id;
+        public final String description;
+
+        private final long start = System.nanoTime();
+        private volatile long end;
+        private volatile State state = State.RUNNING;
+
+        private volatile ArrayList<String[]> results;
+        private final List<String> summary = Collections.synchronizedList(new ArrayList<>());
+        private volatile Throwable error;
+
+        // How to cancel the job and how far it got, set up by its work
+        private volatile Runnable canceller;
+        private volatile IntSupplier stops = () -> 0, completedTasks = () -> 0, tasks = () -> 0;
+
+        private Job(int id, String description) {
+            this.id = id;
+            this.description = description;
+        }
+
+        /**
+         * @param canceller Stops the job's work, called from another thread
+         */
+        public void setCanceller(Runnable canceller) {
+            this.canceller = canceller;
+
+            // Cancelled before there was anything to cancel
+            if(state == State.CANCELLED) {
+                canceller.run();
+            }
+        }
+
+        /**
+         * @param stops How many stops have been found so far
+         * @param completedTasks How many tasks have finished
+         * @param tasks How many tasks there are
+         */
+        public void setProgress(IntSupplier stops, IntSupplier completedTasks, IntSupplier tasks) {
+            this.stops = stops;
+            this.completedTasks = completedTasks;
+            this.tasks = tasks;
+        }
+
+        /**
+         * @param line A line to print along with the job's results, such as its statistics
+         */
+        public void addSummary(String line) {
+            summary.add(line);
+        }
+
+        public State getState() {
+            return state;
+        }
+
+        /**
+         * @return the stops, or null while the job runs
+         */
+        public ArrayList<String[]> getResults() {
+            return results;
+        }
+
+        public List<String> getSummary() {
+            return new ArrayList<>(summary);
+        }
+
+        /**
+         * @return why the job failed, or null
+         */
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * @return how long the job ran, or has been running, in milliseconds
+         */
+        public long getElapsedMillis() {
+            return ((end == 0 ? System.nanoTime() : end) - start) / 1_000_000;
+        }
+
+        @Override
+        public String toString() {
+            int stopCount = results != null ? results.size() : stops.getAsInt();
+
+            return "Job " + id + " [" + state + "] " + description + ": Stops=" + stopCount
+                    + ", Tasks=" + completedTasks.getAsInt() + "/" + tasks.getAsInt() + ", Elapsed=" + getElapsedMillis() + "ms";
+        }
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final ExecutorService coordinators;
+
+    private final LinkedHashMap<Integer, Job> jobs = new LinkedHashMap<>();
+    private final AtomicInteger ids = new AtomicInteger();
+
+    // Told about every job that ends
+    private final Consumer<Job> listener;
+
+    /**
+     * @param threads How many threads the shared compute pool has
+     * @param listener Called on the job's thread whenever a job ends, or null
+     */
+    public JobManager(int threads, Consumer<Job> listener) {
+        this.pool = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS, new FairQueue(), daemonThreads("compute"));
+        this.coordinators = Executors.newCachedThreadPool(daemonThreads("job"));
+        this.listener = listener;
+    }
+
+    /**
+     * @return the compute pool every job should run its tasks on
+     */
+    public ThreadPoolExecutor getPool() {
+        return pool;
+    }
+
+    /**
+     * @param job A job that doesn't count, usually the one asking, or null
+     * @return whether any other job is running, and so sharing the compute pool
+     */
+    public boolean isBusy(Job job) {
+        synchronized(jobs) {
+            for(Job other : jobs.values()) {
+                if(other != job && other.state == State.RUNNING) {
+                    return true;
+                }
+            }
+
+            return false;
+        }
+    }
+
+    /**
+     * Resizes the compute pool, running tasks finish first if it shrinks. The pool is shared, so it keeps its
+     * size while any other job runs, those jobs were tuned to it.
+     * @param threads How many threads the pool should have
+     * @param job The job asking, or null
+     * @return false if another job is running and the pool kept its size
+     */
+    public boolean setThreads(int threads, Job job) {
+        synchronized(jobs) {
+            if(isBusy(job)) {
+                return false;
+            }
+
+            if(threads > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(threads);
+                pool.setCorePoolSize(threads);
+            } else {
+                pool.setCorePoolSize(threads);
+                pool.setMaximumPoolSize(threads);
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Runs a Bombe over every rotor position on the compute pool, split into slices of positions that each
+     * get a Bombe of their own, and reports progress to a job
+     * @param job The job the Bombe runs for
+     * @param bombes Creates the Bombe for a slice, they must all be set up the same way
+     * @param slices How many slices to split the positions into
+     * @return the stops, in the order a single Bombe would find them, or those of the slices that finished if
+     * the job was cancelled
+     * @throws InterruptedException If the job's thread was interrupted
+     * @throws ExecutionException If a slice failed
+     */
+    public ArrayList<String[]> runBombe(Job job, Supplier<Bombe> bombes, int slices) throws InterruptedException, ExecutionException {
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger stops = new AtomicInteger();
+        BombeStatistics total = new BombeStatistics();
+        job.setProgress(stops::get, completed::get, () -> slices);
+
+        // Cancelling interrupts the slices that run rather than their futures, an interrupted Bombe returns the
+        // stops it found so far, and a cancelled future would throw them away
+        Thread[] running = new Thread[slices];
+        AtomicBoolean cancelled = new AtomicBoolean();
+
+        ArrayList<Future<ArrayList<String[]>>> futures = new ArrayList<>();
+        for(int slice = 0; slice < slices; slice++) {
+            int part = slice;
+            int first = Bombe.POSITIONS * slice / slices;
+            int last = Bombe.POSITIONS * (slice + 1) / slices;
+
+            futures.add(pool.submit(() -> {
+                synchronized(running) {
+                    if(cancelled.get()) {
+                        return new ArrayList<>();
+                    }
+
+                    running[part] = Thread.currentThread();
+                }
+
+                try {
+                    Bombe bombe = bombes.get();
+                    ArrayList<String[]> result = bombe.run(first, last);
+
+                    synchronized(total) {
+                        total.add(bombe.getStatistics());
+                    }
+                    stops.addAndGet(result.size());
+                    completed.incrementAndGet();
+
+                    return result;
+                } finally {
+                    // The pool thread goes on to other jobs' tasks, which must not see this job's interrupt
+                    synchronized(running) {
+                        running[part] = null;
+                        Thread.interrupted();
+                    }
+                }
+            }));
+        }
+
+        job.setCanceller(() -> {
+            synchronized(running) {
+                cancelled.set(true);
+
+                for(Thread thread : running) {
+                    if(thread != null) {
+                        thread.interrupt();
+                    }
+                }
+            }
+        });
+
+        ArrayList<String[]> results = new ArrayList<>();
+        for(Future<ArrayList<String[]>> future : futures) {
+            results.addAll(future.get());
+        }
+
+        job.addSummary("Bombe statistics: " + total);
+        return results;
+    }
+
+    /**
+     * Starts a job in the background
+     * @param description What the job does, as shown by {@link Job#toString()}
+     * @param work The work
+     * @return the job, already running
+     */
+    public Job submit(String description, Work work) {
+        Job job = new Job(ids.incrementAndGet(), description);
+
+        synchronized(jobs) {
+            jobs.put(job.id, job);
+        }
+
+        coordinators.execute(() -> {
+            try {
+                job.results = work.run(job);
+            } catch(Throwable e) {
+                job.error = e;
+            }
+
+            job.end = System.nanoTime();
+            job.state = job.error != null ? State.FAILED : job.state == State.CANCELLED ? State.CANCELLED : State.DONE;
+
+            if(listener != null) {
+                listener.accept(job);
+            }
+        });
+
+        return job;
+    }
+
+    /**
+     * @param id A job id
+     * @return the job
+     * @throws IllegalArgumentException If there is no such job
+     */
+    public Job get(int id) {
+        synchronized(jobs) {
+            Job job = jobs.get(id);
+            if(job == null) {
+                throw new IllegalArgumentException("No job " + id);
+            }
+
+            return job;
+        }
+    }
+
+    /**
+     * @return every job so far, oldest first
+     */
+    public ArrayList<Job> getJobs() {
+        synchronized(jobs) {
+            return new ArrayList<>(jobs.values());
+        }
+    }
+
+    /**
+     * Cancels a running job, it keeps the stops it found so far
+     * @param id A job id
+     * @return false if the job had already ended
+     */
+    public boolean cancel(int id) {
+        Job job = get(id);
+        if(job.state != State.RUNNING) {
+            return false;
+        }
+
+        job.state = State.CANCELLED;
+        if(job.canceller != null) {
+            job.canceller.run();
+        }
+
+        return true;
+    }
+
+    /**
+     * Cancels every running job and stops the threads
+     */
+    public void shutdown() {
+        for(Job job : getJobs()) {
+            cancel(job.id);
+        }
+
+        coordinators.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        AtomicInteger count = new AtomicInteger();
+
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * A task queue that takes turns between the threads that submitted the tasks, which are the jobs'
+     * coordinating threads. Within a job tasks stay in order, so a farm still runs its most likely
+     * walzenlagen first.
+     */
+    private static class FairQueue extends AbstractQueue<Runnable> implements BlockingQueue<Runnable> {
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+
+        // Each submitter's tasks, the submitter whose turn it is comes first
+        private final LinkedHashMap<Thread, ArrayDeque<Runnable>> lanes = new LinkedHashMap<>();
+        private int size;
+
+        @Override
+        public boolean offer(Runnable task) {
+            lock.lock();
+            try {
+                lanes.computeIfAbsent(Thread.currentThread(), thread -> new ArrayDeque<>()).add(task);
+                size++;
+                notEmpty.signal();
+                return true;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void put(Runnable task) {
+            offer(task);
+        }
+
+        @Override
+        public boolean offer(Runnable task, long timeout, TimeUnit unit) {
+            return offer(task);
+        }
+
+        @Override
+        public Runnable poll() {
+            lock.lock();
+            try {
+                if(size == 0) {
+                    return null;
+                }
+
+                // Take from the first lane, then send it to the back of the line
+                Iterator<Map.Entry<Thread, ArrayDeque<Runnable>>> iterator = lanes.entrySet().iterator();
+                Map.Entry<Thread, ArrayDeque<Runnable>> lane = iterator.next();
+                iterator.remove();
+
+                Runnable task = lane.getValue().poll();
+                if(!lane.getValue().isEmpty()) {
+                    lanes.put(lane.getKey(), lane.getValue());
+                }
+
+                size--;
+                return task;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public Runnable take() throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                while(size == 0) {
+                    notEmpty.await();
+                }
+
+                return poll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+            long nanos = unit.toNanos(timeout);
+
+            lock.lockInterruptibly();
+            try {
+                while(size == 0) {
+                    if(nanos <= 0) {
+                        return null;
+                    }
+
+                    nanos = notEmpty.awaitNanos(nanos);
+                }
+
+                return poll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public Runnable peek() {
+            lock.lock();
+            try {
+                return size == 0 ? null : lanes.values().iterator().next().peek();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public boolean remove(Object task) {
+            lock.lock();
+            try {
+                Iterator<ArrayDeque<Runnable>> iterator = lanes.values().iterator();
+                while(iterator.hasNext()) {
+                    ArrayDeque<Runnable> lane = iterator.next();
+
+                    if(lane.remove(task)) {
+                        if(lane.isEmpty()) {
+                            iterator.remove();
+                        }
+
+                        size--;
+                        return true;
+                    }
+                }
+
+                return false;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int size() {
+            lock.lock();
+            try {
+                return size;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public int remainingCapacity() {
+            return Integer.MAX_VALUE;
+        }
+
+        @Override
+        public int drainTo(Collection<? super Runnable> collection) {
+            return drainTo(collection, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public int drainTo(Collection<? super Runnable> collection, int max) {
+            lock.lock();
+            try {
+                int drained = 0;
+                while(drained < max && size > 0) {
+                    collection.add(poll());
+                    drained++;
+                }
+
+                return drained;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Goes over a snapshot, in no particular order, removing through it removes from the queue
+         */
+        @Override
+        public Iterator<Runnable> iterator() {
+            ArrayList<Runnable> tasks = new ArrayList<>();
+
+            lock.lock();
+            try {
+                for(ArrayDeque<Runnable> lane : lanes.values()) {
+                    tasks.addAll(lane);
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            Iterator<Runnable> snapshot = tasks.iterator();
+            return new Iterator<Runnable>() {
+                private Runnable last;
+
+                @Override
+                public boolean hasNext() {
+                    return snapshot.hasNext();
+                }
+
+                @Override
+                public Runnable next() {
+                    return last = snapshot.next();
+                }
+
+                @Override
+                public void remove() {
+                    FairQueue.this.remove(last);
+                }
+            };
+        }
+    }
+}
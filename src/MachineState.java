@@ -0,0 +1,305 @@
+/**
+ * An Enigma's complete rotor settings packed into a single long. Copying an {@link Enigma} means allocating
+ * several {@link Rotor}s and a {@link PlugBoard}, which adds up quickly for search algorithms that explore
+ * millions of settings. A machine state is just a number, so candidates can be kept in primitive arrays,
+ * and stepping or encoding with one is a handful of table lookups.
+ *
+ * The layout, starting from the least significant bit, is:
+ * - bits 0-19: the rotations of the right, middle, left, and greek rotors, 5 bits each
+ * - bits 20-39: the ring offsets of the right, middle, left, and greek rotors, 5 bits each
+ * - bits 40-59: the {@link Rotor.Mapping} ordinals of the right, middle, left, and greek rotors, and the
+ *   reflector, 4 bits each. A three rotor Enigma has no greek rotor, which is stored as 15
+ *
+ * The plug board is kept apart as 26 bytes, where entry i holds the letter i is steckered to, as it rarely
+ * changes while a search is stepping through rotor settings.
+ */
+public final class MachineState {
+
+    // Slots, used to pick a rotor out of a state
+    public static final int RIGHT = 0, MIDDLE = 1, LEFT = 2, GREEK = 3, REFLECTOR = 4;
+
+    private static final int NO_MAPPING = 15;
+
+    private static final int ROTATIONS = 0, RINGS = 20, MAPPINGS = 40;
+
+    // Wiring of every mapping, indexed by ordinal and then contact
+    private static final int[][] FORWARDS = new int[Rotor.Mapping.values().length][26];
+    private static final int[][] BACKWARDS = new int[Rotor.Mapping.values().length][26];
+
+    // The rotation at which each mapping turns over its neighbor, or -1
+    private static final int[] NOTCHES = new int[Rotor.Mapping.values().length];
+
+    static {
+        for(Rotor.Mapping mapping : Rotor.Mapping.values()) {
+            String wiring = mapping.getWiring();
+
+            for(int i = 0; i < 26; i++) {
+                int mapped = Utils.a2i(wiring.charAt(i));
+                FORWARDS[mapping.ordinal()][i] = mapped;
+                BACKWARDS[mapping.ordinal()][mapped] = i;
+            }
+
+            NOTCHES[mapping.ordinal()] = mapping.getTurnOver() == 0 ? -1 : Utils.a2i(mapping.getTurnOver());
+        }
+    }
+
+    private MachineState() {}
+
+    /**
+     * Creates a state with every ring offset and rotation at 'a'
+     * @param reflector The reflector
+     * @param greek The greek rotor of a four rotor Enigma, or null for a three rotor Enigma
+     * @param left The left rotor
+     * @param middle The middle rotor
+     * @param right The right rotor
+     * @return the packed state
+     */
+    public static long create(Rotor.Mapping reflector, Rotor.Mapping greek, Rotor.Mapping left, Rotor.Mapping middle, Rotor.Mapping right) {
+        long state = 0;
+
+        state = withMapping(state, REFLECTOR, reflector.ordinal());
+        state = withMapping(state, GREEK, greek != null ? greek.ordinal() : NO_MAPPING);
+        state = withMapping(state, LEFT, left.ordinal());
+        state = withMapping(state, MIDDLE, middle.ordinal());
+        state = withMapping(state, RIGHT, right.ordinal());
+
+        return state;
+    }
+
+    /**
+     * @param state A packed state
+     * @param slot One of RIGHT, MIDDLE, LEFT, GREEK, or REFLECTOR
+     * @return the mapping in the slot, or null if there is no greek rotor
+     */
+    public static Rotor.Mapping getMapping(long state, int slot) {
+        int ordinal = getMappingOrdinal(state, slot);
+        return ordinal == NO_MAPPING ? null : Rotor.Mapping.getMapping(ordinal);
+    }
+
+    public static boolean isFourRotor(long state) {
+        return getMappingOrdinal(state, GREEK) != NO_MAPPING;
+    }
+
+    /**
+     * @param state A packed state
+     * @param slot One of RIGHT, MIDDLE, LEFT, or GREEK
+     * @return the ring offset, an integer 0-25 representing an offset from 'a'
+     */
+    public static int getRing(long state, int slot) {
+        return (int) (state >>> (RINGS + 5 * slot)) & 31;
+    }
+
+    /**
+     * @param state A packed state
+     * @param slot One of RIGHT, MIDDLE, LEFT, or GREEK
+     * @return the rotation, an integer 0-25 representing an offset from 'a'
+     */
+    public static int getRotation(long state, int slot) {
+        return (int) (state >>> (ROTATIONS + 5 * slot)) & 31;
+    }
+
+    public static long withRing(long state, int slot, int ring) {
+        int shift = RINGS + 5 * slot;
+        return (state & ~(31L << shift)) | ((long) ring << shift);
+    }
+
+    public static long withRotation(long state, int slot, int rotation) {
+        int shift = ROTATIONS + 5 * slot;
+        return (state & ~(31L << shift)) | ((long) rotation << shift);
+    }
+
+    /**
+     * Steps the rotors like a key press does, see {@link Enigma} for the details of the double step
+     * @param state A packed state
+     * @return the state after the key press
+     */
+    public static long step(long state) {
+        int right = getRotation(state, RIGHT);
+        int middle = getRotation(state, MIDDLE);
+
+        boolean rightAtNotch = right == NOTCHES[getMappingOrdinal(state, RIGHT)];
+        boolean middleAtNotch = middle == NOTCHES[getMappingOrdinal(state, MIDDLE)];
+
+        state = withRotation(state, RIGHT, (right + 1) % 26);
+
+        if(rightAtNotch || middleAtNotch) {
+            state = withRotation(state, MIDDLE, (middle + 1) % 26);
+        }
+
+        if(middleAtNotch) {
+            state = withRotation(state, LEFT, (getRotation(state, LEFT) + 1) % 26);
+        }
+
+        return state;
+    }
+
+    /**
+     * Encodes a letter with the rotors exactly as they are, without stepping them first.
+     * A key press is {@code encode(step(state), plugBoard, letter)}.
+     * @param state A packed state
+     * @param plugBoard The plug board, see {@link MachineState#createPlugBoard(PlugBoard)}
+     * @param letter An integer in the range 0-25, representing a letter as an offset from 'a'
+     * @return the encoded letter, as an offset from 'a'
+     */
+    public static int encode(long state, byte[] plugBoard, int letter) {
+        letter = plugBoard[letter];
+
+        letter = through(FORWARDS, state, RIGHT, letter);
+        letter = through(FORWARDS, state, MIDDLE, letter);
+        letter = through(FORWARDS, state, LEFT, letter);
+
+        boolean fourRotor = isFourRotor(state);
+        if(fourRotor) {
+            letter = through(FORWARDS, state, GREEK, letter);
+        }
+
+        letter = FORWARDS[getMappingOrdinal(state, REFLECTOR)][letter];
+
+        if(fourRotor) {
+            letter = through(BACKWARDS, state, GREEK, letter);
+        }
+
+        letter = through(BACKWARDS, state, LEFT, letter);
+        letter = through(BACKWARDS, state, MIDDLE, letter);
+        letter = through(BACKWARDS, state, RIGHT, letter);
+
+        return plugBoard[letter];
+    }
+
+    /**
+     * Encodes a whole message the same way {@link Enigma#encode(String)} does, spaces are passed through
+     * @param state A packed state, the rotors are stepped before every letter
+     * @param plugBoard The plug board
+     * @param message The message to encode
+     * @return the encoded message, in upper case
+     */
+    public static String encode(long state, byte[] plugBoard, String message) {
+        char[] letters = message.toLowerCase().toCharArray();
+
+        long start = state;
+        for(int i = 0; i < letters.length; i++) {
+            if(letters[i] != ' ') {
+                state = step(state);
+                letters[i] = Utils.i2a(encode(state, plugBoard, Utils.a2i(letters[i])));
+            }
+        }
+
+        String encoded = new String(letters).toUpperCase();
+
+        if(ReferenceEngine.sample()) {
+            ReferenceEngine.checkEncode("MachineState", start, plugBoard, message, encoded);
+        }
+
+        return encoded;
+    }
+
+    /**
+     * @return a plug board that swaps nothing
+     */
+    public static byte[] createPlugBoard() {
+        byte[] plugBoard = new byte[26];
+
+        for(int i = 0; i < 26; i++) {
+            plugBoard[i] = (byte) i;
+        }
+
+        return plugBoard;
+    }
+
+    /**
+     * @param board A plug board
+     * @return the plug board as 26 bytes, entry i holds the letter i is steckered to
+     */
+    public static byte[] createPlugBoard(PlugBoard board) {
+        byte[] plugBoard = new byte[26];
+
+        for(int i = 0; i < 26; i++) {
+            plugBoard[i] = (byte) Utils.a2i(board.swap(Utils.i2a(i)));
+        }
+
+        return plugBoard;
+    }
+
+    /**
+     * Captures an Enigma's current rotor settings, including rotations that have moved since it was set up
+     * @param enigma The Enigma
+     * @return the packed state
+     */
+    public static long fromEnigma(Enigma enigma) {
+        long state = create(enigma.reflector.mapping, enigma.greek != null ? enigma.greek.mapping : null,
+                enigma.left.mapping, enigma.middle.mapping, enigma.right.mapping);
+
+        Rotor[] rotors = {enigma.right, enigma.middle, enigma.left, enigma.greek};
+        for(int slot = RIGHT; slot <= GREEK; slot++) {
+            if(rotors[slot] != null) {
+                state = withRing(state, slot, rotors[slot].ringOffset);
+                state = withRotation(state, slot, rotors[slot].rotation);
+            }
+        }
+
+        return state;
+    }
+
+    /**
+     * Builds an Enigma that starts from a packed state
+     * @param state The packed state
+     * @param plugBoard The plug board
+     * @return a new Enigma
+     */
+    public static Enigma toEnigma(long state, byte[] plugBoard) {
+        PlugBoard board = new PlugBoard();
+        for(int i = 0; i < 26; i++) {
+            if(plugBoard[i] > i) {
+                board.add(i, plugBoard[i]);
+            }
+        }
+
+        return new Enigma(board,
+                new Rotor(getMapping(state, REFLECTOR), 0, 0),
+                isFourRotor(state) ? createRotor(state, GREEK) : null,
+                createRotor(state, LEFT),
+                createRotor(state, MIDDLE),
+                createRotor(state, RIGHT));
+    }
+
+    /**
+     * @return a readable description of a packed state, such as "ReflectorB, I, II, III, rings aaa, rotations abc"
+     */
+    public static String toString(long state) {
+        StringBuilder mappings = new StringBuilder(getMapping(state, REFLECTOR).toString());
+        StringBuilder rings = new StringBuilder();
+        StringBuilder rotations = new StringBuilder();
+
+        for(int slot = isFourRotor(state) ? GREEK : LEFT; slot >= RIGHT; slot--) {
+            mappings.append(", ").append(getMapping(state, slot));
+            rings.append(Utils.i2a(getRing(state, slot)));
+            rotations.append(Utils.i2a(getRotation(state, slot)));
+        }
+
+        return mappings + ", rings " + rings + ", rotations " + rotations;
+    }
+
+    private static Rotor createRotor(long state, int slot) {
+        return new Rotor(getMapping(state, slot), getRing(state, slot), getRotation(state, slot));
+    }
+
+    private static int getMappingOrdinal(long state, int slot) {
+        return (int) (state >>> (MAPPINGS + 4 * slot)) & 15;
+    }
+
+    private static long withMapping(long state, int slot, int ordinal) {
+        int shift = MAPPINGS + 4 * slot;
+        return (state & ~(15L << shift)) | ((long) ordinal << shift);
+    }
+
+    /**
+     * Sends a letter through one rotor, the same way {@link Rotor#encode(int, boolean)} does
+     */
+    private static int through(int[][] wiring, long state, int slot, int letter) {
+        int ring = getRing(state, slot);
+        int rotation = getRotation(state, slot);
+
+        int mapped = wiring[getMappingOrdinal(state, slot)][(26 + letter - ring + rotation) % 26];
+        return (26 + mapped + ring - rotation) % 26;
+    }
+}
@@ -1,10 +1,13 @@
+import java.io.*;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Scanner;
+import java.util.function.ToDoubleFunction;
 
 public class Main {
 
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException {
         Enigma enigma = new EnigmaBuilder()
                 .setBoard(new PlugBoard())
                 .setReflector(Rotor.Mapping.ReflectorB)
@@ -15,6 +18,20 @@ public class Main {
 
         Scanner scanner = new Scanner(System.in);
 
+        BombeFarm lastFarm = null;
+        BombeCache cache = new BombeCache(1024, null);
+        BombeTuner tuner = new BombeTuner();
+
+        // Started by serve, stopped on quit
+        EnigmaServer server = null;
+
+        // Runs crack and farm-crack in the background, all of them on one compute pool
+        JobManager background = new JobManager(Runtime.getRuntime().availableProcessors(),
+                job -> System.out.println(job+(job.getError() != null ? ", Error: "+job.getError() : "")+", see results "+job.id));
+
+        // Walzenlagen ranked by the last banburismus, which farm-crack runs instead of all of them
+        ArrayList<int[]> walzenlagen = null;
+
         System.out.println("Welcome to Enigma! Type help for a list of commands.");
         System.out.println("Enigma config: "+enigma.getConfiguration());
 
@@ -31,6 +48,12 @@ public class Main {
                             "\t\t[left] is one of 'I', 'II', 'III', 'IV', 'V'\n" +
                             "\t\t[middle] is one of 'I', 'II', 'III', 'IV', 'V'\n" +
                             "\t\t[right] is one of 'I', 'II', 'III', 'IV', 'V'\n" +
+                            "set-rotors [thin reflector] [greek] [left] [middle] [right]\n" +
+                            "\tDescription: sets the rotor settings for a four rotor naval Enigma (M4)\n" +
+                            "\tExample: set-rotors B-thin Beta II IV I\n" +
+                            "\tArgs:\n" +
+                            "\t\t[thin reflector] is one of 'B-thin', 'C-thin'\n" +
+                            "\t\t[greek] is one of 'Beta', 'Gamma'\n" +
                             "set-steckers [steckers]\n" +
                             "\tDescription: sets the steckered letters for the Enigma\n" +
                             "\tExample: set-steckers AB CE FG HL PQ RT\n" +
@@ -44,6 +67,7 @@ public class Main {
                             "\t\t[left] is a letter a-z\n" +
                             "\t\t[middle] is a letter a-z\n" +
                             "\t\t[right] is a letter a-z\n" +
+                            "\tNote: on an M4, the greek rotor's ring comes first, e.g. set-rings a a r z\n" +
                             "set-rotations [left] [middle] [right]\n" +
                             "\tDescription: sets the rotor rotations for the Enigma\n" +
                             "\tExample: set-rotations a l z\n" +
@@ -51,14 +75,100 @@ public class Main {
                             "\t\t[left] is a letter a-z\n" +
                             "\t\t[middle] is a letter a-z\n" +
                             "\t\t[right] is a letter a-z\n" +
-                            "crack [cipher text] [crib]\n" +
-                            "\tDescription: cracks the message using the current Enigma settings\n" +
+                            "\tNote: on an M4, the greek rotor's rotation comes first, e.g. set-rotations b a l z\n" +
+                            "crack [cipher text] [crib] [steckers=pairs]\n" +
+                            "\tDescription: cracks the message using the current Enigma settings, in the background as a job\n" +
                             "\tNote: cipher text and crib length must match\n" +
                             "\tExample: crack XJQWE HELLO\n" +
-                            "farm-crack [cipher text] [crib]\n" +
-                            "\tDescription: cracks the message using all possible rotor orderings\n" +
-                            "\tNote: cipher text and crib length must match\n" +
+                            "\tArgs:\n" +
+                            "\t\t[steckers=pairs] are stecker pairs already known, such as steckers=AB,CE, positions that contradict them are rejected\n" +
+                            "multi-crack [cipher text] [crib] [[cipher text] [crib] [offset]...]\n" +
+                            "\tDescription: cracks several cribs at once using the current Enigma settings, a position only stops if no crib contradicts it\n" +
+                            "\tNote: each further crib comes with how many key presses after the first cipher text its cipher text starts\n" +
+                            "\tExample: multi-crack KKGEHTSQ WETTERVO CYCLJFAR RHERSAGE 8\n" +
+                            "farm-crack [cipher text] [crib] [m4] [not-clashing=walzenlage] [priors=file] [verify=message] [steckers=pairs] [engine=name] [threads=n] [slices=n]\n" +
+                            "\tDescription: cracks the message using all possible rotor orderings, in the background as a job\n" +
+                            "\tNote: cipher text and crib length must match, add m4 to search the four rotor naval Enigma\n" +
                             "\tExample: crack XJQWE HELLO\n" +
+                            "\tArgs:\n" +
+                            "\t\t[not-clashing=walzenlage] skips walzenlagen with a rotor in the same place as the given one, such as yesterday's B:I,II,III\n" +
+                            "\t\t[priors=file] runs the walzenlagen that came up most often first, the file holds [walzenlage] [weight] per line, such as B:I,II,III 12\n" +
+                            "\t\t[verify=message] deciphers the message from the crib on at every stop, and stops cracking once one reads as plaintext,\n" +
+                            "\t\t\tthen recovers the ring settings that decipher it best\n" +
+                            "\t\t[steckers=pairs] are stecker pairs already known, as for crack\n" +
+                            "\t\t[engine=name] is one of 'loops', 'energize', picked by a short trial on this host and menu if left out\n" +
+                            "\t\t[threads=n] is how many Bombes run at once, across every job, picked by a short trial on this host if left out\n" +
+                            "\t\t[slices=n] splits every walzenlage into n tasks, 1 to 26, defaults to enough to keep every thread busy\n" +
+                            "\tNote: trial results are kept in ~/.enigma-tuning.properties, tuning clear forgets them\n" +
+                            "day-crack [cipher text] [crib] [cipher text] [crib]...\n" +
+                            "\tDescription: cracks several messages of the same day together, keeping the walzenlagen whose stops agree on the plug board\n" +
+                            "\tNote: each cipher text and its crib must have the same length, the messages may start at any rotor position\n" +
+                            "\tExample: day-crack PTBJOEZLHAQSIZ WETTERVORHERSA LAWBDSMYPDYTCL KEINEBESONDERE\n" +
+                            "batch [jobs file] [output file]\n" +
+                            "\tDescription: cracks every job in a file, writing the results as JSON lines\n" +
+                            "\tNote: each line holds [cipher text] [crib] and optionally walzenlagen such as I,II,III or C:IV,V,I\n" +
+                            "\tExample: batch jobs.txt results.jsonl\n" +
+                            "crib-scan [corpus file] [cribs file] [results file] [max jobs]\n" +
+                            "\tDescription: places every crib wherever it can legally sit in every message, and cracks the placements with the most menu loops\n" +
+                            "\tNote: the corpus holds [name] [cipher text] or just [cipher text] per line, the cribs file one crib per line\n" +
+                            "\tExample: crib-scan corpus.txt cribs.txt results.jsonl 100\n" +
+                            "\tArgs:\n" +
+                            "\t\t[max jobs] is how many of the best placements to crack, defaults to 100\n" +
+                            "decrypt-day [key sheet] [messages file] [output file]\n" +
+                            "\tDescription: deciphers a day's traffic from the day keys and each message's indicator\n" +
+                            "\tNote: key sheet lines hold [day] [walzenlage] [rings] [ground] [steckers], such as 17 C:IV,V,I qdf xwb AB CE FG\n" +
+                            "\t\tmessage lines hold [day] [indicator] [cipher text]\n" +
+                            "\tExample: decrypt-day keys.txt traffic.txt plain.txt\n" +
+                            "tuning [clear]\n" +
+                            "\tDescription: shows this host's key in the farm-crack tuning profile, or forgets the profile\n" +
+                            "cache [directory|clear]\n" +
+                            "\tDescription: shows the farm-crack result cache, keeps it in a directory across runs, or clears it\n" +
+                            "\tExample: cache bombe-cache\n" +
+                            "reference-check [fraction]\n" +
+                            "\tDescription: shows or sets the fraction of messages and Bombe positions checked against the reference engine\n" +
+                            "\tNote: a mismatch fails the command, 0 turns checking off, start with -Denigma.verify=0.001 to check from the start\n" +
+                            "\tExample: reference-check 0.001\n" +
+                            "serve [port]\n" +
+                            "\tDescription: serves encode, crack and farm-crack requests over HTTP in the background, to this machine only\n" +
+                            "\tExample: serve 8080, then http://127.0.0.1:8080/encode?message=hello&rotors=B,I,II,III\n" +
+                            "banburismus [intercepts file] [threshold]\n" +
+                            "\tDescription: ranks walzenlagen by the repeats in a day's traffic, later farm-cracks only run the likely ones\n" +
+                            "\tNote: each line holds [indicator] [cipher text], the indicator being the message's rotor rotations\n" +
+                            "\tExample: banburismus intercepts.txt 20\n" +
+                            "\tArgs:\n" +
+                            "\t\t[threshold] is how many decibans below the best a walzenlage may score and be kept, defaults to 20\n" +
+                            "\tNote: banburismus clear makes farm-crack run every walzenlage again\n" +
+                            "zygalski [indicators file] [max shown]\n" +
+                            "\tDescription: finds the walzenlage and ring settings from doubly enciphered message keys, later farm-cracks only run the walzenlagen found\n" +
+                            "\tNote: each line holds [ground setting] [enciphered key], the key typed twice at the ground setting, e.g. WXC KYHMHK\n" +
+                            "\tExample: zygalski indicators.txt 10\n" +
+                            "\tArgs:\n" +
+                            "\t\t[max shown] is how many ring settings to list per walzenlage, defaults to 10\n" +
+                            "depth [corpus file] [output file] [max offset]\n" +
+                            "\tDescription: finds groups of messages enciphered in depth, at the same key or a few key presses apart\n" +
+                            "\tNote: each line holds [name] [cipher text] or just [cipher text], groups are written as [name] [position] [cipher text]\n" +
+                            "\tExample: depth corpus.txt depths.txt 10\n" +
+                            "\tArgs:\n" +
+                            "\t\t[max offset] is how many key presses apart messages may start, defaults to 10\n" +
+                            "farm-stats\n" +
+                            "\tDescription: outputs per walzenlage counters and timings of the last farm-crack\n" +
+                            "distributed-crack [cipher text] [crib] [workers] [port]\n" +
+                            "\tDescription: cracks the message using all possible rotor orderings, spread over worker processes\n" +
+                            "\tNote: [workers] local worker JVMs are started, more can join from other hosts with\n" +
+                            "\t\tjava -cp enigma.jar FarmWorker [host] [port]\n" +
+                            "\tExample: distributed-crack XJQWE HELLO 4 9000\n" +
+                            "\tArgs:\n" +
+                            "\t\t[workers] is the number of local workers to start, defaults to 2\n" +
+                            "\t\t[port] is the port to listen on for workers, defaults to any free port\n" +
+                            "jobs\n" +
+                            "\tDescription: lists the crack and farm-crack jobs, with their stops and tasks so far\n" +
+                            "status [id]\n" +
+                            "\tDescription: shows how far a job has got\n" +
+                            "results [id]\n" +
+                            "\tDescription: outputs the statistics and stops of a finished or cancelled job\n" +
+                            "cancel [id]\n" +
+                            "\tDescription: cancels a running job, keeping the stops it found so far\n" +
+                            "\tNote: jobs take turns on the compute threads, so a quick crack doesn't wait for a running farm-crack\n" +
                             "enigma\n" +
                             "\tDescription: Outputs current Enigma settings\n" +
                             "quit\n" +
@@ -70,12 +180,22 @@ public class Main {
                     final ArrayList<String> rotors = new ArrayList<>();
                     Collections.addAll(rotors, "I", "II", "III", "IV", "V");
 
-                    Rotor reflector = "B".equals(params[0]) ? new Rotor(Rotor.Mapping.ReflectorB, 0, 0) : new Rotor(Rotor.Mapping.ReflectorC, 0, 0);
-                    Rotor left = new Rotor(Rotor.Mapping.getMapping(rotors.indexOf(params[1])), 0, 0);
-                    Rotor middle = new Rotor(Rotor.Mapping.getMapping(rotors.indexOf(params[2])), 0, 0);
-                    Rotor right = new Rotor(Rotor.Mapping.getMapping(rotors.indexOf(params[3])), 0, 0);
+                    if(params.length == 5) {
+                        Rotor reflector = "B-thin".equals(params[0]) ? new Rotor(Rotor.Mapping.ReflectorBThin, 0, 0) : new Rotor(Rotor.Mapping.ReflectorCThin, 0, 0);
+                        Rotor greek = "Beta".equals(params[1]) ? new Rotor(Rotor.Mapping.Beta, 0, 0) : new Rotor(Rotor.Mapping.Gamma, 0, 0);
+                        Rotor left = new Rotor(Rotor.Mapping.getMapping(rotors.indexOf(params[2])), 0, 0);
+                        Rotor middle = new Rotor(Rotor.Mapping.getMapping(rotors.indexOf(params[3])), 0, 0);
+                        Rotor right = new Rotor(Rotor.Mapping.getMapping(rotors.indexOf(params[4])), 0, 0);
 
-                    enigma.setRotors(reflector, left, middle, right);
+                        enigma.setRotors(reflector, greek, left, middle, right);
+                    } else {
+                        Rotor reflector = "B".equals(params[0]) ? new Rotor(Rotor.Mapping.ReflectorB, 0, 0) : new Rotor(Rotor.Mapping.ReflectorC, 0, 0);
+                        Rotor left = new Rotor(Rotor.Mapping.getMapping(rotors.indexOf(params[1])), 0, 0);
+                        Rotor middle = new Rotor(Rotor.Mapping.getMapping(rotors.indexOf(params[2])), 0, 0);
+                        Rotor right = new Rotor(Rotor.Mapping.getMapping(rotors.indexOf(params[3])), 0, 0);
+
+                        enigma.setRotors(reflector, left, middle, right);
+                    }
                     System.out.println("Enigma config: "+enigma.getConfiguration());
                 } else if(cmd.startsWith("set-steckers")) {
                     enigma.setPlugBoard(cmd.substring("set-steckers ".length()));
@@ -83,38 +203,329 @@ public class Main {
                 } else if(cmd.startsWith("set-rings")) {
                     String[] params = cmd.substring("set-rings ".length()).split("\\s+");
 
-                    char l = Character.toLowerCase(params[0].charAt(0));
-                    char m = Character.toLowerCase(params[1].charAt(0));
-                    char r = Character.toLowerCase(params[2].charAt(0));
+                    if(params.length == 4) {
+                        char g = Character.toLowerCase(params[0].charAt(0));
+                        char l = Character.toLowerCase(params[1].charAt(0));
+                        char m = Character.toLowerCase(params[2].charAt(0));
+                        char r = Character.toLowerCase(params[3].charAt(0));
 
-                    enigma.setRings(Utils.a2i(l), Utils.a2i(m), Utils.a2i(r));
+                        enigma.setRings(Utils.a2i(g), Utils.a2i(l), Utils.a2i(m), Utils.a2i(r));
+                    } else {
+                        char l = Character.toLowerCase(params[0].charAt(0));
+                        char m = Character.toLowerCase(params[1].charAt(0));
+                        char r = Character.toLowerCase(params[2].charAt(0));
+
+                        enigma.setRings(Utils.a2i(l), Utils.a2i(m), Utils.a2i(r));
+                    }
                     System.out.println("Enigma config: "+enigma.getConfiguration());
                 } else if(cmd.startsWith("set-rotations")) {
                     String[] params = cmd.substring("set-rotations ".length()).split("\\s+");
 
-                    char l = Character.toLowerCase(params[0].charAt(0));
-                    char m = Character.toLowerCase(params[1].charAt(0));
-                    char r = Character.toLowerCase(params[2].charAt(0));
+                    if(params.length == 4) {
+                        char g = Character.toLowerCase(params[0].charAt(0));
+                        char l = Character.toLowerCase(params[1].charAt(0));
+                        char m = Character.toLowerCase(params[2].charAt(0));
+                        char r = Character.toLowerCase(params[3].charAt(0));
 
-                    enigma.setRotations(Utils.a2i(l), Utils.a2i(m), Utils.a2i(r));
+                        enigma.setRotations(Utils.a2i(g), Utils.a2i(l), Utils.a2i(m), Utils.a2i(r));
+                    } else {
+                        char l = Character.toLowerCase(params[0].charAt(0));
+                        char m = Character.toLowerCase(params[1].charAt(0));
+                        char r = Character.toLowerCase(params[2].charAt(0));
+
+                        enigma.setRotations(Utils.a2i(l), Utils.a2i(m), Utils.a2i(r));
+                    }
                     System.out.println("Enigma config: "+enigma.getConfiguration());
+                } else if(cmd.startsWith("day-crack")) {
+                    String[] params = cmd.substring("day-crack ".length()).split("\\s+");
+
+                    String[] cipherTexts = new String[params.length / 2];
+                    String[] cribs = new String[params.length / 2];
+                    for(int i = 0; i < cipherTexts.length; i++) {
+                        cipherTexts[i] = params[2 * i];
+                        cribs[i] = params[2 * i + 1];
+                    }
+
+                    long start = System.nanoTime();
+
+                    ArrayList<DayKeySolver.Solution> solutions;
+                    try(DayKeySolver solver = new DayKeySolver(Runtime.getRuntime().availableProcessors())) {
+                        solutions = solver.solve(cipherTexts, cribs, walzenlagen != null ? walzenlagen : BombeFarm.getWalzenlagen());
+                    }
+
+                    long elapsed = (System.nanoTime() - start) / 1_000_000;
+                    System.out.println("Cracked "+cipherTexts.length+" messages in "+elapsed+"ms");
+                    System.out.println("Walzenlagen, rotor rotations of each message, and plug board deductions:");
+                    int index = 1;
+                    for(DayKeySolver.Solution solution : solutions) {
+                        System.out.println(index+") "+solution);
+                        index++;
+                    }
+                } else if(cmd.startsWith("batch")) {
+                    String[] params = cmd.substring("batch ".length()).split("\\s+");
+
+                    long start = System.nanoTime();
+
+                    int jobs;
+                    try(BatchRunner runner = new BatchRunner(Runtime.getRuntime().availableProcessors());
+                        BufferedReader in = new BufferedReader(new FileReader(params[0]));
+                        Writer out = new BufferedWriter(new FileWriter(params[1]))) {
+                        jobs = runner.run(in, out);
+                    }
+
+                    long elapsed = (System.nanoTime() - start) / 1_000_000;
+                    System.out.println("Cracked "+jobs+" jobs in "+elapsed+"ms, results written to "+params[1]);
+                } else if(cmd.startsWith("crib-scan")) {
+                    String[] params = cmd.substring("crib-scan ".length()).split("\\s+");
+                    int maxJobs = params.length > 3 ? Integer.parseInt(params[3]) : 100;
+
+                    long start = System.nanoTime();
+
+                    CribScanner cribScanner;
+                    try(BufferedReader in = new BufferedReader(new FileReader(params[0]))) {
+                        cribScanner = CribScanner.read(in);
+                    }
+
+                    ArrayList<String> cribs = new ArrayList<>();
+                    try(BufferedReader in = new BufferedReader(new FileReader(params[1]))) {
+                        String line;
+                        while((line = in.readLine()) != null) {
+                            line = line.trim().toLowerCase();
+                            if(!line.isEmpty() && !line.startsWith("#")) {
+                                cribs.add(line);
+                            }
+                        }
+                    }
+
+                    ArrayList<CribScanner.Placement> placements = cribScanner.scan(cribs, 1);
+                    System.out.println("Found "+placements.size()+" placements with loops of "+cribs.size()+" cribs in "+cribScanner.size()+" messages");
+
+                    ArrayList<BatchJob> jobs = new ArrayList<>();
+                    for(int i = 0; i < Math.min(maxJobs, placements.size()); i++) {
+                        CribScanner.Placement placement = placements.get(i);
+                        jobs.add(cribScanner.toJob(i + 1, placement, walzenlagen != null ? walzenlagen : BombeFarm.getWalzenlagen()));
+
+                        if(i < 10) {
+                            System.out.println((i + 1)+") "+cribScanner.getName(placement.message)+" at "+placement.offset+": "+placement.crib+", "+placement.loops+" loops");
+                        }
+                    }
+
+                    try(BatchRunner runner = new BatchRunner(Runtime.getRuntime().availableProcessors());
+                        Writer out = new BufferedWriter(new FileWriter(params[2]))) {
+                        runner.run(jobs, out);
+                    }
+
+                    long elapsed = (System.nanoTime() - start) / 1_000_000;
+                    System.out.println("Cracked "+jobs.size()+" placements in "+elapsed+"ms, results written to "+params[2]);
+                } else if(cmd.startsWith("decrypt-day")) {
+                    String[] params = cmd.substring("decrypt-day ".length()).split("\\s+");
+
+                    long start = System.nanoTime();
+
+                    int messages;
+                    long characters;
+                    try(TrafficDecryptor decryptor = new TrafficDecryptor(Runtime.getRuntime().availableProcessors());
+                        BufferedReader sheet = new BufferedReader(new FileReader(params[0]));
+                        BufferedReader in = new BufferedReader(new FileReader(params[1]));
+                        Writer out = new BufferedWriter(new FileWriter(params[2]))) {
+                        decryptor.readKeySheet(sheet);
+                        messages = decryptor.run(in, out);
+                        characters = decryptor.getCharacters();
+                    }
+
+                    long elapsed = (System.nanoTime() - start) / 1_000_000;
+                    System.out.println("Deciphered "+messages+" messages, "+characters+" characters in "+elapsed+"ms, written to "+params[2]);
+                } else if(cmd.startsWith("tuning")) {
+                    if("clear".equals(cmd.substring("tuning".length()).trim())) {
+                        tuner.clear();
+                        System.out.println("Tuning profile cleared");
+                    } else {
+                        System.out.println("Tuning profile: "+BombeTuner.getDefaultProfile()+", Host: "+BombeTuner.getHostKey());
+                    }
+                } else if(cmd.startsWith("cache")) {
+                    String param = cmd.substring("cache".length()).trim();
+
+                    if("clear".equals(param)) {
+                        cache.clear();
+                    } else if(!param.isEmpty()) {
+                        cache = new BombeCache(1024, Paths.get(param));
+                    }
+
+                    System.out.println("Cache: "+cache);
+                } else if(cmd.startsWith("reference-check")) {
+                    String param = cmd.substring("reference-check".length()).trim();
+
+                    if(!param.isEmpty()) {
+                        ReferenceEngine.setSamplingRate(Double.parseDouble(param));
+                    }
+
+                    System.out.println("Reference checks: rate="+ReferenceEngine.getSamplingRate()+", checked="+ReferenceEngine.getSamples());
+                } else if(cmd.startsWith("serve")) {
+                    String param = cmd.substring("serve".length()).trim();
+
+                    if(server != null) {
+                        System.out.println("Already listening on "+server.getUrl());
+                    } else {
+                        server = new EnigmaServer(param.isEmpty() ? 8080 : Integer.parseInt(param), Runtime.getRuntime().availableProcessors());
+                        System.out.println("Listening on "+server.getUrl());
+                    }
+                } else if(cmd.startsWith("banburismus")) {
+                    String[] params = cmd.substring("banburismus".length()).trim().split("\\s+");
+
+                    if("clear".equals(params[0])) {
+                        walzenlagen = null;
+                        System.out.println("farm-crack runs every walzenlage");
+                    } else {
+                        Banburismus banburismus;
+                        try(BufferedReader in = new BufferedReader(new FileReader(params[0]))) {
+                            banburismus = Banburismus.read(in);
+                        }
+
+                        double[] scores = banburismus.scoreRightRotors();
+                        System.out.println("Aligned "+banburismus.getPairs()+" pairs of messages");
+                        System.out.println("Right rotor scores in decibans:");
+                        for(int i = 0; i < scores.length; i++) {
+                            System.out.println("\t"+Rotor.Mapping.getMapping(i)+": "+String.format("%.1f", scores[i]));
+                        }
+
+                        walzenlagen = banburismus.rankWalzenlagen(params.length > 1 ? Double.parseDouble(params[1]) : 20);
+                        System.out.println("farm-crack now runs "+walzenlagen.size()+" walzenlagen, most likely first");
+                    }
+                } else if(cmd.startsWith("zygalski")) {
+                    String[] params = cmd.substring("zygalski ".length()).split("\\s+");
+                    int shown = params.length > 1 ? Integer.parseInt(params[1]) : 10;
+
+                    ZygalskiSheets sheets;
+                    try(BufferedReader in = new BufferedReader(new FileReader(params[0]))) {
+                        sheets = ZygalskiSheets.read(in);
+                    }
+
+                    long start = System.nanoTime();
+                    ArrayList<int[]> tried = walzenlagen != null ? walzenlagen : BombeFarm.getWalzenlagen();
+                    int[][] survivors = sheets.stack(tried);
+                    long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+                    System.out.println("Stacked "+sheets.getFemales()+" females on "+tried.size()+" walzenlagen in "+elapsed+"ms");
+
+                    ArrayList<int[]> found = new ArrayList<>();
+                    for(int i = 0; i < tried.size(); i++) {
+                        int count = ZygalskiSheets.count(survivors[i]);
+                        if(count == 0) {
+                            continue;
+                        }
+
+                        found.add(tried.get(i));
+                        System.out.println(BombeFarm.getConfiguration(tried.get(i))+": "+count+" ring settings");
+                        for(String rings : ZygalskiSheets.getRings(survivors[i], shown)) {
+                            System.out.println("\tRings "+rings);
+                        }
+                    }
+
+                    if(!found.isEmpty()) {
+                        walzenlagen = found;
+                        System.out.println("farm-crack now runs "+walzenlagen.size()+" walzenlagen");
+                    }
+                } else if(cmd.startsWith("depth")) {
+                    String[] params = cmd.substring("depth ".length()).split("\\s+");
+
+                    long start = System.nanoTime();
+
+                    DepthFinder finder;
+                    try(BufferedReader in = new BufferedReader(new FileReader(params[0]))) {
+                        finder = DepthFinder.read(in);
+                    }
+
+                    ArrayList<DepthFinder.Depth> depths = finder.findDepths(params.length > 2 ? Integer.parseInt(params[2]) : 10, 40, 30);
+                    ArrayList<ArrayList<int[]>> groups = finder.findGroups(depths);
+
+                    try(Writer out = new BufferedWriter(new FileWriter(params[1]))) {
+                        finder.writeGroups(groups, out);
+                    }
+
+                    long elapsed = (System.nanoTime() - start) / 1_000_000;
+                    System.out.println("Compared "+finder.size()+" messages in "+elapsed+"ms, found "+depths.size()+" pairs in depth");
+                    System.out.println("Wrote "+groups.size()+" groups to "+params[1]);
+                } else if("farm-stats".equals(cmd)) {
+                    System.out.println(lastFarm == null || lastFarm.getMetrics() == null ? "No farm-crack has run yet" : lastFarm.getMetrics().toString());
                 } else if("enigma".equals(cmd)) {
                     System.out.println("Enigma config: "+enigma.getConfiguration());
                 } else if("quit".equals(cmd)) {
+                  background.shutdown();
+                  if(server != null) {
+                      server.stop();
+                  }
                   break;
+                } else if("jobs".equals(cmd)) {
+                    if(background.getJobs().isEmpty()) {
+                        System.out.println("No jobs have run yet");
+                    }
+                    for(JobManager.Job job : background.getJobs()) {
+                        System.out.println(job);
+                    }
+                } else if(cmd.startsWith("status")) {
+                    System.out.println(background.get(Integer.parseInt(cmd.substring("status".length()).trim())));
+                } else if(cmd.startsWith("cancel")) {
+                    int id = Integer.parseInt(cmd.substring("cancel".length()).trim());
+                    System.out.println(background.cancel(id) ? "Cancelling job "+id : "Job "+id+" has already ended");
+                } else if(cmd.startsWith("results")) {
+                    JobManager.Job job = background.get(Integer.parseInt(cmd.substring("results".length()).trim()));
+
+                    System.out.println(job);
+                    if(job.getResults() == null) {
+                        if(job.getError() != null) {
+                            job.getError().printStackTrace();
+                        }
+                        continue;
+                    }
+
+                    for(String line : job.getSummary()) {
+                        System.out.println(line);
+                    }
+
+                    System.out.println("Possible rotor rotations, plug board deductions, and rotor orders:");
+                    int index = 1;
+                    for(String[] result : job.getResults()) {
+                        System.out.println(index+") "+result[0]+": "+result[1]+result[2]);
+                        index++;
+                    }
                 } else if(cmd.startsWith("encode")) {
                     System.out.println(enigma.encode(cmd.substring("encode ".length())));
                 } else if(cmd.startsWith("crack")) {
                     String[] params = cmd.substring("crack ".length()).split("\\s+");
 
+                    // A copy, so set-rotors while the job runs doesn't change it
+                    Enigma rotors = MachineState.toEnigma(MachineState.fromEnigma(enigma), MachineState.createPlugBoard());
+                    PlugBoard known = params.length > 2 && params[2].startsWith("steckers=") ?
+                            new PlugBoard(params[2].substring("steckers=".length()).replace(',', ' ')) : null;
+
+                    // Fails here rather than in the background if the crib doesn't fit
+                    new Bombe(rotors, params[0], params[1], true);
+
+                    JobManager.Job job = background.submit("crack "+params[0]+" "+params[1], j -> background.runBombe(j, () -> {
+                        Bombe bombe = new Bombe(rotors, params[0], params[1], true);
+                        if(known != null) {
+                            bombe.setKnownSteckers(known);
+                        }
+                        return bombe;
+                    }, 26));
+                    System.out.println("Started job "+job.id);
+                } else if(cmd.startsWith("multi-crack")) {
+                    String[] params = cmd.substring("multi-crack ".length()).split("\\s+");
+
                     long start = System.nanoTime();
 
-                    Bombe bombe = new Bombe(enigma, params[0], params[1], true);
+                    MultiMenuBombe bombe = new MultiMenuBombe(enigma, true);
+                    bombe.addMenu(params[0], params[1], 0);
+                    for(int i = 2; i + 2 < params.length; i += 3) {
+                        bombe.addMenu(params[i], params[i + 1], Integer.parseInt(params[i + 2]));
+                    }
+
                     ArrayList<String[]> results = bombe.run();
 
                     long elapsed = (System.nanoTime() - start) / 1_000_000;
 
-                    System.out.println("Cracked in "+elapsed+"ms");
+                    System.out.println("Cracked in "+elapsed+"ms using "+bombe.getSubgraphs()+" subgraphs");
+                    System.out.println("Bombe statistics: "+bombe.getStatistics());
                     System.out.println("Possible rotor rotations and plug board deductions:");
                     int index = 1;
                     for(String[] result : results) {
@@ -124,20 +535,116 @@ public class Main {
                 } else if(cmd.startsWith("farm-crack")) {
                     String[] params = cmd.substring("farm-crack ".length()).split("\\s+");
 
+                    boolean fourRotor = false;
+                    int[] previous = null;
+                    ToDoubleFunction<int[]> priors = null;
+                    String message = null;
+                    BombeTuner.Tuning tuning = new BombeTuner.Tuning();
+                    PlugBoard known = null;
+                    for(int i = 2; i < params.length; i++) {
+                        if("m4".equalsIgnoreCase(params[i])) {
+                            fourRotor = true;
+                        } else if(params[i].startsWith("not-clashing=")) {
+                            previous = BatchJob.parseWalzenlage(params[i].substring("not-clashing=".length()));
+                        } else if(params[i].startsWith("priors=")) {
+                            try(BufferedReader in = new BufferedReader(new FileReader(params[i].substring("priors=".length())))) {
+                                priors = BombeFarm.readPriors(in);
+                            }
+                        } else if(params[i].startsWith("verify=")) {
+                            message = params[i].substring("verify=".length());
+                        } else if(params[i].startsWith("steckers=")) {
+                            known = new PlugBoard(params[i].substring("steckers=".length()).replace(',', ' '));
+                        } else if(params[i].startsWith("engine=")) {
+                            tuning.engine = Bombe.Engine.valueOf(params[i].substring("engine=".length()).toUpperCase());
+                        } else if(params[i].startsWith("threads=")) {
+                            tuning.threads = Integer.parseInt(params[i].substring("threads=".length()));
+                        } else if(params[i].startsWith("slices=")) {
+                            tuning.slices = Integer.parseInt(params[i].substring("slices=".length()));
+                        } else {
+                            throw new IllegalArgumentException("Unknown option: " + params[i]);
+                        }
+                    }
+
+                    int tasks = fourRotor ? 26 * BombeFarm.getFourRotorWalzenlagen().size() : walzenlagen != null ? walzenlagen.size() : BombeFarm.getWalzenlagen().size();
+                    BombeFarm farm = new BombeFarm(params[0], params[1], true, fourRotor, background.getPool());
+                    farm.setKnownSteckers(known);
+                    farm.setCache(cache);
+                    if(!fourRotor) {
+                        farm.setWalzenlagen(walzenlagen);
+                    }
+                    if(previous != null) {
+                        farm.setExclusions(BombeFarm.clashesWith(previous));
+                    }
+                    farm.setPriors(priors);
+                    PlaintextVerifier verifier = message != null ? new PlaintextVerifier(message) : null;
+                    farm.setVerifier(verifier);
+                    lastFarm = farm;
+
+                    JobManager.Job job = background.submit("farm-crack "+params[0]+" "+params[1], j -> {
+                        // Tuned in the job so the trials don't hold up the REPL. While other jobs run, a thread trial
+                        // would only time them, so the farm takes the pool as it is and the profile is left alone
+                        if(tuning.threads == 0 && background.isBusy(j)) {
+                            tuning.threads = background.getPool().getMaximumPoolSize();
+                        }
+                        tuner.tune(tuning, params[0], params[1], true, tasks);
+                        j.addSummary("Tuning: "+tuning);
+
+                        if(!background.setThreads(tuning.threads, j)) {
+                            j.addSummary("Other jobs are running, the farm shares their "+background.getPool().getMaximumPoolSize()+" compute threads");
+                        }
+                        farm.setEngine(tuning.engine);
+                        farm.setSlices(tuning.slices);
+
+                        j.setProgress(farm::getStopCount, farm::getCompletedTasks, farm::getTasks);
+                        j.setCanceller(farm::cancel);
+
+                        ArrayList<String[]> results = farm.run();
+
+                        FarmMetrics metrics = farm.getMetrics();
+                        j.addSummary("Farm statistics: Cache hits="+metrics.cacheHits+", Max queue depth="+metrics.maxQueueDepth+", "+metrics.total);
+                        if(metrics.getSlowest() != null) {
+                            j.addSummary("Slowest walzenlage: "+metrics.getSlowest().configuration+", "+metrics.getSlowest());
+                        }
+
+                        if(farm.getVerified() != null) {
+                            String[] verified = farm.getVerified();
+                            j.addSummary("Verified: "+verified[0]+": "+verified[1]+verified[2]);
+                            j.addSummary("Recovered key: "+MachineState.toString(verifier.recoverKey(farm.getVerifiedWalzenlage(), verified)));
+                        }
+
+                        return results;
+                    });
+                    System.out.println("Started job "+job.id);
+                } else if(cmd.startsWith("distributed-crack")) {
+                    String[] params = cmd.substring("distributed-crack ".length()).split("\\s+");
+
+                    int workers = params.length > 2 ? Integer.parseInt(params[2]) : 2;
+                    int port = params.length > 3 ? Integer.parseInt(params[3]) : 0;
+
                     long start = System.nanoTime();
 
-                    BombeFarm farm = new BombeFarm(params[0], params[1], true);
-                    ArrayList<String[]> results = farm.run();
+                    ArrayList<Process> processes = new ArrayList<>();
+                    try(FarmCoordinator coordinator = new FarmCoordinator(port, params[0], params[1], true, 26)) {
+                        System.out.println("Waiting for workers on port " + coordinator.getPort());
 
-                    long elapsed = (System.nanoTime() - start) / 1_000_000;
-                    System.out.println("Cracked in "+elapsed+"ms");
+                        for(int i = 0; i < workers; i++) {
+                            processes.add(FarmCoordinator.startLocalWorker(coordinator.getPort()));
+                        }
 
-                    System.out.println("Possible rotor rotations, plug board deductions, and rotor orders:");
-                    int index = 1;
-                    for(String[] result : results) {
-                        System.out.println(index+") "+result[0]+": "+result[1]+result[2]);
-                        index++;
+                        System.out.println("Possible rotor rotations, plug board deductions, and rotor orders:");
+                        int[] index = {1};
+                        coordinator.run(result -> {
+                            System.out.println(index[0] + ") " + result[0] + ": " + result[1] + result[2]);
+                            index[0]++;
+                        });
+                    } finally {
+                        for(Process process : processes) {
+                            process.destroy();
+                        }
                     }
+
+                    long elapsed = (System.nanoTime() - start) / 1_000_000;
+                    System.out.println("Cracked in "+elapsed+"ms");
                 } else {
                     System.out.println("Command not found");
                 }
@@ -0,0 +1,284 @@
+/**
+ * Many independent Enigmas stepped and encoded together, for bulk work such as re-enciphering an archive of
+ * traffic or trial deciphering a message under thousands of candidate keys.
+ *
+ * Each machine is a lane. Rather than one {@link Enigma} object graph per message, the lanes' rotor positions
+ * and plug boards sit in primitive arrays, one entry or one run of 26 entries per lane, and every key press
+ * goes over all the lanes in one tight loop. A key press then costs five table lookups per lane:
+ * - the plug board
+ * - the right rotor, from a table of every mapping at every core position (rotation - ring offset)
+ * - the rest of the scrambler, middle, left, greek rotor and reflector there and back again, which is a
+ *   single permutation per lane that only changes when the middle rotor steps, so it is built once every
+ *   26 key presses
+ * - the right rotor on the way back, and the plug board again
+ *
+ * A lane keeps its position between calls, like an {@link Enigma} does, so long messages can be fed in parts.
+ */
+public class MultiLaneEnigma {
+
+    // Every mapping at every core position, indexed 676 * ordinal + 26 * core + letter
+    private static final byte[] FORWARDS = new byte[Rotor.Mapping.values().length * 676];
+    private static final byte[] BACKWARDS = new byte[Rotor.Mapping.values().length * 676];
+
+    // The rotation at which each mapping turns over its neighbor, or -1
+    private static final int[] NOTCHES = new int[Rotor.Mapping.values().length];
+
+    static {
+        for(Rotor.Mapping mapping : Rotor.Mapping.values()) {
+            String wiring = mapping.getWiring();
+
+            for(int core = 0; core < 26; core++) {
+                for(int letter = 0; letter < 26; letter++) {
+                    int mapped = (Utils.a2i(wiring.charAt((letter + core) % 26)) + 26 - core) % 26;
+                    FORWARDS[676 * mapping.ordinal() + 26 * core + letter] = (byte) mapped;
+                    BACKWARDS[676 * mapping.ordinal() + 26 * core + mapped] = (byte) letter;
+                }
+            }
+
+            NOTCHES[mapping.ordinal()] = mapping.getTurnOver() == 0 ? -1 : Utils.a2i(mapping.getTurnOver());
+        }
+    }
+
+    private final int lanes;
+
+    // The states the lanes were set to, their rotations are kept in the arrays below as they step
+    private final long[] states;
+
+    private final int[] rightRotations, middleRotations, leftRotations;
+    private final int[] rightNotches, middleNotches;
+
+    // 676 * ordinal + 26 * core of each lane's right rotor, the start of its table at its current position
+    private final int[] rightTables;
+
+    // The plug boards and the permutations past the right rotor, 26 entries per lane
+    private final byte[] plugBoards;
+    private final byte[] scramblers;
+
+    /**
+     * Creates lanes that all hold a three rotor Enigma with rotors B, I, II, III at 'a' and no steckers
+     * @param lanes The number of lanes
+     */
+    public MultiLaneEnigma(int lanes) {
+        if(lanes < 1) {
+            throw new IllegalArgumentException("At least one lane is needed: " + lanes);
+        }
+
+        this.lanes = lanes;
+        this.states = new long[lanes];
+        this.rightRotations = new int[lanes];
+        this.middleRotations = new int[lanes];
+        this.leftRotations = new int[lanes];
+        this.rightNotches = new int[lanes];
+        this.middleNotches = new int[lanes];
+        this.rightTables = new int[lanes];
+        this.plugBoards = new byte[26 * lanes];
+        this.scramblers = new byte[26 * lanes];
+
+        long state = MachineState.create(Rotor.Mapping.ReflectorB, null, Rotor.Mapping.I, Rotor.Mapping.II, Rotor.Mapping.III);
+        byte[] plugBoard = MachineState.createPlugBoard();
+        for(int lane = 0; lane < lanes; lane++) {
+            setLane(lane, state, plugBoard);
+        }
+    }
+
+    /**
+     * @return the number of lanes
+     */
+    public int getLanes() {
+        return lanes;
+    }
+
+    /**
+     * Sets up one lane
+     * @param lane The lane
+     * @param state The packed state to start from, see {@link MachineState}
+     * @param plugBoard The plug board, see {@link MachineState#createPlugBoard(PlugBoard)}
+     */
+    public void setLane(int lane, long state, byte[] plugBoard) {
+        states[lane] = state;
+
+        rightRotations[lane] = MachineState.getRotation(state, MachineState.RIGHT);
+        middleRotations[lane] = MachineState.getRotation(state, MachineState.MIDDLE);
+        leftRotations[lane] = MachineState.getRotation(state, MachineState.LEFT);
+        rightNotches[lane] = NOTCHES[MachineState.getMapping(state, MachineState.RIGHT).ordinal()];
+        middleNotches[lane] = NOTCHES[MachineState.getMapping(state, MachineState.MIDDLE).ordinal()];
+
+        System.arraycopy(plugBoard, 0, plugBoards, 26 * lane, 26);
+
+        setRightTable(lane);
+        setScrambler(lane);
+    }
+
+    /**
+     * @param lane The lane
+     * @return the lane's state as it is now, after the key presses so far
+     */
+    public long getLane(int lane) {
+        long state = MachineState.withRotation(states[lane], MachineState.RIGHT, rightRotations[lane]);
+        state = MachineState.withRotation(state, MachineState.MIDDLE, middleRotations[lane]);
+        return MachineState.withRotation(state, MachineState.LEFT, leftRotations[lane]);
+    }
+
+    /**
+     * Presses a key on every lane at once
+     * @param letters One letter per lane, as an offset from 'a', replaced by the encoded letters
+     */
+    public void encode(byte[] letters) {
+        for(int lane = 0; lane < lanes; lane++) {
+            step(lane);
+            letters[lane] = (byte) encode(lane, letters[lane]);
+        }
+    }
+
+    /**
+     * Encodes one message per lane, the same way {@link Enigma#encode(String)} does, spaces are passed
+     * through. The lanes go through the messages in lockstep, each lane stops at the end of its message.
+     * @param messages The messages, at most one per lane, message i goes through lane i
+     * @return the encoded messages, in upper case
+     */
+    public String[] encode(String[] messages) {
+        if(messages.length > lanes) {
+            throw new IllegalArgumentException(messages.length + " messages for " + lanes + " lanes");
+        }
+
+        char[][] letters = new char[messages.length][];
+        long[] starts = new long[messages.length];
+        int length = 0;
+
+        for(int lane = 0; lane < messages.length; lane++) {
+            letters[lane] = messages[lane].toLowerCase().toCharArray();
+            starts[lane] = getLane(lane);
+            length = Math.max(length, letters[lane].length);
+        }
+
+        for(int i = 0; i < length; i++) {
+            for(int lane = 0; lane < messages.length; lane++) {
+                char[] message = letters[lane];
+
+                if(i < message.length && message[i] != ' ') {
+                    step(lane);
+                    message[i] = Utils.i2a(encode(lane, Utils.a2i(message[i])));
+                }
+            }
+        }
+
+        String[] encoded = new String[messages.length];
+        for(int lane = 0; lane < messages.length; lane++) {
+            encoded[lane] = new String(letters[lane]).toUpperCase();
+
+            if(ReferenceEngine.sample()) {
+                byte[] plugBoard = new byte[26];
+                System.arraycopy(plugBoards, 26 * lane, plugBoard, 0, 26);
+                ReferenceEngine.checkEncode("MultiLaneEnigma", starts[lane], plugBoard, messages[lane], encoded[lane]);
+            }
+        }
+
+        return encoded;
+    }
+
+    /**
+     * Encodes any number of messages, each under its own key, a batch of lanes at a time
+     * @param states The packed state each message starts from
+     * @param plugBoards The plug board of each message
+     * @param messages The messages
+     * @param lanes How many messages to encode together
+     * @return the encoded messages, in upper case
+     */
+    public static String[] encode(long[] states, byte[][] plugBoards, String[] messages, int lanes) {
+        String[] encoded = new String[messages.length];
+        MultiLaneEnigma enigma = new MultiLaneEnigma(Math.max(1, Math.min(lanes, messages.length)));
+
+        for(int first = 0; first < messages.length; first += enigma.lanes) {
+            int count = Math.min(enigma.lanes, messages.length - first);
+
+            for(int lane = 0; lane < count; lane++) {
+                enigma.setLane(lane, states[first + lane], plugBoards[first + lane]);
+            }
+
+            String[] batch = new String[count];
+            System.arraycopy(messages, first, batch, 0, count);
+            System.arraycopy(enigma.encode(batch), 0, encoded, first, count);
+        }
+
+        return encoded;
+    }
+
+    /**
+     * Steps one lane like a key press does, see {@link MachineState#step(long)}
+     */
+    private void step(int lane) {
+        int right = rightRotations[lane];
+        int middle = middleRotations[lane];
+
+        boolean rightAtNotch = right == rightNotches[lane];
+        boolean middleAtNotch = middle == middleNotches[lane];
+
+        rightRotations[lane] = right == 25 ? 0 : right + 1;
+        int table = rightTables[lane] + 26;
+        rightTables[lane] = table % 676 == 0 ? table - 676 : table;
+
+        if(rightAtNotch || middleAtNotch) {
+            middleRotations[lane] = middle == 25 ? 0 : middle + 1;
+
+            if(middleAtNotch) {
+                leftRotations[lane] = leftRotations[lane] == 25 ? 0 : leftRotations[lane] + 1;
+            }
+
+            setScrambler(lane);
+        }
+    }
+
+    private int encode(int lane, int letter) {
+        int offset = 26 * lane;
+        int table = rightTables[lane];
+
+        letter = plugBoards[offset + letter];
+        letter = FORWARDS[table + letter];
+        letter = scramblers[offset + letter];
+        letter = BACKWARDS[table + letter];
+        return plugBoards[offset + letter];
+    }
+
+    private void setRightTable(int lane) {
+        long state = states[lane];
+        int core = (26 + rightRotations[lane] - MachineState.getRing(state, MachineState.RIGHT)) % 26;
+
+        rightTables[lane] = 676 * MachineState.getMapping(state, MachineState.RIGHT).ordinal() + 26 * core;
+    }
+
+    /**
+     * Builds the permutation a letter goes through between leaving and coming back to the right rotor
+     */
+    private void setScrambler(int lane) {
+        long state = states[lane];
+        boolean fourRotor = MachineState.isFourRotor(state);
+
+        int middle = getTable(state, MachineState.MIDDLE, middleRotations[lane]);
+        int left = getTable(state, MachineState.LEFT, leftRotations[lane]);
+        int greek = fourRotor ? getTable(state, MachineState.GREEK, MachineState.getRotation(state, MachineState.GREEK)) : 0;
+        int reflector = 676 * MachineState.getMapping(state, MachineState.REFLECTOR).ordinal();
+
+        for(int letter = 0; letter < 26; letter++) {
+            int mapped = FORWARDS[middle + letter];
+            mapped = FORWARDS[left + mapped];
+            if(fourRotor) {
+                mapped = FORWARDS[greek + mapped];
+            }
+
+            mapped = FORWARDS[reflector + mapped];
+
+            if(fourRotor) {
+                mapped = BACKWARDS[greek + mapped];
+            }
+            mapped = BACKWARDS[left + mapped];
+            mapped = BACKWARDS[middle + mapped];
+
+            scramblers[26 * lane + letter] = (byte) mapped;
+        }
+    }
+
+    private static int getTable(long state, int slot, int rotation) {
+        int core = (26 + rotation - MachineState.getRing(state, slot)) % 26;
+        return 676 * MachineState.getMapping(state, slot).ordinal() + 26 * core;
+    }
+}
@@ -0,0 +1,296 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * A Bombe wired up with several menus at once, like the real Bombes were when a crib was short or poor
+ * in loops. The menus can be cribs from other messages enciphered a known number of key presses from the
+ * first, or simply the parts of a single crib that a {@link Bombe} throws away.
+ *
+ * Menus sharing a letter share that letter's cable, so every crib's edges are first joined into one graph,
+ * menus of messages in depth sharing key presses included.
+ * Each connected subgraph of it is then wired into its own Bombe, with its own test register, and they are
+ * all tested at the same rotor position. A position only stops if no subgraph contradicts it and their plug
+ * board deductions agree with each other, and is abandoned as soon as one does. Since every subgraph throws
+ * out wrong positions on its own, the false stops drop off sharply with each one added.
+ *
+ * Only what a subgraph proves counts though. A subgraph that merely finds its guessed test register partner
+ * holds up has proven nothing about the position (see {@link Bombe#isGuess()}), so it doesn't add the guess's
+ * deductions, which would clash with the true ones. If the guess is contradicted instead, every other partner
+ * is tried before the position is rejected. That way no subgraph rejects the right position, so the stops a
+ * plain {@link Bombe} makes there are still made. Subgraphs without loops, other than the one with the most,
+ * rarely prove anything and aren't wired up at all.
+ *
+ * Only the right rotor is stepped between edges, so as with a single menu, all the menus together shouldn't
+ * span more than a few dozen key presses.
+ */
+public class MultiMenuBombe {
+
+    private final Enigma enigma;
+    private final boolean check;
+
+    // Every menu's edges: cipher text letter, crib letter, and key press
+    private final StringBuilder cipherLetters = new StringBuilder();
+    private final StringBuilder cribLetters = new StringBuilder();
+    private final ArrayList<Integer> offsets = new ArrayList<>();
+
+    // The Bombes of each subgraph, the ones with the most loops first as they contradict the most positions
+    private ArrayList<Bombe> bombes;
+
+    private final BombeStatistics statistics;
+
+    /**
+     * @param enigma The Enigma, only its walzenlage is used
+     * @param check Whether to run the checking machine on stops
+     */
+    public MultiMenuBombe(Enigma enigma, boolean check) {
+        this.enigma = enigma;
+        this.check = check;
+        this.statistics = new BombeStatistics(new BombeEnigma(enigma).getConfiguration());
+    }
+
+    /**
+     * Adds a crib's edges to the menus
+     * @param cipherText The cipher text
+     * @param crib The crib, must be the same length as the cipher text
+     * @param offset How many key presses after the first crib's cipher text this cipher text starts
+     */
+    public void addMenu(String cipherText, String crib, int offset) {
+        if(cipherText.length() != crib.length()) {
+            throw new IllegalArgumentException("Cipher text and crib length must match.");
+        }
+
+        for(int i = 0; i < crib.length(); i++) {
+            char c = Character.toLowerCase(cipherText.charAt(i));
+            char p = Character.toLowerCase(crib.charAt(i));
+
+            if(c == p) {
+                throw new IllegalArgumentException("Crib and cipher text violate no character can be encoded as itself rule.");
+            }
+
+            // Messages in depth may put the same letters through the same key press, that edge is already wired
+            if(hasEdge(c, p, offset + i + 1)) {
+                continue;
+            }
+
+            cipherLetters.append(c);
+            cribLetters.append(p);
+            offsets.add(offset + i + 1);
+        }
+
+        bombes = null;
+    }
+
+    private boolean hasEdge(char a, char b, int offset) {
+        for(int i = 0; i < offsets.size(); i++) {
+            char c = cipherLetters.charAt(i);
+            char p = cribLetters.charAt(i);
+
+            if(offsets.get(i) == offset && (c == a && p == b || c == b && p == a)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Wires every subgraph of the joined menus into a Bombe
+     * @param minEdges The fewest edges a subgraph needs to be wired up, the subgraph with the most loops always is
+     * @return the Bombes, the ones with the most loops first
+     */
+    private ArrayList<Bombe> wire(int minEdges) {
+        int[] parent = new int[26];
+        for(int i = 0; i < 26; i++) {
+            parent[i] = i;
+        }
+
+        for(int i = 0; i < offsets.size(); i++) {
+            parent[find(parent, Utils.a2i(cipherLetters.charAt(i)))] = find(parent, Utils.a2i(cribLetters.charAt(i)));
+        }
+
+        // The edges making up each subgraph
+        HashMap<Integer, ArrayList<Integer>> subgraphs = new HashMap<>();
+        for(int i = 0; i < offsets.size(); i++) {
+            subgraphs.computeIfAbsent(find(parent, Utils.a2i(cribLetters.charAt(i))), k -> new ArrayList<>()).add(i);
+        }
+
+        // Most loops first, then most letters, then the one with the first letter, the same subgraph a plain Bombe keeps
+        ArrayList<ArrayList<Integer>> sorted = new ArrayList<>(subgraphs.values());
+        sorted.sort(Comparator.comparingInt((ArrayList<Integer> subgraph) -> -CribScanner.countLoops(getLetters(cipherLetters, subgraph), getLetters(cribLetters, subgraph)))
+                .thenComparingInt(subgraph -> -Integer.bitCount(getLetterMask(subgraph)))
+                .thenComparingInt(subgraph -> Integer.numberOfTrailingZeros(getLetterMask(subgraph))));
+
+        ArrayList<Bombe> bombes = new ArrayList<>();
+        for(ArrayList<Integer> subgraph : sorted) {
+            // Drop the small subgraphs and those without loops, but always keep the best one
+            if(!bombes.isEmpty() && (subgraph.size() < minEdges
+                    || CribScanner.countLoops(getLetters(cipherLetters, subgraph), getLetters(cribLetters, subgraph)) == 0)) {
+                continue;
+            }
+
+            bombes.add(new Bombe(enigma, getLetters(cipherLetters, subgraph), getLetters(cribLetters, subgraph),
+                    subgraph.stream().mapToInt(offsets::get).toArray(), check));
+        }
+
+        return bombes;
+    }
+
+    /**
+     * @return bit i is set if letter i is in the subgraph
+     */
+    private int getLetterMask(ArrayList<Integer> edges) {
+        int mask = 0;
+
+        for(int edge : edges) {
+            mask |= 1 << Utils.a2i(cipherLetters.charAt(edge));
+            mask |= 1 << Utils.a2i(cribLetters.charAt(edge));
+        }
+
+        return mask;
+    }
+
+    private static String getLetters(StringBuilder letters, ArrayList<Integer> edges) {
+        StringBuilder builder = new StringBuilder();
+
+        for(int edge : edges) {
+            builder.append(letters.charAt(edge));
+        }
+
+        return builder.toString();
+    }
+
+    private static int find(int[] parent, int i) {
+        while(parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+
+        return i;
+    }
+
+    /**
+     * Runs cracking operation, wiring up every subgraph with loops and at least three edges
+     * @return all stops, in the same format as {@link Bombe#run()}, the deductions being those of every subgraph together
+     */
+    public ArrayList<String[]> run() {
+        return run(0, Bombe.POSITIONS, 3);
+    }
+
+    /**
+     * Runs the cracking operation over a slice of the rotor positions, see {@link Bombe#run(int, int)}
+     * @param start the first position to test, inclusive
+     * @param end the last position to test, exclusive
+     * @param minEdges The fewest edges a subgraph with loops needs to be wired up
+     * @return all stops within the range
+     */
+    public ArrayList<String[]> run(int start, int end, int minEdges) {
+        if(offsets.isEmpty()) {
+            throw new IllegalStateException("A multi menu Bombe needs at least one menu");
+        }
+
+        this.bombes = wire(minEdges);
+
+        ArrayList<String[]> result = new ArrayList<>();
+        long startTime = System.nanoTime();
+
+        for(int position = start; position < end; position++) {
+            PlugBoard deductions = new PlugBoard();
+            PlugBoard guess = null;
+
+            // Abandon the position as soon as any subgraph contradicts it, or the subgraphs contradict each other
+            boolean stop = true;
+            for(int i = 0; i < bombes.size(); i++) {
+                Bombe bombe = bombes.get(i);
+                PlugBoard board = bombe.test(position);
+
+                if(bombe.isGuess()) {
+                    if(board != null) {
+                        // Nothing was deduced, though the first subgraph's guess is what a plain Bombe would stop with
+                        if(i == 0) {
+                            guess = board;
+                        }
+
+                        continue;
+                    }
+
+                    // The guess was contradicted, the position is only ruled out if every other partner is too
+                    board = checkEveryPartner(bombe);
+                    if(board != null && board.toString().isEmpty()) {
+                        continue;
+                    }
+                }
+
+                if(board == null || !deductions.merge(board)) {
+                    stop = false;
+                    break;
+                }
+            }
+
+            if(stop) {
+                // The guess only goes with the stop if it agrees with what was actually deduced
+                if(guess != null) {
+                    PlugBoard merged = new PlugBoard();
+                    merged.merge(deductions);
+
+                    if(merged.merge(guess)) {
+                        deductions = merged;
+                    }
+                }
+
+                result.add(new String[]{bombes.get(0).getIndicator(), deductions.toString(), statistics.configuration});
+            }
+        }
+
+        statistics.positions += end - start;
+        statistics.stops += result.size();
+        statistics.runNanos += System.nanoTime() - startTime;
+
+        return result;
+    }
+
+    /**
+     * Runs the checking machine on every stecker partner of a subgraph's test register, at the position last tested
+     * @return null if every partner is contradicted, the deductions if exactly one isn't, an empty plug board otherwise
+     */
+    private static PlugBoard checkEveryPartner(Bombe bombe) {
+        PlugBoard stecker = null;
+
+        for(int pair = 0; pair < 26; pair++) {
+            PlugBoard board = bombe.checkingMachine(pair);
+
+            if(board != null) {
+                if(stecker != null) {
+                    return new PlugBoard();
+                }
+                stecker = board;
+            }
+        }
+
+        return stecker;
+    }
+
+    /**
+     * @return how many subgraphs the last run wired up, 0 before the first run
+     */
+    public int getSubgraphs() {
+        return bombes == null ? 0 : bombes.size();
+    }
+
+    /**
+     * @return the work done so far, with the energize calls and checking machine runs of every subgraph added up
+     */
+    public BombeStatistics getStatistics() {
+        BombeStatistics total = statistics.copy();
+
+        if(bombes != null) {
+            for(Bombe bombe : bombes) {
+                total.energizeCalls += bombe.getStatistics().energizeCalls;
+                total.wiresLit += bombe.getStatistics().wiresLit;
+                total.checkingMachineRuns += bombe.getStatistics().checkingMachineRuns;
+            }
+        }
+
+        return total;
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Verifies a Bombe stop by deciphering the whole message with it and checking that the result reads like
+ * language rather than noise, using the index of coincidence: the chance that two letters picked from the
+ * text are the same. That's about 0.038 for random letters and well above 0.06 for German or English.
+ *
+ * The Bombe ignores the rings, so the middle and right rings are recovered first by trying every key class
+ * the stop's rotations belong to (see {@link CanonicalKey}), a couple of hundred decipherments for a message
+ * of a hundred letters. The Bombe only deduces steckers for letters on its menu, so a true stop still won't
+ * decipher the message perfectly, but it deciphers enough of it to stand out.
+ */
+public class PlaintextVerifier implements BombeFarm.Verifier {
+
+    public static final double DEFAULT_THRESHOLD = 0.05;
+
+    private final String cipherText;
+    private final double threshold;
+
+    /**
+     * @param cipherText The message, starting where the crib starts, since that's where a stop's rotations are for
+     */
+    public PlaintextVerifier(String cipherText) {
+        this(cipherText, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param cipherText The message, starting where the crib starts, since that's where a stop's rotations are for
+     * @param threshold The lowest index of coincidence accepted as plaintext
+     */
+    public PlaintextVerifier(String cipherText, double threshold) {
+        this.cipherText = cipherText.replaceAll("[^a-zA-Z]", "").toLowerCase();
+        this.threshold = threshold;
+    }
+
+    @Override
+    public boolean verify(int[] walzenlage, String[] stop) {
+        return getIndexOfCoincidence(decrypt(walzenlage, stop)) >= threshold;
+    }
+
+    /**
+     * Deciphers the message at a stop
+     * @param walzenlage The walzenlage the stop was found with
+     * @param stop The stop, as returned by {@link Bombe#run()}
+     * @return the message deciphered with the stop's steckers, from the key {@link PlaintextVerifier#recoverKey(int[], String[])} finds
+     */
+    public String decrypt(int[] walzenlage, String[] stop) {
+        return MachineState.encode(recoverKey(walzenlage, stop), getPlugBoard(stop), cipherText);
+    }
+
+    /**
+     * Recovers the middle and right rings a stop left open, by deciphering the message once per key class the
+     * stop's core positions belong to, see {@link CanonicalKey#getRingClasses(long, int)}, and keeping the one
+     * that reads best. The steckers are the stop's deductions, so letters off the menu may still be wrong.
+     * @param walzenlage The walzenlage the stop was found with
+     * @param stop The stop, as returned by {@link Bombe#run()}
+     * @return the packed state the message starts from, see {@link MachineState}
+     */
+    public long recoverKey(int[] walzenlage, String[] stop) {
+        byte[] plugBoard = getPlugBoard(stop);
+
+        long best = 0;
+        double bestScore = -1;
+        for(long state : CanonicalKey.getRingClasses(CanonicalKey.fromStop(walzenlage, stop), cipherText.length())) {
+            double score = getIndexOfCoincidence(MachineState.encode(state, plugBoard, cipherText));
+
+            if(score > bestScore) {
+                best = state;
+                bestScore = score;
+            }
+        }
+
+        return best;
+    }
+
+    private static byte[] getPlugBoard(String[] stop) {
+        return MachineState.createPlugBoard(stop[1].isBlank() ? new PlugBoard() : new PlugBoard(stop[1]));
+    }
+
+    /**
+     * @param text The text, all letters
+     * @return the chance that two letters picked at random from the text are the same
+     */
+    public static double getIndexOfCoincidence(String text) {
+        int[] counts = new int[26];
+        int length = 0;
+
+        for(char c : text.toLowerCase().toCharArray()) {
+            if(c >= 'a' && c <= 'z') {
+                counts[c - 'a']++;
+                length++;
+            }
+        }
+
+        if(length < 2) {
+            return 0;
+        }
+
+        long pairs = 0;
+        for(int count : counts) {
+            pairs += (long)count * (count - 1);
+        }
+
+        return pairs / ((double)length * (length - 1));
+    }
+}
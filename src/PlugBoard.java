@@ -56,6 +56,25 @@ public class PlugBoard {
         add((char)(a + 'a'), (char)(b + 'a'));
     }
 
+    /**
+     * Adds every stecker pair of another plug board, unless the two plug boards contradict each other.
+     * A letter steckered to itself counts, it contradicts the letter being steckered to any other.
+     * @param other The plug board to add
+     * @return false if a letter is steckered differently on the two plug boards, in which case nothing is added
+     */
+    public boolean merge(PlugBoard other) {
+        for(char c : other.swaps.keySet()) {
+            Character swap = swaps.get(c);
+
+            if(swap != null && swap != other.swaps.get(c).charValue()) {
+                return false;
+            }
+        }
+
+        swaps.putAll(other.swaps);
+        return true;
+    }
+
     /**
      * Performs the swapping of a letter. If the letter has a stecker pair,
      * it will be replaced with that letter
@@ -0,0 +1,145 @@
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cross-checks the fast engines against the plain reference model, so that a table, packing or caching bug
+ * fails loudly instead of quietly producing wrong cracks.
+ *
+ * The reference model is the straightforward code: {@link Enigma} and {@link Rotor} for enciphering, and for
+ * the Bombe a closure of every hypothesis with a work list through scramblers that don't use any cache (see
+ * {@link Bombe#testReference(int)}). The fast engines sample a fraction of their work and run it again on the
+ * reference model:
+ * - {@link MachineState#encode(long, byte[], String)} and {@link DayKey#decrypt(String, String)}, per message
+ * - {@link Bombe}, including the cached scramblers of {@link BombeEnigma}, per rotor position
+ *
+ * The fraction starts at the enigma.verify system property, e.g. -Denigma.verify=0.001, and is off without
+ * it. A sampled Bombe position costs a few dozen unsampled ones, as the reference runs the checking machine
+ * on all 26 hypotheses without any cache. On the long benchmark menu 0.001 adds a few percent and can stay on
+ * in production, 0.01 adds about 20%. A mismatch throws an IllegalStateException describing both results.
+ *
+ * bench/DifferentialSuite runs the same comparisons over seeded random rotor orders, rings, plug boards
+ * and menus.
+ */
+public final class ReferenceEngine {
+
+    private static volatile double samplingRate = parseRate(System.getProperty("enigma.verify"));
+
+    private static final LongAdder samples = new LongAdder();
+
+    private ReferenceEngine() {}
+
+    private static double parseRate(String rate) {
+        return rate == null || rate.isBlank() ? 0 : checkRate(Double.parseDouble(rate));
+    }
+
+    private static double checkRate(double rate) {
+        if(!(rate >= 0 && rate <= 1)) {
+            throw new IllegalArgumentException("The sampling rate must be between 0 and 1: " + rate);
+        }
+
+        return rate;
+    }
+
+    /**
+     * @param rate The fraction of messages and Bombe positions to check against the reference model, 0 turns
+     *             checking off and 1 checks everything
+     */
+    public static void setSamplingRate(double rate) {
+        samplingRate = checkRate(rate);
+    }
+
+    public static double getSamplingRate() {
+        return samplingRate;
+    }
+
+    /**
+     * @return how many checks have run against the reference model
+     */
+    public static long getSamples() {
+        return samples.sum();
+    }
+
+    /**
+     * @return whether the caller should check the piece of work it's doing
+     */
+    static boolean sample() {
+        double rate = samplingRate;
+        return rate > 0 && (rate >= 1 || ThreadLocalRandom.current().nextDouble() < rate);
+    }
+
+    /**
+     * Enciphers a message on an {@link Enigma}, stepping the rotors for letters only and passing through
+     * everything else
+     * @param state The packed state to start from
+     * @param plugBoard The plug board
+     * @param text The message
+     * @return the enciphered message, in lower case
+     */
+    public static String encode(long state, byte[] plugBoard, String text) {
+        Enigma enigma = MachineState.toEnigma(state, plugBoard);
+
+        char[] letters = text.toLowerCase().toCharArray();
+        for(int i = 0; i < letters.length; i++) {
+            if(letters[i] >= 'a' && letters[i] <= 'z') {
+                letters[i] = enigma.encode(letters[i]);
+            }
+        }
+
+        return new String(letters);
+    }
+
+    /**
+     * Checks a fast engine's encipherment of a message
+     * @param engine The engine, for the error message
+     * @param state The packed state the message started from
+     * @param plugBoard The plug board
+     * @param text The message
+     * @param encoded What the engine made of it, compared ignoring case
+     */
+    static void checkEncode(String engine, long state, byte[] plugBoard, String text, String encoded) {
+        samples.increment();
+
+        String expected = encode(state, plugBoard, text);
+        if(!expected.equalsIgnoreCase(encoded)) {
+            throw new IllegalStateException(engine + " diverged from the reference engine at " + MachineState.toString(state)
+                    + " enciphering " + text + ": expected " + expected + ", got " + encoded);
+        }
+    }
+
+    /**
+     * Checks the outcome of a Bombe's rotor position
+     * @param bombe The Bombe
+     * @param position The position, see {@link Bombe#run(int, int)}
+     * @param deductions What the Bombe made of it, null if it didn't stop
+     */
+    static void checkBombe(Bombe bombe, int position, PlugBoard deductions) {
+        samples.increment();
+
+        PlugBoard expected = bombe.testReference(position);
+        if(!describe(expected).equals(describe(deductions))) {
+            throw new IllegalStateException("Bombe diverged from the reference engine at " + bombe.getStatistics().configuration
+                    + " " + bombe.getIndicator() + ": expected " + describe(expected) + ", got " + describe(deductions));
+        }
+    }
+
+    /**
+     * @param board A plug board, or null for no stop
+     * @return the plug board's pairs in a fixed order, such as "ab kk qz", or "no stop"
+     */
+    public static String describe(PlugBoard board) {
+        if(board == null) {
+            return "no stop";
+        }
+
+        String[] pairs = board.toString().trim().split("\\s+");
+        for(int i = 0; i < pairs.length; i++) {
+            if(pairs[i].length() == 2 && pairs[i].charAt(0) > pairs[i].charAt(1)) {
+                pairs[i] = "" + pairs[i].charAt(1) + pairs[i].charAt(0);
+            }
+        }
+
+        Arrays.sort(pairs);
+        return String.join(" ", pairs).trim();
+    }
+}
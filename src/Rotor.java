@@ -34,6 +34,10 @@
  * A reflector however does not rotate or support a ring setting,
  * so they are both left at 0.
  *
+ * The four rotor naval Enigma (M4) adds a thin "greek" rotor, Beta or Gamma,
+ * between the left rotor and a thin reflector. Greek rotors have a ring setting
+ * and can be set to any rotation, but have no notch and are never rotated.
+ *
  */
 public class Rotor {
 
@@ -44,7 +48,11 @@ public class Rotor {
         IV("ESOVPZJAYQUIRHXLNFTGKDCMWB", 'j'),
         V("VZBRGITYUPSDNHLXAWMJQOFECK", 'z'),
         ReflectorB("YRUHQSLDPXNGOKMIEBFZCWVJAT"),
-        ReflectorC("FVPJIAOYEDRZXWGCTKUQSBNMHL");
+        ReflectorC("FVPJIAOYEDRZXWGCTKUQSBNMHL"),
+        Beta("LEYJVCNIXWPBQMDRTAKZGFUHOS"),
+        Gamma("FSOKANUERHMBTIYCWLQPZXVGJD"),
+        ReflectorBThin("ENKQAUYWJICOPBLMDXZVFTHRGS"),
+        ReflectorCThin("RDOBJNTKVEHMLFCWZAXGYIPSUQ");
 
         private final String text;
         private char turnOver;
@@ -61,6 +69,20 @@ public class Rotor {
         public static Mapping getMapping(int index) {
             return values()[index];
         }
+
+        /**
+         * @return the wiring, the letter each contact from 'a' to 'z' is mapped to when going forwards
+         */
+        public String getWiring() {
+            return text;
+        }
+
+        /**
+         * @return the rotation at which this rotor turns over its neighbor, or 0 if it never does
+         */
+        public char getTurnOver() {
+            return turnOver;
+        }
     }
 
     public final Mapping mapping;
@@ -135,7 +157,12 @@ public class Rotor {
         this.rotation = originalRotation;
     }
 
+    /**
+     * @return a rotor with the same mapping, ring offset, rotation, and original rotation
+     */
     public Rotor copy() {
-        return new Rotor(mapping, 0, 0);
+        Rotor copy = new Rotor(mapping, ringOffset, originalRotation);
+        copy.rotation = rotation;
+        return copy;
     }
 }
\ No newline at end of file
@@ -0,0 +1,194 @@
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.*;
+
+/**
+ * Deciphers a whole day's traffic, or several days', once the day keys are known. Each message's key is
+ * recovered from its indicator at the day's ground setting, then the messages are deciphered in parallel
+ * using the tables of their {@link DayKey}, which every message of the same day shares.
+ *
+ * Messages are read one per line in the format
+ * [day] [indicator] [cipher text]
+ * and each is written, in the same order, as
+ * [day] [message key] [plain text]
+ * A message that can't be deciphered, because its day isn't on the key sheet or its indicator doesn't
+ * repeat, is written as a line starting with # that says why.
+ *
+ * The messages are read in blocks, so the output streams out while the rest of the input is still being read.
+ *
+ * Run with: java -cp enigma.jar TrafficDecryptor [key sheet] [messages file] [output file] [threads]
+ */
+public class TrafficDecryptor implements Closeable {
+
+    // How many messages are read before they are deciphered and written out
+    private static final int BLOCK_SIZE = 4096;
+
+    private final ThreadPoolExecutor executor;
+    private final int threads;
+
+    private final HashMap<String, DayKey> dayKeys = new HashMap<>();
+
+    private long characters;
+
+    public TrafficDecryptor(int threads) {
+        this.threads = threads;
+        this.executor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>());
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if(args.length < 3) {
+            System.err.println("Usage: TrafficDecryptor [key sheet] [messages file] [output file] [threads]");
+            System.exit(1);
+        }
+
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        long start = System.nanoTime();
+
+        try(TrafficDecryptor decryptor = new TrafficDecryptor(threads);
+            BufferedReader sheet = new BufferedReader(new FileReader(args[0]));
+            BufferedReader in = new BufferedReader(new FileReader(args[1]));
+            Writer out = new BufferedWriter(new FileWriter(args[2]))) {
+            decryptor.readKeySheet(sheet);
+            int messages = decryptor.run(in, out);
+
+            long elapsed = Math.max((System.nanoTime() - start) / 1_000_000, 1);
+            System.out.println("Deciphered " + messages + " messages, " + decryptor.getCharacters() + " characters in " + elapsed + "ms ("
+                    + decryptor.getCharacters() * 1000 / elapsed + " characters/s)");
+        }
+    }
+
+    /**
+     * Reads the day keys, one per line, blank lines and lines starting with # are skipped
+     * @param in The key sheet, see {@link DayKey}
+     * @return the number of day keys read
+     * @throws IOException If reading fails
+     */
+    public int readKeySheet(BufferedReader in) throws IOException {
+        int count = 0;
+
+        String line;
+        while((line = in.readLine()) != null) {
+            line = line.trim();
+
+            if(line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            DayKey dayKey = DayKey.parse(line);
+            dayKeys.put(dayKey.day, dayKey);
+            count++;
+        }
+
+        return count;
+    }
+
+    /**
+     * Deciphers every message in the input, blank lines and lines starting with # are skipped
+     * @param in The messages, one per line
+     * @param out Where to write the plain texts, one per line in the same order
+     * @return the number of messages read
+     * @throws IOException If reading the messages or writing the plain texts fails
+     * @throws InterruptedException If interrupted while waiting for a block to be deciphered
+     */
+    public int run(BufferedReader in, Writer out) throws IOException, InterruptedException {
+        ArrayList<String> block = new ArrayList<>();
+        int count = 0;
+
+        String line;
+        while((line = in.readLine()) != null) {
+            line = line.trim();
+
+            if(line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            block.add(line);
+            count++;
+
+            if(block.size() == BLOCK_SIZE) {
+                runBlock(block, out);
+                block.clear();
+            }
+        }
+
+        runBlock(block, out);
+        out.flush();
+
+        return count;
+    }
+
+    private void runBlock(ArrayList<String> block, Writer out) throws IOException, InterruptedException {
+        String[] results = new String[block.size()];
+
+        // One slice of the block per thread, so each task is big enough to be worth queueing
+        ArrayList<Future<Long>> futures = new ArrayList<>();
+        int slice = (block.size() + threads - 1) / threads;
+        for(int start = 0; start < block.size(); start += slice) {
+            final int from = start;
+            final int to = Math.min(start + slice, block.size());
+
+            futures.add(executor.submit(() -> {
+                long characters = 0;
+
+                for(int i = from; i < to; i++) {
+                    results[i] = decrypt(block.get(i));
+                    characters += block.get(i).length();
+                }
+
+                return characters;
+            }));
+        }
+
+        for(Future<Long> future : futures) {
+            try {
+                characters += future.get();
+            } catch(ExecutionException e) {
+                throw new IllegalStateException("Deciphering a message failed", e.getCause());
+            }
+        }
+
+        for(String result : results) {
+            out.write(result);
+            out.write('\n');
+        }
+    }
+
+    /**
+     * Deciphers a single message
+     * @param line The message, as "[day] [indicator] [cipher text]"
+     * @return the line to write, "[day] [message key] [plain text]" or a # line saying why it couldn't be deciphered
+     */
+    public String decrypt(String line) {
+        String[] tokens = line.split("\\s+", 3);
+
+        if(tokens.length < 3) {
+            return "# Expected a day, an indicator and a cipher text: " + line;
+        }
+
+        DayKey dayKey = dayKeys.get(tokens[0]);
+        if(dayKey == null) {
+            return "# No key for day " + tokens[0] + ": " + line;
+        }
+
+        try {
+            String messageKey = dayKey.getMessageKey(tokens[1].toLowerCase());
+            return tokens[0] + " " + messageKey + " " + dayKey.decrypt(messageKey, tokens[2]);
+        } catch(IllegalArgumentException e) {
+            return "# " + e.getMessage() + ": " + line;
+        }
+    }
+
+    /**
+     * @return how many characters of messages, including their day and indicator, have been deciphered so far
+     */
+    public long getCharacters() {
+        return characters;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+}
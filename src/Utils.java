@@ -6,4 +6,40 @@ public class Utils {
     public static int a2i(char c) {
         return c - 'a';
     }
+
+    /**
+     * @return the text as a quoted and escaped JSON string
+     */
+    public static String json(String text) {
+        StringBuilder builder = new StringBuilder("\"");
+
+        for(char c : text.toCharArray()) {
+            if(c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if(c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+
+        return builder.append('"').toString();
+    }
+
+    /**
+     * @param stops Bombe stops, in the format returned by {@link Bombe#run()}
+     * @return the stops as a JSON array of objects
+     */
+    public static String json(Iterable<String[]> stops) {
+        StringBuilder builder = new StringBuilder("[");
+
+        for(String[] stop : stops) {
+            builder.append(builder.length() == 1 ? "" : ",")
+                    .append("{\"rotations\":").append(json(stop[0]))
+                    .append(",\"steckers\":").append(json(stop[1].trim()))
+                    .append(",\"rotors\":").append(json(stop[2])).append('}');
+        }
+
+        return builder.append(']').toString();
+    }
 }
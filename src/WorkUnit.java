@@ -0,0 +1,55 @@
+/**
+ * A slice of the farm's search space that can be handed to a worker: a single walzenlage
+ * (the reflector and the left, middle, and right rotors) and a range of rotor positions
+ * to test with it. Positions are indexed the same way as {@link Bombe#run(int, int)}.
+ *
+ * Work units travel over the wire as a single line of text, see {@link WorkUnit#toString()}
+ */
+public class WorkUnit {
+
+    public final int id;
+
+    // Rotor.Mapping ordinals: reflector, left, middle, and right
+    public final int[] walzenlage;
+
+    public final int start, end;
+
+    public WorkUnit(int id, int[] walzenlage, int start, int end) {
+        this.id = id;
+        this.walzenlage = walzenlage;
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Parses a work unit from the format produced by {@link WorkUnit#toString()}
+     * @param line A line such as "UNIT 12 5 0 1 2 0 676"
+     * @return The parsed work unit
+     */
+    public static WorkUnit parse(String line) {
+        String[] tokens = line.trim().split("\\s+");
+
+        if(tokens.length != 8 || !"UNIT".equals(tokens[0])) {
+            throw new IllegalArgumentException("Malformed work unit: " + line);
+        }
+
+        int[] walzenlage = new int[4];
+        for(int i = 0; i < 4; i++) {
+            walzenlage[i] = Integer.parseInt(tokens[2 + i]);
+        }
+
+        return new WorkUnit(Integer.parseInt(tokens[1]), walzenlage, Integer.parseInt(tokens[6]), Integer.parseInt(tokens[7]));
+    }
+
+    /**
+     * @return a key identifying the walzenlage, units sharing a key can share a {@link Bombe}
+     */
+    public String getWalzenlageKey() {
+        return walzenlage[0] + " " + walzenlage[1] + " " + walzenlage[2] + " " + walzenlage[3];
+    }
+
+    @Override
+    public String toString() {
+        return "UNIT " + id + " " + getWalzenlageKey() + " " + start + " " + end;
+    }
+}
@@ -0,0 +1,263 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Zygalski's perforated sheets find the walzenlage and ring settings of a day's key from nothing but the
+ * indicators of its messages, as the Polish Cipher Bureau did before the war.
+ *
+ * Back then the operator picked a ground setting for every message and sent it in the clear, then set the
+ * rotors to it and typed his message key twice. If the same key letter comes out as the same cipher letter
+ * three key presses apart, at the 1st and 4th, 2nd and 5th, or 3rd and 6th letter of the doubled key, the
+ * indicator is a "female". That can only happen if the scramblers at those two key presses map some letter
+ * the same way, and whether they do only depends on the rotors' core positions (rotation - ring offset),
+ * not on the plug board, which merely relabels the letters.
+ *
+ * A sheet holds, for one walzenlage and left rotor core position, a 26 x 26 grid of middle and right core
+ * positions, with a hole where a female can occur. Each female says the day's rings put the rotors, from
+ * its ground setting, over a hole. Laying out every female's sheet shifted by its ground setting and
+ * shining a light through the stack leaves only the ring settings every female agrees with.
+ *
+ * Here a sheet row is a 26 bit mask of right ring offsets, precomputed for every shift of the ground's
+ * right letter, so stacking a female over a row is a single AND. Walzenlagen and left ring offsets are
+ * stacked in parallel. A female whose doubled key steps the middle rotor between its two letters doesn't fit
+ * any sheet and is left out for that walzenlage, one that steps it before both letters uses the shifted sheet.
+ */
+public class ZygalskiSheets {
+
+    private static final int ALL = (1 << 26) - 1;
+
+    // Each message's ground setting, left, middle, and right, and which of its three letter pairs are females
+    private final int[][] grounds;
+    private final int[] females;
+
+    /**
+     * @param indicators The day's indicators, each entry is the ground setting (three letters) and the
+     *                   doubly enciphered message key (six letters)
+     */
+    public ZygalskiSheets(List<String[]> indicators) {
+        this.grounds = new int[indicators.size()][3];
+        this.females = new int[indicators.size()];
+
+        for(int i = 0; i < indicators.size(); i++) {
+            String ground = indicators.get(i)[0].toLowerCase();
+            String key = indicators.get(i)[1].toLowerCase();
+
+            if(ground.length() != 3 || key.length() != 6) {
+                throw new IllegalArgumentException("Expected a three letter ground setting and a six letter key: " + ground + " " + key);
+            }
+
+            for(int j = 0; j < 3; j++) {
+                grounds[i][j] = Utils.a2i(ground.charAt(j));
+
+                if(key.charAt(j) == key.charAt(j + 3)) {
+                    females[i] |= 1 << j;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads indicators, one per line as "[ground] [enciphered key]", skipping blank lines and lines starting with #
+     * @param in The indicators
+     * @return the sheets for the indicators
+     * @throws IOException If reading fails
+     */
+    public static ZygalskiSheets read(BufferedReader in) throws IOException {
+        ArrayList<String[]> indicators = new ArrayList<>();
+
+        String line;
+        while((line = in.readLine()) != null) {
+            line = line.trim();
+
+            if(line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] tokens = line.split("\\s+");
+            if(tokens.length != 2) {
+                throw new IllegalArgumentException("Expected a ground setting and an enciphered key: " + line);
+            }
+
+            indicators.add(tokens);
+        }
+
+        return new ZygalskiSheets(indicators);
+    }
+
+    /**
+     * @return how many females the indicators hold, an indicator may hold more than one
+     */
+    public int getFemales() {
+        int count = 0;
+        for(int female : females) {
+            count += Integer.bitCount(female);
+        }
+
+        return count;
+    }
+
+    /**
+     * Stacks the sheets of every female for each walzenlage
+     * @param walzenlagen The walzenlagen to try, see {@link BombeFarm#getWalzenlagen()}
+     * @return for each walzenlage, 676 masks of the ring settings that survive, entry 26 * left + middle holds
+     * bit right for the ring offsets left, middle, right
+     */
+    public int[][] stack(List<int[]> walzenlagen) {
+        int[][] sheets = new int[walzenlagen.size()][];
+        int[][] cards = new int[walzenlagen.size()][];
+        IntStream.range(0, walzenlagen.size()).parallel().forEach(w -> {
+            sheets[w] = getSheets(walzenlagen.get(w));
+            cards[w] = getCards(walzenlagen.get(w));
+        });
+
+        int[][] survivors = new int[walzenlagen.size()][26 * 26];
+        IntStream.range(0, 26 * walzenlagen.size()).parallel().forEach(task -> {
+            int w = task / 26;
+            int left = task % 26;
+
+            int[] sheet = sheets[w];
+            int[] card = cards[w];
+            int[] rows = survivors[w];
+
+            for(int middle = 0; middle < 26; middle++) {
+                int row = ALL;
+
+                for(int c = 0; c < card.length && row != 0; c += 4) {
+                    int l = (card[c + 1] - left + 26) % 26;
+                    int m = (card[c + 2] - middle + 26) % 26;
+                    row &= sheet[26 * (676 * card[c] + 26 * l + m) + card[c + 3]];
+                }
+
+                rows[26 * left + middle] = row;
+            }
+        });
+
+        return survivors;
+    }
+
+    /**
+     * @param survivors The masks of one walzenlage, see {@link ZygalskiSheets#stack(List)}
+     * @return how many ring settings survive
+     */
+    public static int count(int[] survivors) {
+        int count = 0;
+        for(int row : survivors) {
+            count += Integer.bitCount(row);
+        }
+
+        return count;
+    }
+
+    /**
+     * @param survivors The masks of one walzenlage, see {@link ZygalskiSheets#stack(List)}
+     * @param limit The most ring settings to list
+     * @return the ring settings that survive as three letters, left, middle, and right, in order
+     */
+    public static ArrayList<String> getRings(int[] survivors, int limit) {
+        ArrayList<String> rings = new ArrayList<>();
+
+        for(int i = 0; i < survivors.length && rings.size() < limit; i++) {
+            for(int right = 0; right < 26 && rings.size() < limit; right++) {
+                if((survivors[i] & (1 << right)) != 0) {
+                    rings.add("" + Utils.i2a(i / 26) + Utils.i2a(i % 26) + Utils.i2a(right));
+                }
+            }
+        }
+
+        return rings;
+    }
+
+    /**
+     * Punches the sheets of a walzenlage. Entry 26 * (676 * pair + 26 * left + middle) + ground is the row for the
+     * left and middle core positions, with the ground setting's right letter at ground: bit ring is set if the
+     * letter pair (0 for 1st and 4th, and so on) can be a female with the right rotor's ring offset at ring.
+     */
+    static int[] getSheets(int[] walzenlage) {
+        BombeEnigma enigma = new BombeEnigma(BombeFarm.createEnigma(walzenlage));
+        byte[] scramblers = new byte[26 * 26];
+        int[] sheets = new int[3 * 676 * 26];
+
+        for(int left = 0; left < 26; left++) {
+            for(int middle = 0; middle < 26; middle++) {
+                enigma.copyScramblers(left, middle, scramblers);
+
+                for(int pair = 0; pair < 3; pair++) {
+                    // Bit right is set if the right core position, pair + 1 and pair + 4 key presses on, has a hole
+                    int holes = 0;
+                    for(int right = 0; right < 26; right++) {
+                        int first = 26 * ((right + pair + 1) % 26);
+                        int second = 26 * ((right + pair + 4) % 26);
+
+                        for(int letter = 0; letter < 26; letter++) {
+                            if(scramblers[first + letter] == scramblers[second + letter]) {
+                                holes |= 1 << right;
+                                break;
+                            }
+                        }
+                    }
+
+                    // Shifted by the ground's right letter, the core position is ground - ring
+                    int row = 26 * (676 * pair + 26 * left + middle);
+                    for(int ground = 0; ground < 26; ground++) {
+                        int mask = 0;
+                        for(int ring = 0; ring < 26; ring++) {
+                            if((holes & (1 << ((ground - ring + 26) % 26))) != 0) {
+                                mask |= 1 << ring;
+                            }
+                        }
+
+                        sheets[row + ground] = mask;
+                    }
+                }
+            }
+        }
+
+        return sheets;
+    }
+
+    /**
+     * Lays out every female that fits the sheets of a walzenlage, four entries each: the letter pair, and the
+     * left, middle and right letters its sheet is shifted by. Those are the ground setting's, plus any steps of
+     * the left and middle rotors before the pair's first letter.
+     */
+    private int[] getCards(int[] walzenlage) {
+        long start = MachineState.create(Rotor.Mapping.getMapping(walzenlage[0]), null, Rotor.Mapping.getMapping(walzenlage[1]),
+                Rotor.Mapping.getMapping(walzenlage[2]), Rotor.Mapping.getMapping(walzenlage[3]));
+
+        ArrayList<Integer> cards = new ArrayList<>();
+        for(int i = 0; i < grounds.length; i++) {
+            if(females[i] == 0) {
+                continue;
+            }
+
+            // Turnovers depend on the rotations, which the ground setting gives away, so the steps are known
+            long state = MachineState.withRotation(start, MachineState.LEFT, grounds[i][0]);
+            state = MachineState.withRotation(state, MachineState.MIDDLE, grounds[i][1]);
+            state = MachineState.withRotation(state, MachineState.RIGHT, grounds[i][2]);
+
+            int[] lefts = new int[7];
+            int[] middles = new int[7];
+            for(int press = 1; press <= 6; press++) {
+                state = MachineState.step(state);
+                lefts[press] = MachineState.getRotation(state, MachineState.LEFT);
+                middles[press] = MachineState.getRotation(state, MachineState.MIDDLE);
+            }
+
+            for(int pair = 0; pair < 3; pair++) {
+                if((females[i] & (1 << pair)) == 0 || lefts[pair + 1] != lefts[pair + 4] || middles[pair + 1] != middles[pair + 4]) {
+                    continue;
+                }
+
+                cards.add(pair);
+                cards.add(lefts[pair + 1]);
+                cards.add(middles[pair + 1]);
+                cards.add(grounds[i][2]);
+            }
+        }
+
+        return cards.stream().mapToInt(Integer::intValue).toArray();
+    }
+}